@@ -27,5 +27,12 @@ public class NettyClientMain {
 
         String res2 = helloService.hello(new Hello("222", "222"));
         System.out.println(res2);
+
+        // 异步调用, 同一个线程可以同时发出多个请求
+        CompletableFuture<String> future1 = helloService.helloAsync(new Hello("333", "333"));
+        CompletableFuture<String> future2 = helloService.helloAsync(new Hello("444", "444"));
+        future1.thenCombine(future2, (r1, r2) -> r1 + " / " + r2)
+                .thenAccept(System.out::println)
+                .join();
     }
 }
@@ -5,6 +5,8 @@ import org.slf4j.LoggerFactory;
 import studio.lh.Hello;
 import studio.lh.HelloService;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author :MayRain
  * @version :1.0
@@ -20,4 +22,9 @@ public class HelloServiceImpl2 implements HelloService {
         LOGGER.info("HelloServiceImpl返回: {}.", result);
         return result;
     }
+
+    @Override
+    public CompletableFuture<String> helloAsync(Hello hello) {
+        return CompletableFuture.completedFuture(hello(hello));
+    }
 }
@@ -0,0 +1,36 @@
+package studio.lh.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/22 21:00
+ * @description : 运行基准测试并把结果写成JSON文件，不同版本的结果文件可以直接对比，发现性能回退
+ * 运行: java -cp rpc-benchmark/target/benchmarks.jar studio.lh.benchmark.BenchmarkRunner [基准测试名的正则...]
+ * 不指定正则时运行全部基准测试。结果文件通过 -Drpc.benchmark.result 指定，默认为 jmh-result.json
+ * 使用 benchmarks.jar 的默认入口时，加上 -rf json -rff 文件名 也能得到同样格式的结果
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String result = System.getProperty("rpc.benchmark.result", "jmh-result.json");
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .resultFormat(ResultFormatType.JSON)
+                .result(result);
+        if (args.length == 0) {
+            options.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+        }
+        for (String include : args) {
+            options.include(include);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,94 @@
+package studio.lh.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+import studio.lh.compress.CompressTypeEnum;
+import studio.lh.dto.RpcMessage;
+import studio.lh.dto.RpcResponse;
+import studio.lh.enumeration.RpcMessageTypeEnum;
+import studio.lh.serialize.Serializer;
+import studio.lh.transport.netty.NettyKryoDecoder;
+import studio.lh.transport.netty.NettyKryoEncoder;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/22 19:40
+ * @description : 协议编解码器在EmbeddedChannel上编码、解码一个响应帧，不经过网络
+ * 覆盖序列化器、压缩算法和消息体大小的组合，压缩阈值为0，压缩算法对所有消息生效
+ * 运行: java -jar rpc-benchmark/target/benchmarks.jar CodecBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"kryo", "json"})
+    private String serializer;
+
+    @Param({"none", "gzip", "snappy"})
+    private String compress;
+
+    /**
+     * 响应中字符串的字节数
+     */
+    @Param({"128", "16384", "131072"})
+    private int size;
+
+    private EmbeddedChannel encoderChannel;
+
+    private EmbeddedChannel decoderChannel;
+
+    private RpcMessage message;
+
+    private ByteBuf encoded;
+
+    @Setup
+    public void setup() {
+        encoderChannel = new EmbeddedChannel(new NettyKryoEncoder(CompressTypeEnum.of(compress).getCode(), 0));
+        decoderChannel = new EmbeddedChannel(new NettyKryoDecoder());
+        char[] chars = new char[size];
+        // 有一定重复的内容, 接近真实数据的压缩率
+        for (int i = 0; i < size; i++) {
+            chars[i] = (char) ('a' + i % 26);
+        }
+        Arrays.fill(chars, 0, Math.min(size, 16), '#');
+        message = RpcMessage.builder()
+                .messageType(RpcMessageTypeEnum.RESPONSE.getCode())
+                .codec((byte) ("json".equals(serializer) ? Serializer.JSON_SERIALIZER : Serializer.KRYO_SERIALIZER).intValue())
+                .requestId(1L)
+                .data(RpcResponse.success(new String(chars), 1L))
+                .build();
+        encoderChannel.writeOutbound(message);
+        encoded = encoderChannel.readOutbound();
+    }
+
+    @TearDown
+    public void tearDown() {
+        encoded.release();
+        encoderChannel.finishAndReleaseAll();
+        decoderChannel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public int encode() {
+        encoderChannel.writeOutbound(message);
+        ByteBuf byteBuf = encoderChannel.readOutbound();
+        int length = byteBuf.readableBytes();
+        byteBuf.release();
+        return length;
+    }
+
+    @Benchmark
+    public Object decode() {
+        decoderChannel.writeInbound(encoded.retainedDuplicate());
+        return decoderChannel.readInbound();
+    }
+}
@@ -0,0 +1,100 @@
+package studio.lh.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import studio.lh.Hello;
+import studio.lh.HelloService;
+import studio.lh.dto.RpcRequest;
+import studio.lh.provider.ServiceInvoker;
+import studio.lh.provider.ServiceProviderImpl;
+import studio.lh.transport.RpcRequestHandler;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/13 21:10
+ * @description : 对比服务端方法分发: 原先每次 getMethod + Method.invoke，与注册时预先构建的MethodHandle调用表
+ * 以及经过RpcRequestHandler的完整分发: 首次请求按接口名、方法名和参数类型查找，协商后的请求按方法编号查找
+ * 运行: java -jar rpc-benchmark/target/benchmarks.jar DispatchBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+
+    private static final Class<?>[] PARAM_TYPES = {Hello.class};
+
+    private final HelloService service = new BenchmarkHelloService();
+
+    private final ServiceInvoker serviceInvoker = new ServiceInvoker(service, HelloService.class);
+
+    private final RpcRequestHandler rpcRequestHandler = new RpcRequestHandler();
+
+    private Object[] parameters;
+
+    private RpcRequest byMethodIdRequest;
+
+    @Setup
+    public void setup() {
+        parameters = new Object[]{new Hello("benchmark", "benchmark")};
+        // RpcRequestHandler从注册过的服务中查找
+        new ServiceProviderImpl().addService(service, HelloService.class);
+        RpcRequest negotiated = byNameRequest();
+        rpcRequestHandler.resolve(negotiated);
+        byMethodIdRequest = RpcRequest.builder()
+                .methodId(negotiated.getMethodId())
+                .parameters(parameters)
+                .build();
+    }
+
+    @Benchmark
+    public Object reflective() throws Exception {
+        Method method = service.getClass().getMethod("hello", PARAM_TYPES);
+        return method.invoke(service, parameters);
+    }
+
+    @Benchmark
+    public Object invokerTable() throws Throwable {
+        return serviceInvoker.getMethodInvoker("hello", PARAM_TYPES).invoke(parameters);
+    }
+
+    /**
+     * 查找时会回填方法编号, 所以每次都用新的请求
+     */
+    @Benchmark
+    public Object requestHandlerByName() {
+        return rpcRequestHandler.handle(byNameRequest());
+    }
+
+    @Benchmark
+    public Object requestHandlerByMethodId() {
+        return rpcRequestHandler.handle(byMethodIdRequest);
+    }
+
+    private RpcRequest byNameRequest() {
+        return RpcRequest.builder()
+                .interfaceName(HelloService.class.getCanonicalName())
+                .methodName("hello")
+                .paramTypes(PARAM_TYPES)
+                .parameters(parameters)
+                .build();
+    }
+
+    public static class BenchmarkHelloService implements HelloService {
+        @Override
+        public String hello(Hello hello) {
+            return hello.getMessage();
+        }
+
+        @Override
+        public CompletableFuture<String> helloAsync(Hello hello) {
+            return CompletableFuture.completedFuture(hello.getMessage());
+        }
+    }
+}
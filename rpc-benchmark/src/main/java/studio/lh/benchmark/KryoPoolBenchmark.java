@@ -0,0 +1,97 @@
+package studio.lh.benchmark;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.openjdk.jmh.annotations.*;
+import studio.lh.dto.RpcRequest;
+import studio.lh.dto.RpcResponse;
+import studio.lh.serialize.kryo.KryoSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/11 16:05
+ * @description : 对比Kryo对象池与原先 ThreadLocal 用完即 remove 的实现，一次序列化加一次反序列化
+ * 运行: java -jar rpc-benchmark/target/benchmarks.jar KryoPoolBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KryoPoolBenchmark {
+
+    /**
+     * 原先的实现: ThreadLocal.get() 之后立即 remove()，每次调用都会新建并注册 Kryo
+     */
+    private static final ThreadLocal<Kryo> KRYO_THREAD_LOCAL = ThreadLocal.withInitial(() -> {
+        Kryo kryo = new Kryo();
+        kryo.register(RpcResponse.class);
+        kryo.register(RpcRequest.class);
+        kryo.setReferences(false);
+        return kryo;
+    });
+
+    private final KryoSerializer kryoSerializer = new KryoSerializer();
+
+    private RpcResponse<String> response;
+
+    @Setup
+    public void setup() {
+        response = RpcResponse.success("Hello description is benchmark", 1L);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object pooledSingleThread() {
+        return pooledRoundTrip();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object pooledFourThreads() {
+        return pooledRoundTrip();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object threadLocalRemoveSingleThread() throws IOException {
+        return threadLocalRemoveRoundTrip();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object threadLocalRemoveFourThreads() throws IOException {
+        return threadLocalRemoveRoundTrip();
+    }
+
+    private Object pooledRoundTrip() {
+        byte[] bytes = kryoSerializer.serialize(response);
+        return kryoSerializer.deserialize(bytes, RpcResponse.class);
+    }
+
+    private Object threadLocalRemoveRoundTrip() throws IOException {
+        byte[] bytes;
+        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+             Output output = new Output(byteArrayOutputStream)) {
+            Kryo kryo = KRYO_THREAD_LOCAL.get();
+            kryo.writeObject(output, response);
+            KRYO_THREAD_LOCAL.remove();
+            bytes = output.toBytes();
+        }
+        try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
+             Input input = new Input(byteArrayInputStream)) {
+            Kryo kryo = KRYO_THREAD_LOCAL.get();
+            Object o = kryo.readObject(input, RpcResponse.class);
+            KRYO_THREAD_LOCAL.remove();
+            return o;
+        }
+    }
+}
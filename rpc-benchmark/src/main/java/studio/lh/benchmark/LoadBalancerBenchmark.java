@@ -0,0 +1,99 @@
+package studio.lh.benchmark;
+
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import org.openjdk.jmh.annotations.*;
+import studio.lh.HelloService;
+import studio.lh.dto.RpcRequest;
+import studio.lh.loadbalancer.ConsistentHashLoadBalancer;
+import studio.lh.loadbalancer.LeastLoadedLoadBalancer;
+import studio.lh.loadbalancer.LoadBalancer;
+import studio.lh.loadbalancer.RandomLoadBalancer;
+import studio.lh.loadbalancer.RoundRobinLoadBalancer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/22 20:30
+ * @description : 各负载均衡器一次选择的开销，实例列表不变，按列表缓存的状态只在第一次选择时构建
+ * 一致性哈希每次使用不同的哈希键
+ * 运行: java -jar rpc-benchmark/target/benchmarks.jar LoadBalancerBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadBalancerBenchmark {
+
+    @Param({"random", "roundRobin", "leastLoaded", "consistentHash"})
+    private String loadBalancer;
+
+    @Param({"3", "64"})
+    private int instanceCount;
+
+    private LoadBalancer target;
+
+    private List<Instance> instances;
+
+    @Setup
+    public void setup() {
+        switch (loadBalancer) {
+            case "roundRobin":
+                target = new RoundRobinLoadBalancer();
+                break;
+            case "leastLoaded":
+                target = new LeastLoadedLoadBalancer();
+                break;
+            case "consistentHash":
+                target = new ConsistentHashLoadBalancer();
+                break;
+            default:
+                target = new RandomLoadBalancer();
+        }
+        List<Instance> list = new ArrayList<>(instanceCount);
+        for (int i = 0; i < instanceCount; i++) {
+            Instance instance = new Instance();
+            instance.setIp("10.0." + (i / 256) + "." + (i % 256));
+            instance.setPort(9000);
+            instance.setWeight(1 + i % 3);
+            list.add(instance);
+        }
+        // 与服务发现一致, 实例列表整体替换且不可变
+        instances = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * 每个线程自己的请求对象, 哈希键每次变化
+     */
+    @State(Scope.Thread)
+    public static class Request {
+        private final RpcRequest rpcRequest = RpcRequest.builder()
+                .interfaceName(HelloService.class.getCanonicalName())
+                .methodName("hello")
+                .build();
+
+        RpcRequest next() {
+            rpcRequest.setHashKey(ThreadLocalRandom.current().nextInt());
+            return rpcRequest;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Instance selectSingleThread(Request request) {
+        return target.select(instances, request.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Instance selectFourThreads(Request request) {
+        return target.select(instances, request.next());
+    }
+}
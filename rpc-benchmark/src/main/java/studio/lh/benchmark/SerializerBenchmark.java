@@ -0,0 +1,102 @@
+package studio.lh.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+import studio.lh.Hello;
+import studio.lh.HelloService;
+import studio.lh.dto.RpcRequest;
+import studio.lh.serialize.Serializer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/22 19:10
+ * @description : 对比Kryo与JSON序列化器，请求按参数形状分为单个小对象、一个大字符串、对象列表
+ * 字节数组接口与编解码器使用的ByteBuf接口分别测量
+ * 运行: java -jar rpc-benchmark/target/benchmarks.jar SerializerBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializerBenchmark {
+
+    @Param({"kryo", "json"})
+    private String serializer;
+
+    /**
+     * small: 一个Hello; large: message为16KB字符串的Hello; list: 100个Hello的列表
+     */
+    @Param({"small", "large", "list"})
+    private String payload;
+
+    private Serializer target;
+
+    private RpcRequest request;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        target = Serializer.getSerializer("json".equals(serializer) ? Serializer.JSON_SERIALIZER : Serializer.KRYO_SERIALIZER);
+        Object parameter;
+        Class<?> paramType = Hello.class;
+        switch (payload) {
+            case "large":
+                char[] chars = new char[16 * 1024];
+                Arrays.fill(chars, 'x');
+                parameter = new Hello(new String(chars), "benchmark");
+                break;
+            case "list":
+                List<Hello> hellos = new ArrayList<>(100);
+                for (int i = 0; i < 100; i++) {
+                    hellos.add(new Hello("message-" + i, "description-" + i));
+                }
+                parameter = hellos;
+                paramType = List.class;
+                break;
+            default:
+                parameter = new Hello("benchmark", "benchmark");
+        }
+        request = RpcRequest.builder()
+                .requestId(1L)
+                .interfaceName(HelloService.class.getCanonicalName())
+                .methodName("hello")
+                .parameters(new Object[]{parameter})
+                .paramTypes(new Class<?>[]{paramType})
+                .build();
+        bytes = target.serialize(request);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return target.serialize(request);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return target.deserialize(bytes, RpcRequest.class);
+    }
+
+    /**
+     * 编解码器的路径: 序列化到池化的ByteBuf再从中读出
+     */
+    @Benchmark
+    public Object byteBufRoundTrip() {
+        ByteBuf byteBuf = PooledByteBufAllocator.DEFAULT.buffer(bytes.length);
+        try {
+            target.serialize(request, byteBuf);
+            return target.deserialize(byteBuf, RpcRequest.class);
+        } finally {
+            byteBuf.release();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package studio.lh.benchmark;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.socket.SocketChannel;
+import org.openjdk.jmh.annotations.*;
+import studio.lh.dto.RpcMessage;
+import studio.lh.enumeration.RpcMessageTypeEnum;
+import studio.lh.transport.netty.NettyKryoDecoder;
+import studio.lh.transport.netty.NettyKryoEncoder;
+import studio.lh.transport.netty.NettyTransport;
+import studio.lh.transport.netty.server.NettyServerHandler;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/17 21:30
+ * @description : 对比epoll与NIO传输层，本机回环上一次心跳帧的往返(编码、系统调用、服务端处理、解码)
+ * 运行: java -jar rpc-benchmark/target/benchmarks.jar TransportBenchmark
+ * 非Linux或native库不可用时epoll参数会在setup时失败
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransportBenchmark {
+
+    @Param({"nio", "epoll"})
+    private String transport;
+
+    private EventLoopGroup serverGroup;
+
+    private EventLoopGroup clientGroup;
+
+    private Channel serverChannel;
+
+    private Channel clientChannel;
+
+    private final AtomicReference<CompletableFuture<Object>> pending = new AtomicReference<>();
+
+    private RpcMessage ping;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        boolean epoll = "epoll".equals(transport);
+        if (epoll && !Epoll.isAvailable()) {
+            throw new IllegalStateException("epoll不可用", Epoll.unavailabilityCause());
+        }
+        serverGroup = NettyTransport.newEventLoopGroup(epoll, 1, "bench-server", true);
+        clientGroup = NettyTransport.newEventLoopGroup(epoll, 1, "bench-client", true);
+        ServerBootstrap serverBootstrap = NettyTransport.configure(new ServerBootstrap(), epoll)
+                .group(serverGroup)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new NettyKryoDecoder(), new NettyKryoEncoder(), new NettyServerHandler());
+                    }
+                });
+        serverChannel = serverBootstrap.bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+        Bootstrap bootstrap = NettyTransport.configure(new Bootstrap(), epoll)
+                .group(clientGroup)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new NettyKryoDecoder(), new NettyKryoEncoder(), new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                pending.get().complete(msg);
+                            }
+                        });
+                    }
+                });
+        clientChannel = bootstrap.connect(serverChannel.localAddress()).sync().channel();
+        ping = RpcMessage.builder()
+                .messageType(RpcMessageTypeEnum.HEARTBEAT_PING.getCode())
+                .requestId(1L)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        clientChannel.close().sync();
+        serverChannel.close().sync();
+        clientGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        serverGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+
+    @Benchmark
+    public Object pingPong() throws Exception {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        pending.set(future);
+        clientChannel.writeAndFlush(ping);
+        return future.get(1, TimeUnit.SECONDS);
+    }
+}
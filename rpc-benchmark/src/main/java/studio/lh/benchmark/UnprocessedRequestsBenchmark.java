@@ -0,0 +1,63 @@
+package studio.lh.benchmark;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+import studio.lh.dto.RpcResponse;
+import studio.lh.transport.netty.client.UnprocessedRequests;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/22 20:05
+ * @description : 客户端等待表一次登记加一次完成，包括超时任务在时间轮上的调度与取消
+ * 多线程共用一张表，测量分段锁在并发下的开销
+ * 运行: java -jar rpc-benchmark/target/benchmarks.jar UnprocessedRequestsBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UnprocessedRequestsBenchmark {
+
+    private final UnprocessedRequests unprocessedRequests = new UnprocessedRequests();
+
+    private final EmbeddedChannel channel = new EmbeddedChannel();
+
+    private final RpcResponse<String> response = RpcResponse.success("benchmark", 1L);
+
+    @TearDown
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object putCompleteSingleThread() {
+        return putComplete();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object putCompleteFourThreads() {
+        return putComplete();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object putCompleteSixteenThreads() {
+        return putComplete();
+    }
+
+    private Object putComplete() {
+        long requestId = unprocessedRequests.nextRequestId();
+        CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+        unprocessedRequests.put(requestId, future, channel, 5000);
+        unprocessedRequests.complete(requestId, response);
+        return future.getNow(null);
+    }
+}
@@ -0,0 +1,26 @@
+package studio.lh.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/22 10:20
+ * @description : 声明在服务接口或接口方法上，表示方法可以安全地重复执行，方法上的优先于接口上的
+ * 幂等方法在首个请求迟迟没有响应时向另一个实例发出对冲请求，先返回的响应生效，另一个请求被取消；
+ * 请求因连接失败、过载、熔断等原因失败时会重试。对冲和重试都受客户端重试预算的限制
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Idempotent {
+    /**
+     * @return 发出对冲请求前等待的时间，单位毫秒。小于0表示使用该方法最近调用延迟的p95，0表示不对冲
+     */
+    long hedgeDelayMillis() default -1;
+
+    /**
+     * @return 一次调用最多发出的请求数，包括首个请求、对冲请求和重试，1表示既不对冲也不重试
+     */
+    int maxAttempts() default 2;
+}
@@ -0,0 +1,36 @@
+package studio.lh.annotation;
+
+import studio.lh.enumeration.DispatchModeEnum;
+
+import java.lang.annotation.*;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/15 20:05
+ * @description : 声明服务在服务端的执行方式，可以标在实现类、接口或者它们的方法上
+ * 优先级: 实现类方法 > 接口方法 > 发布服务时指定的 > 实现类 > 接口，都没有时使用共享线程池
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface RpcDispatch {
+
+    DispatchModeEnum value() default DispatchModeEnum.SHARED;
+
+    /**
+     * BULKHEAD 线程池的名字，同名的服务或方法共用一个线程池
+     * 为空时标在类上的用接口名，标在方法上的用 接口名#方法名
+     */
+    String name() default "";
+
+    /**
+     * BULKHEAD 线程池的线程数
+     */
+    int threads() default 10;
+
+    /**
+     * BULKHEAD 线程池的队列长度
+     */
+    int queueCapacity() default 100;
+}
@@ -0,0 +1,18 @@
+package studio.lh.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/20 15:10
+ * @description : 标注在服务接口方法的参数上，一致性哈希负载均衡按这个参数选择实例，相同参数值的请求落在同一个实例上
+ * 按参数的字符串形式计算哈希值(枚举取name())，与hashCode无关，所以参数的toString要稳定地由值决定，
+ * 如String、数字、枚举，或重写了toString的值对象; 数组和没有重写toString的对象每次的结果都不同，不能作为哈希参数。
+ * 一个方法只有第一个被标注的参数生效
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface RpcHashKey {
+}
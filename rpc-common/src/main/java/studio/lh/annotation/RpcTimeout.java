@@ -0,0 +1,20 @@
+package studio.lh.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/12 20:14
+ * @description : 声明在服务接口或接口方法上的调用超时时间，方法上的优先于接口上的
+ * 未声明时使用客户端的默认超时
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface RpcTimeout {
+    /**
+     * @return 超时时间，单位毫秒
+     */
+    long value();
+}
@@ -0,0 +1,42 @@
+package studio.lh.dto;
+
+import lombok.*;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/10 14:30
+ * @description : Netty传输的协议帧，帧头字段不需要反序列化消息体即可读取
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class RpcMessage {
+    /**
+     * 消息类型 {@link studio.lh.enumeration.RpcMessageTypeEnum}
+     */
+    private byte messageType;
+    /**
+     * 消息体使用的序列化器编号
+     */
+    private byte codec;
+    /**
+     * 消息体使用的压缩算法，0表示按编码器的默认配置, 消息体小于阈值或压缩后没有变小时帧头中仍写0
+     */
+    private byte compress;
+    /**
+     * 帧请求号，响应帧原样带回
+     */
+    private long requestId;
+    /**
+     * 消息体：RpcRequest 或 RpcResponse，心跳帧为空
+     */
+    private Object data;
+    /**
+     * 消息体解析失败的原因，只由接收端的解码器设置，不写入帧中；不为空时data为空
+     * 帧头仍然完整，接收端只需处理这一帧，不必关闭连接
+     */
+    private transient RuntimeException decodeError;
+}
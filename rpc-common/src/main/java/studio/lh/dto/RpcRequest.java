@@ -1,6 +1,7 @@
 package studio.lh.dto;
 
 import lombok.*;
+import studio.lh.annotation.Idempotent;
 
 import java.io.Serializable;
 
@@ -17,13 +18,18 @@ import java.io.Serializable;
 @ToString
 public class RpcRequest implements Serializable {
     /**
-     * 请求 唯一标识
+     * 请求 唯一标识, 由发送请求的客户端按序生成
      */
-    private String requestId;
+    private long requestId;
     /**
      * 指定序列化版本号
      */
     private static final long serialVersionUID = -7287071775732594012L;
+    /**
+     * 服务端分配的方法编号, 0表示尚未协商
+     * 协商后的请求只携带方法编号和参数值, 接口名、方法名、参数类型都为null
+     */
+    private int methodId;
     /**
      * 接口名
      */
@@ -40,4 +46,14 @@ public class RpcRequest implements Serializable {
      * 参数类型 列表
      */
     private Class<?>[] paramTypes;
+    /**
+     * 一致性哈希负载均衡使用的参数值, 由客户端按 {@link studio.lh.annotation.RpcHashKey} 设置
+     * 只在客户端使用, 不参与序列化
+     */
+    private transient Object hashKey;
+    /**
+     * 方法上的 {@link Idempotent} 声明, 非幂等方法为null
+     * 只在客户端使用, 不参与序列化
+     */
+    private transient Idempotent idempotent;
 }
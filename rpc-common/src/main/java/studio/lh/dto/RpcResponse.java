@@ -20,11 +20,15 @@ public class RpcResponse<T> implements Serializable {
     /**
      * 请求唯一标识
      */
-    private String requestId;
+    private long requestId;
     /**
      * 序列化版本号
      */
     private static final long serialVersionUID = -1119096729226242009L;
+    /**
+     * 服务端为所调用方法分配的编号, 客户端在同一连接上的后续请求用它代替接口名和方法签名
+     */
+    private int methodId;
     /**
      * 响应码
      */
@@ -44,7 +48,7 @@ public class RpcResponse<T> implements Serializable {
      * @param <T>
      * @return
      */
-    public static <T> RpcResponse<T> success(T data, String requestId) {
+    public static <T> RpcResponse<T> success(T data, long requestId) {
         RpcResponse<T> response = new RpcResponse<>();
         response.setCode(RpcResponseCode.SUCCESS.getCode());
         response.setMessage(RpcResponseCode.SUCCESS.getMessage());
@@ -67,4 +71,17 @@ public class RpcResponse<T> implements Serializable {
         response.setMessage(rpcResponseCode.getMessage());
         return response;
     }
+
+    /**
+     * 生成带请求号的异常响应消息，客户端据此找到等待中的请求
+     * @param rpcResponseCode
+     * @param requestId
+     * @param <T>
+     * @return
+     */
+    public static <T> RpcResponse<T> fail(RpcResponseCode rpcResponseCode, long requestId) {
+        RpcResponse<T> response = fail(rpcResponseCode);
+        response.setRequestId(requestId);
+        return response;
+    }
 }
@@ -0,0 +1,22 @@
+package studio.lh.enumeration;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/15 20:02
+ * @description : 服务端执行请求的方式
+ */
+public enum DispatchModeEnum {
+    /**
+     * 所有服务共用的 netty-server-handler 线程池
+     */
+    SHARED,
+    /**
+     * 独占的有界线程池，慢服务只会占满自己的线程池，不影响其他服务
+     */
+    BULKHEAD,
+    /**
+     * 直接在Netty的IO线程上执行，只适合耗时极短且不会阻塞的方法
+     */
+    IO_THREAD
+}
@@ -19,11 +19,22 @@ public enum RpcErrorMessageEnum implements Serializable {
     REGISTER_SERVICE_FAILED("注册服务失败"),
     FAILED_TO_CONNECT_TO_SERVICE_REGISTRY("连接注册中心失败"),
     CLIENT_CONNECT_SERVER_FAILURE("客户端连接服务端失败"),
+    CONNECTION_CLOSED("与服务端的连接已断开"),
 //    SERVICE_NOT_SURVIVE("客户端连接服务端失败"),
     SERIALIZER_NOT_FOUND("没有找到指定的序列化器"),
     SERVICE_CAN_NOT_FOUND("没有找到指定的服务"),
     SERVICE_NOT_IMPLEMENT_ANY_INTERFACE("注册的服务没有实现任何接口"),
+    METHOD_CAN_NOT_FOUND("没有找到指定的方法"),
     SERVICE_INVOCATION_FAILURE("服务调用失败"),
-    REQUEST_NOT_MATCH_RESPONSE("响应与请求号不匹配");
+    REQUEST_TIMEOUT("服务调用超时"),
+    SERVICE_OVERLOAD("服务端过载，请求被拒绝"),
+    CONCURRENCY_LIMIT_EXCEEDED("到服务端的并发请求数已达上限"),
+    CIRCUIT_BREAKER_OPEN("服务实例已熔断"),
+    REQUEST_NOT_MATCH_RESPONSE("响应与请求号不匹配"),
+    UNKNOWN_MAGIC_NUMBER("未知的协议魔数"),
+    UNSUPPORTED_PROTOCOL_VERSION("不支持的协议版本"),
+    UNKNOWN_MESSAGE_TYPE("未知的消息类型"),
+    ILLEGAL_FRAME_LENGTH("消息体长度不合法"),
+    UNKNOWN_COMPRESS_TYPE("未知的压缩算法");
     private final String message;
 }
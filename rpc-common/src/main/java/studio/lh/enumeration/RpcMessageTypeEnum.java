@@ -0,0 +1,36 @@
+package studio.lh.enumeration;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/10 14:21
+ * @description : 协议帧头中的消息类型
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public enum RpcMessageTypeEnum {
+    REQUEST((byte) 1),
+    RESPONSE((byte) 2),
+    HEARTBEAT_PING((byte) 3),
+    HEARTBEAT_PONG((byte) 4);
+    private final byte code;
+
+    /**
+     * 根据帧头中的类型码获取消息类型
+     * @param code 类型码
+     * @return 消息类型，未知类型返回null
+     */
+    public static RpcMessageTypeEnum of(byte code) {
+        for (RpcMessageTypeEnum type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
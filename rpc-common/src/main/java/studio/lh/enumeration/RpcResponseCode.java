@@ -20,7 +20,8 @@ public enum  RpcResponseCode implements Serializable {
     SUCCESS(200, "调用方法成功"),
     FAIL(500, "调用方法失败"),
     NOT_FOUND_METHOD(500, "未找到指定方法"),
-    NOT_FOUND_CLASS(500, "未找到指定类");
+    NOT_FOUND_CLASS(500, "未找到指定类"),
+    OVERLOAD(503, "服务端过载");
     // 响应实例的状态码字段
     private final int code;
     // 响应实例的状态信息字段
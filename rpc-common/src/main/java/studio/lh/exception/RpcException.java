@@ -9,15 +9,27 @@ import studio.lh.enumeration.RpcErrorMessageEnum;
  * @description : 公共异常
  */
 public class RpcException extends RuntimeException {
+    /**
+     * 错误类型, 按描述信息创建的异常为null
+     */
+    private final RpcErrorMessageEnum errorMessageEnum;
+
     public RpcException(RpcErrorMessageEnum rpcErrorMessageEnum, String detail) {
         super(rpcErrorMessageEnum.getMessage() + ":" + detail);
+        this.errorMessageEnum = rpcErrorMessageEnum;
     }
 
     public RpcException(String message, Throwable cause) {
         super(message, cause);
+        this.errorMessageEnum = null;
     }
 
     public RpcException(RpcErrorMessageEnum rpcErrorMessageEnum) {
         super(rpcErrorMessageEnum.getMessage());
+        this.errorMessageEnum = rpcErrorMessageEnum;
+    }
+
+    public RpcErrorMessageEnum getErrorMessageEnum() {
+        return errorMessageEnum;
     }
 }
@@ -1,7 +1,7 @@
 package studio.lh.factory;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author :MayRain
@@ -11,15 +11,20 @@ import java.util.Map;
  */
 public class SingletonFactory {
 
-    private static final Map<Class, Object> OBJECT_MAP = new HashMap<>();
+    private static final Map<Class, Object> OBJECT_MAP = new ConcurrentHashMap<>();
 
     public static <T> T getInstance(Class<T> clazz) {
         Object instance = OBJECT_MAP.get(clazz);
+        // 已创建的单例直接返回, 编解码等热点路径上不需要加锁
+        if (instance != null) {
+            return clazz.cast(instance);
+        }
         /**
          * 加锁保证线程安全
-         * 还有优化的余地：doubleCheck
+         * doubleCheck: 进入锁后再确认一次，避免重复创建
          */
         synchronized (clazz) {
+            instance = OBJECT_MAP.get(clazz);
             if (instance == null) {
                 try {
                     instance = clazz.newInstance();
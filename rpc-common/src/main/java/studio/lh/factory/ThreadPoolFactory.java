@@ -49,6 +49,43 @@ public final class ThreadPoolFactory {
         return pool;
     }
 
+    /**
+     * 按指定大小创建线程池，核心线程数与最大线程数相同，队列有界
+     * 同一前缀只创建一次
+     *
+     * @param threadNamePrefix 作为创建的线程名字的前缀
+     * @param threads          线程数
+     * @param queueCapacity    队列长度
+     * @param daemon           指定是否为 Daemon Thread(守护线程)
+     * @return ThreadPoolExecutor，可以读取队列长度、活跃线程数等指标
+     */
+    public static ThreadPoolExecutor createFixedThreadPool(String threadNamePrefix, int threads, int queueCapacity, Boolean daemon) {
+        ExecutorService pool = threadPoolsMap.compute(threadNamePrefix, (k, existing) -> {
+            if (existing != null && !existing.isShutdown()) {
+                return existing;
+            }
+            return new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_TIME, TimeUnit.MINUTES,
+                    new ArrayBlockingQueue<>(queueCapacity), createThreadFactory(threadNamePrefix, daemon));
+        });
+        return (ThreadPoolExecutor) pool;
+    }
+
+    /**
+     * 单线程的定时任务线程池，同一前缀只创建一次
+     *
+     * @param threadNamePrefix 作为创建的线程名字的前缀
+     * @param daemon           指定是否为 Daemon Thread(守护线程)
+     */
+    public static ScheduledExecutorService createScheduledThreadPool(String threadNamePrefix, Boolean daemon) {
+        ExecutorService pool = threadPoolsMap.compute(threadNamePrefix, (k, existing) -> {
+            if (existing != null && !existing.isShutdown()) {
+                return existing;
+            }
+            return new ScheduledThreadPoolExecutor(1, createThreadFactory(threadNamePrefix, daemon));
+        });
+        return (ScheduledExecutorService) pool;
+    }
+
     // 创建线程池
     private static ExecutorService createThreadPool(String threadNamePrefix, Boolean daemon) {
         // 使用有界阻塞队列
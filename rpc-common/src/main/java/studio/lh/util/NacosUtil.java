@@ -3,6 +3,7 @@ package studio.lh.util;
 import com.alibaba.nacos.api.exception.NacosException;
 import com.alibaba.nacos.api.naming.NamingFactory;
 import com.alibaba.nacos.api.naming.NamingService;
+import com.alibaba.nacos.api.naming.listener.EventListener;
 import com.alibaba.nacos.api.naming.pojo.Instance;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,11 +27,9 @@ public class NacosUtil {
     private static final Logger LOGGER = LoggerFactory.getLogger(NacosUtil.class);
 
     /**
-     * 先写死注册中心的地址
+     * 注册中心的地址，可以通过 -Drpc.nacos.addr 配置
      */
-    private static final String SERVER_ADDR = "127.0.0.1:8848";
-
-    private static final NamingService NACOS_NAMING_SERVICE = getNacosNamingService();
+    private static final String SERVER_ADDR = System.getProperty("rpc.nacos.addr", "127.0.0.1:8848");
 
     /**
      * 存储本机已经注册的服务名称，用于后续注销服务
@@ -42,6 +41,13 @@ public class NacosUtil {
      */
     private static InetSocketAddress address;
 
+    /**
+     * 第一次使用时才连接Nacos，使用其他注册中心实现时不会连接
+     */
+    private static final class NamingServiceHolder {
+        private static final NamingService NACOS_NAMING_SERVICE = getNacosNamingService();
+    }
+
     public static NamingService getNacosNamingService() {
         try {
             return NamingFactory.createNamingService(SERVER_ADDR);
@@ -52,7 +58,7 @@ public class NacosUtil {
     }
 
     public static void registerService(String serviceName, InetSocketAddress address) throws NacosException {
-        NACOS_NAMING_SERVICE.registerInstance(serviceName, address.getHostName(), address.getPort());
+        NamingServiceHolder.NACOS_NAMING_SERVICE.registerInstance(serviceName, address.getHostName(), address.getPort());
         // 储存本地地址
         NacosUtil.address = address;
         // 存储已经注册的服务
@@ -60,7 +66,14 @@ public class NacosUtil {
     }
 
     public static List<Instance> getAllInstance(String serviceName) throws NacosException {
-        return NACOS_NAMING_SERVICE.getAllInstances(serviceName);
+        return NamingServiceHolder.NACOS_NAMING_SERVICE.getAllInstances(serviceName);
+    }
+
+    /**
+     * 订阅服务实例的变化，实例上下线时Nacos会回调监听器
+     */
+    public static void subscribe(String serviceName, EventListener listener) throws NacosException {
+        NamingServiceHolder.NACOS_NAMING_SERVICE.subscribe(serviceName, listener);
     }
 
     /**
@@ -76,7 +89,7 @@ public class NacosUtil {
                 String serviceName = iterator.next();
                 try {
                     // 向nacos注销本机的服务
-                    NACOS_NAMING_SERVICE.deregisterInstance(serviceName, host, port);
+                    NamingServiceHolder.NACOS_NAMING_SERVICE.deregisterInstance(serviceName, host, port);
                     LOGGER.info("已注销服务: {} @ {}:{}", serviceName, host, port);
                 } catch (NacosException e) {
                     LOGGER.error("注销服务 {} 失败", serviceName, e);
@@ -32,10 +32,15 @@ public final class RpcMessageChecker {
             throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
         }
 
-        if (!rpcRequest.getRequestId().equals(rpcResponse.getRequestId())) {
+        if (rpcRequest.getRequestId() != rpcResponse.getRequestId()) {
             throw new RpcException(RpcErrorMessageEnum.REQUEST_NOT_MATCH_RESPONSE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
         }
 
+        if (rpcResponse.getCode() != null && rpcResponse.getCode().equals(RpcResponseCode.OVERLOAD.getCode())) {
+            LOGGER.warn("服务端过载,serviceName:{}", rpcRequest.getInterfaceName());
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_OVERLOAD, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
+        }
+
         if (rpcResponse.getCode() == null || !rpcResponse.getCode().equals(RpcResponseCode.SUCCESS.getCode())) {
             LOGGER.error("调用服务失败,serviceName:{},RpcResponse:{}", rpcRequest.getInterfaceName(), rpcResponse);
             throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
@@ -0,0 +1,395 @@
+package studio.lh.breaker;
+
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/21 10:30
+ * @description : 客户端对单个服务实例的熔断器
+ * 连续失败、窗口内失败率过高(慢调用可以按失败计算)时熔断，实例在退避期内从负载均衡的候选列表中摘除，
+ * 退避期过后放行一个试探请求，成功则恢复，失败则再次熔断且退避时间加倍。
+ * 所有实例都被熔断时进入恐慌模式: 不再摘除，tryAcquire也放行所有请求，避免整个服务不可用，
+ * 恐慌模式下实例的正常响应直接让它恢复
+ */
+public final class CircuitBreaker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /**
+     * key: 服务名
+     */
+    private static final Map<String, ServiceBreakers> SERVICES = new ConcurrentHashMap<>();
+
+    private final String serviceName;
+
+    private final String address;
+
+    private final CircuitBreakerConfig config;
+
+    private final ServiceBreakers owner;
+
+    private volatile CircuitStateEnum state = CircuitStateEnum.CLOSED;
+
+    /**
+     * OPEN状态下允许试探的时间
+     */
+    private volatile long openUntilNanos;
+
+    /**
+     * HALF_OPEN状态下是否已有试探请求在途
+     */
+    private volatile boolean probing;
+
+    private int consecutiveFailures;
+
+    /**
+     * 连续熔断的次数，决定退避时间
+     */
+    private int ejections;
+
+    private long windowStartNanos = System.nanoTime();
+
+    private int windowRequests;
+
+    private int windowFailures;
+
+    /**
+     * 实例已从服务中下线，之后的状态变化不再计入服务的不可用实例数
+     */
+    private boolean removed;
+
+    private CircuitBreaker(String serviceName, String address, CircuitBreakerConfig config, ServiceBreakers owner) {
+        this.serviceName = serviceName;
+        this.address = address;
+        this.config = config;
+        this.owner = owner;
+    }
+
+    public static CircuitBreaker get(String serviceName, InetSocketAddress address) {
+        ServiceBreakers serviceBreakers = SERVICES.computeIfAbsent(serviceName, ServiceBreakers::new);
+        return serviceBreakers.breakers.computeIfAbsent(key(address.getHostString(), address.getPort()),
+                k -> new CircuitBreaker(serviceName, k, serviceBreakers.config, serviceBreakers));
+    }
+
+    /**
+     * 实例从服务发现中下线时删除它的熔断器，在途请求结束时仍会回调旧的熔断器，但不再影响服务的统计
+     * 实例重新上线后从CLOSED状态开始
+     * @param serviceName 服务名
+     * @param address 下线的实例地址
+     */
+    public static void remove(String serviceName, InetSocketAddress address) {
+        ServiceBreakers serviceBreakers = SERVICES.get(serviceName);
+        if (serviceBreakers == null) {
+            return;
+        }
+        CircuitBreaker breaker = serviceBreakers.breakers.remove(key(address.getHostString(), address.getPort()));
+        if (breaker == null) {
+            return;
+        }
+        synchronized (breaker) {
+            breaker.removed = true;
+            if (breaker.state != CircuitStateEnum.CLOSED) {
+                serviceBreakers.unavailable.decrementAndGet();
+            }
+            serviceBreakers.version.incrementAndGet();
+        }
+    }
+
+    /**
+     * 从候选实例中去掉已熔断的实例
+     * 没有熔断的实例时原样返回，有熔断时结果会缓存到下一次状态变化，不会每次调用都创建新列表
+     * @param serviceName 服务名
+     * @param instances 注册中心的实例列表
+     * @return 可以选择的实例列表，全部被熔断时返回原列表
+     */
+    public static List<Instance> filter(String serviceName, List<Instance> instances) {
+        ServiceBreakers serviceBreakers = SERVICES.get(serviceName);
+        if (serviceBreakers == null || serviceBreakers.unavailable.get() == 0) {
+            return instances;
+        }
+        return serviceBreakers.filter(instances);
+    }
+
+    /**
+     * @return 已创建的所有熔断器，用于输出指标
+     */
+    public static Collection<CircuitBreaker> all() {
+        List<CircuitBreaker> all = new ArrayList<>();
+        SERVICES.values().forEach(serviceBreakers -> all.addAll(serviceBreakers.breakers.values()));
+        return Collections.unmodifiableList(all);
+    }
+
+    /**
+     * 发送请求前调用
+     * @return 实例已熔断，或半开状态下已有试探请求在途时返回false；服务的所有实例都被熔断时总是返回true
+     */
+    public boolean tryAcquire() {
+        if (!config.isEnabled() || state == CircuitStateEnum.CLOSED || owner.isPanic()) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == CircuitStateEnum.CLOSED) {
+                return true;
+            }
+            if (state == CircuitStateEnum.OPEN && System.nanoTime() - openUntilNanos >= 0) {
+                transitionTo(CircuitStateEnum.HALF_OPEN);
+            }
+            if (state == CircuitStateEnum.HALF_OPEN && !probing) {
+                probing = true;
+                owner.version.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 请求结束后调用
+     * @param latencyNanos 请求耗时
+     * @param success 是否收到了服务端的正常响应
+     */
+    public void onComplete(long latencyNanos, boolean success) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        boolean failed = !success || (config.getSlowCallMillis() > 0
+                && latencyNanos >= TimeUnit.MILLISECONDS.toNanos(config.getSlowCallMillis()));
+        synchronized (this) {
+            if (state == CircuitStateEnum.HALF_OPEN) {
+                // 恐慌模式下放行的请求同样作为试探结果
+                probing = false;
+                if (failed) {
+                    open();
+                } else {
+                    ejections = 0;
+                    resetWindow(System.nanoTime());
+                    consecutiveFailures = 0;
+                    transitionTo(CircuitStateEnum.CLOSED);
+                }
+                return;
+            }
+            if (state == CircuitStateEnum.OPEN) {
+                if (!failed && owner.isPanic()) {
+                    // 恐慌模式下放行的请求成功了，实例已经可用
+                    ejections = 0;
+                    resetWindow(System.nanoTime());
+                    consecutiveFailures = 0;
+                    transitionTo(CircuitStateEnum.CLOSED);
+                }
+                // 熔断前发出的请求，不再统计
+                return;
+            }
+            long now = System.nanoTime();
+            if (now - windowStartNanos > TimeUnit.MILLISECONDS.toNanos(config.getWindowMillis())) {
+                resetWindow(now);
+            }
+            windowRequests++;
+            if (!failed) {
+                consecutiveFailures = 0;
+                return;
+            }
+            windowFailures++;
+            consecutiveFailures++;
+            if (consecutiveFailures >= config.getConsecutiveFailures()
+                    || (windowRequests >= config.getMinRequests()
+                    && windowFailures * 100 >= windowRequests * config.getFailureRatePercent())) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * 试探许可没有被使用，如请求在发送前就失败了
+     */
+    public void onIgnored() {
+        synchronized (this) {
+            if (state == CircuitStateEnum.HALF_OPEN && probing) {
+                probing = false;
+                owner.version.incrementAndGet();
+            }
+        }
+    }
+
+    private void open() {
+        long ejectMillis = Math.min(config.getMaxEjectMillis(), config.getBaseEjectMillis() << Math.min(ejections, 30));
+        ejections++;
+        openUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ejectMillis);
+        consecutiveFailures = 0;
+        resetWindow(System.nanoTime());
+        transitionTo(CircuitStateEnum.OPEN);
+        LOGGER.warn("服务 {} 的实例 {} 已熔断 {} ms", serviceName, address, ejectMillis);
+    }
+
+    private void resetWindow(long now) {
+        windowStartNanos = now;
+        windowRequests = 0;
+        windowFailures = 0;
+    }
+
+    private void transitionTo(CircuitStateEnum newState) {
+        CircuitStateEnum previous = state;
+        if (previous == newState) {
+            return;
+        }
+        state = newState;
+        if (removed) {
+            return;
+        }
+        if (previous == CircuitStateEnum.CLOSED) {
+            owner.unavailable.incrementAndGet();
+        } else if (newState == CircuitStateEnum.CLOSED) {
+            owner.unavailable.decrementAndGet();
+            LOGGER.info("服务 {} 的实例 {} 已恢复", serviceName, address);
+        }
+        owner.version.incrementAndGet();
+    }
+
+    /**
+     * 不修改状态，只判断能否参与负载均衡
+     */
+    private boolean isAvailable(long now) {
+        switch (state) {
+            case OPEN:
+                return now - openUntilNanos >= 0;
+            case HALF_OPEN:
+                return !probing;
+            default:
+                return true;
+        }
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public CircuitStateEnum getState() {
+        return state;
+    }
+
+    public CircuitBreakerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return OPEN状态下距离可以试探的剩余毫秒数，其他状态为0
+     */
+    public long getRemainingEjectMillis() {
+        if (state != CircuitStateEnum.OPEN) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(openUntilNanos - System.nanoTime()));
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker{service=" + serviceName + ", address=" + address + ", state=" + state
+                + ", remainingEjectMillis=" + getRemainingEjectMillis() + "}";
+    }
+
+    private static String key(String host, int port) {
+        return host + ":" + port;
+    }
+
+    /**
+     * 一个服务的所有实例的熔断器
+     */
+    private static final class ServiceBreakers {
+
+        private final String serviceName;
+
+        private final CircuitBreakerConfig config;
+
+        /**
+         * key: ip:port
+         */
+        private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+        /**
+         * 不是CLOSED状态的实例数，为0时不需要过滤
+         */
+        private final AtomicInteger unavailable = new AtomicInteger();
+
+        /**
+         * 任意实例状态变化时加一，过滤结果随之失效
+         */
+        private final AtomicInteger version = new AtomicInteger();
+
+        private volatile Filtered filtered;
+
+        /**
+         * 最近一次过滤时所有实例都不可用
+         */
+        boolean isPanic() {
+            Filtered cached = filtered;
+            return cached != null && cached.panic && unavailable.get() > 0;
+        }
+
+        ServiceBreakers(String serviceName) {
+            this.serviceName = serviceName;
+            this.config = CircuitBreakerConfig.of(serviceName);
+        }
+
+        List<Instance> filter(List<Instance> instances) {
+            long now = System.nanoTime();
+            Filtered cached = filtered;
+            int currentVersion = version.get();
+            if (cached != null && cached.source == instances && cached.version == currentVersion && now - cached.validUntilNanos < 0) {
+                return cached.result;
+            }
+            List<Instance> result = new ArrayList<>(instances.size());
+            // 最早结束退避的时间，到时过滤结果失效
+            long validUntil = now + TimeUnit.SECONDS.toNanos(1);
+            for (Instance instance : instances) {
+                CircuitBreaker breaker = breakers.get(key(instance.getIp(), instance.getPort()));
+                if (breaker == null || breaker.isAvailable(now)) {
+                    result.add(instance);
+                } else if (breaker.state == CircuitStateEnum.OPEN && breaker.openUntilNanos - validUntil < 0) {
+                    validUntil = breaker.openUntilNanos;
+                }
+            }
+            boolean panic = result.isEmpty() && !instances.isEmpty();
+            if (panic && (cached == null || !cached.panic)) {
+                LOGGER.warn("服务 {} 的 {} 个实例都已熔断, 进入恐慌模式, 不再摘除实例", serviceName, instances.size());
+            }
+            List<Instance> available = panic ? instances : Collections.unmodifiableList(result);
+            // 内容没变时沿用原来的列表，负载均衡器按列表引用缓存的状态不用重建
+            if (cached != null && cached.source == instances && cached.result.equals(available)) {
+                available = cached.result;
+            }
+            filtered = new Filtered(instances, currentVersion, validUntil, available, panic);
+            return available;
+        }
+    }
+
+    private static final class Filtered {
+        private final List<Instance> source;
+        private final int version;
+        private final long validUntilNanos;
+        private final List<Instance> result;
+        private final boolean panic;
+
+        Filtered(List<Instance> source, int version, long validUntilNanos, List<Instance> result, boolean panic) {
+            this.source = source;
+            this.version = version;
+            this.validUntilNanos = validUntilNanos;
+            this.result = result;
+            this.panic = panic;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package studio.lh.breaker;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/21 10:10
+ * @description : 熔断阈值，先读全局配置 -Drpc.breaker.xxx，再读服务级配置 -Drpc.breaker.服务名.xxx 覆盖
+ * enabled=true                 是否开启熔断
+ * consecutiveFailures=5        连续失败这么多次熔断
+ * failureRatePercent=50        统计窗口内失败率达到这个百分比熔断
+ * minRequests=20               统计窗口内请求数不少于这个值才按失败率熔断
+ * windowMillis=10000           失败率的统计窗口
+ * slowCallMillis=0             耗时达到这个值的成功调用也按失败计算，0表示不按延迟判断
+ * baseEjectMillis=1000         第一次熔断的退避时间，之后每次连续熔断加倍
+ * maxEjectMillis=60000         退避时间上限
+ */
+@Getter
+@ToString
+public final class CircuitBreakerConfig {
+
+    private static final String PREFIX = "rpc.breaker.";
+
+    private final boolean enabled;
+    private final int consecutiveFailures;
+    private final int failureRatePercent;
+    private final int minRequests;
+    private final long windowMillis;
+    private final long slowCallMillis;
+    private final long baseEjectMillis;
+    private final long maxEjectMillis;
+
+    private CircuitBreakerConfig(String serviceName) {
+        enabled = Boolean.parseBoolean(property(serviceName, "enabled", "true"));
+        consecutiveFailures = Integer.parseInt(property(serviceName, "consecutiveFailures", "5"));
+        failureRatePercent = Integer.parseInt(property(serviceName, "failureRatePercent", "50"));
+        minRequests = Integer.parseInt(property(serviceName, "minRequests", "20"));
+        windowMillis = Long.parseLong(property(serviceName, "windowMillis", "10000"));
+        slowCallMillis = Long.parseLong(property(serviceName, "slowCallMillis", "0"));
+        baseEjectMillis = Long.parseLong(property(serviceName, "baseEjectMillis", "1000"));
+        maxEjectMillis = Long.parseLong(property(serviceName, "maxEjectMillis", "60000"));
+    }
+
+    public static CircuitBreakerConfig of(String serviceName) {
+        return new CircuitBreakerConfig(serviceName);
+    }
+
+    private static String property(String serviceName, String key, String defaultValue) {
+        String value = System.getProperty(PREFIX + serviceName + "." + key);
+        return value != null ? value : System.getProperty(PREFIX + key, defaultValue);
+    }
+}
@@ -0,0 +1,22 @@
+package studio.lh.breaker;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/21 10:05
+ * @description : 熔断器状态
+ */
+public enum CircuitStateEnum {
+    /**
+     * 正常，参与负载均衡
+     */
+    CLOSED,
+    /**
+     * 已熔断，退避期内不参与负载均衡
+     */
+    OPEN,
+    /**
+     * 退避期已过，放行一个试探请求，成功则恢复，失败则再次熔断并加倍退避时间
+     */
+    HALF_OPEN
+}
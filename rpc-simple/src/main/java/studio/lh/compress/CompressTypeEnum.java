@@ -0,0 +1,31 @@
+package studio.lh.compress;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/18 20:10
+ * @description : 帧头中的压缩算法编号, 与 {@link Compressor#getCompressor(int)} 的编号保持一致
+ */
+@AllArgsConstructor
+@Getter
+public enum CompressTypeEnum {
+    NONE((byte) 0),
+    GZIP((byte) 1),
+    SNAPPY((byte) 2);
+    private final byte code;
+
+    /**
+     * 按名字查找, 不区分大小写, 找不到时返回NONE
+     */
+    public static CompressTypeEnum of(String name) {
+        for (CompressTypeEnum type : values()) {
+            if (type.name().equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        return NONE;
+    }
+}
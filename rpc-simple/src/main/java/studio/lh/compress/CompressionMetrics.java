@@ -0,0 +1,98 @@
+package studio.lh.compress;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/18 20:30
+ * @description : 每种压缩算法的压缩率和CPU耗时，由编解码器记录
+ */
+public final class CompressionMetrics {
+
+    private static final Map<CompressTypeEnum, CompressionMetrics> METRICS = new EnumMap<>(CompressTypeEnum.class);
+
+    static {
+        for (CompressTypeEnum type : CompressTypeEnum.values()) {
+            METRICS.put(type, new CompressionMetrics(type));
+        }
+    }
+
+    private final CompressTypeEnum type;
+    private final LongAdder compressCount = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressCount = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+    /**
+     * 压缩后没有变小而按原样发送的次数
+     */
+    private final LongAdder skippedCount = new LongAdder();
+
+    private CompressionMetrics(CompressTypeEnum type) {
+        this.type = type;
+    }
+
+    public static CompressionMetrics of(CompressTypeEnum type) {
+        return METRICS.get(type);
+    }
+
+    public void recordCompress(int before, int after, long nanos) {
+        compressCount.increment();
+        uncompressedBytes.add(before);
+        compressedBytes.add(after);
+        compressNanos.add(nanos);
+        if (after >= before) {
+            skippedCount.increment();
+        }
+    }
+
+    public void recordDecompress(long nanos) {
+        decompressCount.increment();
+        decompressNanos.add(nanos);
+    }
+
+    public CompressTypeEnum getType() {
+        return type;
+    }
+
+    public long getCompressCount() {
+        return compressCount.sum();
+    }
+
+    public long getSkippedCount() {
+        return skippedCount.sum();
+    }
+
+    public long getDecompressCount() {
+        return decompressCount.sum();
+    }
+
+    /**
+     * @return 压缩后字节数 / 压缩前字节数, 越小越好
+     */
+    public double getRatio() {
+        long before = uncompressedBytes.sum();
+        return before == 0 ? 1.0 : (double) compressedBytes.sum() / before;
+    }
+
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    public long getDecompressNanos() {
+        return decompressNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionMetrics{type=" + type + ", compressCount=" + getCompressCount()
+                + ", skippedCount=" + getSkippedCount() + ", ratio=" + String.format("%.3f", getRatio())
+                + ", compressMillis=" + getCompressNanos() / 1_000_000
+                + ", decompressCount=" + getDecompressCount()
+                + ", decompressMillis=" + getDecompressNanos() / 1_000_000 + "}";
+    }
+}
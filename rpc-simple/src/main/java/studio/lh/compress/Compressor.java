@@ -0,0 +1,48 @@
+package studio.lh.compress;
+
+import io.netty.buffer.ByteBuf;
+import studio.lh.compress.gzip.GzipCompressor;
+import studio.lh.compress.snappy.SnappyCompressor;
+import studio.lh.factory.SingletonFactory;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/18 20:12
+ * @description : 消息体压缩，编码器在消息体超过阈值时使用，算法编号写入帧头
+ */
+public interface Compressor {
+
+    /**
+     * 压缩
+     * @param in 原始数据, 从readerIndex读到writerIndex
+     * @param out 写入的目标
+     */
+    void compress(ByteBuf in, ByteBuf out);
+
+    /**
+     * 解压
+     * @param in 压缩后的数据
+     * @param out 写入的目标
+     * @param maxLength 解压后允许的最大长度, 超过时抛出异常, 防止恶意构造的数据耗尽内存
+     */
+    void decompress(ByteBuf in, ByteBuf out, int maxLength);
+
+    CompressTypeEnum getType();
+
+    /**
+     * 根据编号获取压缩器，返回的是无状态的单例
+     * @param code 压缩算法编号
+     * @return 压缩器，NONE或编号未知时返回null
+     */
+    static Compressor getCompressor(int code) {
+        switch (code) {
+            case 1:
+                return SingletonFactory.getInstance(GzipCompressor.class);
+            case 2:
+                return SingletonFactory.getInstance(SnappyCompressor.class);
+            default:
+                return null;
+        }
+    }
+}
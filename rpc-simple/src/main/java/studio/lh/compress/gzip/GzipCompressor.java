@@ -0,0 +1,59 @@
+package studio.lh.compress.gzip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import studio.lh.compress.CompressTypeEnum;
+import studio.lh.compress.Compressor;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.exception.RpcException;
+import studio.lh.exception.SerializeException;
+
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/18 20:20
+ * @description : JDK自带的gzip，压缩率高，CPU开销比Snappy大，适合带宽紧张的跨机房调用
+ */
+public class GzipCompressor implements Compressor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GzipCompressor.class);
+
+    private static final int BUFFER_SIZE = 4096;
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        // close时会释放Deflater占用的本地内存
+        try (GZIPOutputStream gzip = new GZIPOutputStream(new ByteBufOutputStream(out), BUFFER_SIZE)) {
+            in.readBytes(gzip, in.readableBytes());
+        } catch (IOException e) {
+            LOGGER.error("压缩时有错误发生:", e);
+            throw new SerializeException("压缩时有错误发生");
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out, int maxLength) {
+        int start = out.writerIndex();
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteBufInputStream(in), BUFFER_SIZE)) {
+            while (out.writeBytes(gzip, BUFFER_SIZE) > 0) {
+                if (out.writerIndex() - start > maxLength) {
+                    throw new RpcException(RpcErrorMessageEnum.ILLEGAL_FRAME_LENGTH, "解压后超过 " + maxLength);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("解压时有错误发生:", e);
+            throw new SerializeException("解压时有错误发生");
+        }
+    }
+
+    @Override
+    public CompressTypeEnum getType() {
+        return CompressTypeEnum.GZIP;
+    }
+}
@@ -0,0 +1,101 @@
+package studio.lh.compress.snappy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.compression.Snappy;
+import studio.lh.compress.CompressTypeEnum;
+import studio.lh.compress.Compressor;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.exception.RpcException;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/18 20:25
+ * @description : Netty自带的纯Java Snappy实现，压缩率一般但速度快
+ * Netty的Snappy编码器用short保存哈希表中的偏移，一次只能压缩不超过32KB的数据，
+ * 所以和SnappyFrameEncoder一样把消息体切成32KB以内的块分别压缩。格式:
+ * varint(原始总长度) + 多个 [int(压缩块长度) + Snappy块(自带varint编码的块原始长度)]
+ * Snappy对象在一次编解码中有状态，所以每块新建，本身很轻
+ */
+public class SnappyCompressor implements Compressor {
+
+    /**
+     * 每块的最大原始长度，与SnappyFrameEncoder一致
+     */
+    static final int MAX_BLOCK_LENGTH = Short.MAX_VALUE;
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        writeVarint(out, in.readableBytes());
+        while (in.isReadable()) {
+            ByteBuf block = in.readSlice(Math.min(in.readableBytes(), MAX_BLOCK_LENGTH));
+            int lengthIndex = out.writerIndex();
+            out.writeInt(0);
+            new Snappy().encode(block, out, block.readableBytes());
+            out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out, int maxLength) {
+        // 数据以varint编码的原始总长度开头，先检查再解压
+        int length = readVarint(in, in.readerIndex());
+        if (length < 0 || length > maxLength) {
+            throw new RpcException(RpcErrorMessageEnum.ILLEGAL_FRAME_LENGTH, "解压后长度 " + length);
+        }
+        skipVarint(in);
+        out.ensureWritable(length);
+        int start = out.writerIndex();
+        while (in.isReadable()) {
+            int blockLength = in.readableBytes() >= 4 ? in.readInt() : -1;
+            if (blockLength <= 0 || blockLength > in.readableBytes()) {
+                throw new RpcException(RpcErrorMessageEnum.ILLEGAL_FRAME_LENGTH, "压缩块长度 " + blockLength);
+            }
+            ByteBuf block = in.readSlice(blockLength);
+            // 每块解压前同样检查，累计长度不能超过总长度
+            int blockRawLength = readVarint(block, block.readerIndex());
+            if (blockRawLength < 0 || blockRawLength > MAX_BLOCK_LENGTH || out.writerIndex() - start + blockRawLength > length) {
+                throw new RpcException(RpcErrorMessageEnum.ILLEGAL_FRAME_LENGTH, "压缩块解压后长度 " + blockRawLength);
+            }
+            new Snappy().decode(block, out);
+        }
+        if (out.writerIndex() - start != length) {
+            throw new RpcException(RpcErrorMessageEnum.ILLEGAL_FRAME_LENGTH, "解压后长度 " + (out.writerIndex() - start) + ", 应为 " + length);
+        }
+    }
+
+    private static void writeVarint(ByteBuf out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * 只读取不移动readerIndex
+     * @return 数据不完整或超过int范围时返回-1
+     */
+    private static int readVarint(ByteBuf in, int index) {
+        int length = 0;
+        for (int shift = 0; shift < 32 && index < in.writerIndex(); shift += 7) {
+            int b = in.getUnsignedByte(index++);
+            length |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return length;
+            }
+        }
+        return -1;
+    }
+
+    private static void skipVarint(ByteBuf in) {
+        while ((in.readUnsignedByte() & 0x80) != 0) {
+            // 已经由readVarint检查过完整性
+        }
+    }
+
+    @Override
+    public CompressTypeEnum getType() {
+        return CompressTypeEnum.SNAPPY;
+    }
+}
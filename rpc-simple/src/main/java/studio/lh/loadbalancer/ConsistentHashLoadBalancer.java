@@ -0,0 +1,161 @@
+package studio.lh.loadbalancer;
+
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import studio.lh.dto.RpcRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/20 15:30
+ * @description : 一致性哈希，按 {@link studio.lh.annotation.RpcHashKey} 标注的参数选择实例，相同参数值的请求落在同一个实例上
+ * 每个实例在环上有若干虚拟节点(按权重成比例)，实例上下线时只有相邻区间的key换实例。
+ * 环在实例列表变化时重建，选择时只做一次二分查找，不分配对象。没有哈希参数的请求随机选择
+ * key的哈希值由字符串形式计算，不用hashCode: 枚举等对象的hashCode是按对象地址生成的，不同客户端进程甚至同一进程重启后都不一样
+ * 虚拟节点数可以通过 -Drpc.loadbalance.virtualNodes 配置，默认160
+ */
+public class ConsistentHashLoadBalancer implements LoadBalancer {
+
+    private static final int VIRTUAL_NODES = Integer.getInteger("rpc.loadbalance.virtualNodes", 160);
+
+    /**
+     * key: 服务名
+     */
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+
+    @Override
+    public Instance select(List<Instance> instances) {
+        return instances.get(ThreadLocalRandom.current().nextInt(instances.size()));
+    }
+
+    @Override
+    public Instance select(List<Instance> instances, RpcRequest rpcRequest) {
+        if (rpcRequest == null || rpcRequest.getHashKey() == null || instances.size() == 1) {
+            return select(instances);
+        }
+        String serviceName = rpcRequest.getInterfaceName();
+        Ring ring = rings.get(serviceName);
+        // 注册中心推送的实例列表是整体替换的不可变列表，引用变化即说明实例有变化
+        if (ring == null || ring.instances != instances) {
+            ring = new Ring(instances);
+            rings.put(serviceName, ring);
+        }
+        return ring.select(keyHash(rpcRequest.getHashKey()));
+    }
+
+    private static final class Ring {
+
+        private final List<Instance> instances;
+
+        /**
+         * 升序排列的虚拟节点哈希值
+         */
+        private final int[] hashes;
+
+        /**
+         * 与hashes一一对应的实例
+         */
+        private final Instance[] owners;
+
+        Ring(List<Instance> instances) {
+            this.instances = instances;
+            int total = 0;
+            int[] replicas = new int[instances.size()];
+            for (int i = 0; i < replicas.length; i++) {
+                // 每次摘要得到4个节点，按4取整
+                int nodes = (int) Math.max(1, Math.round(VIRTUAL_NODES * instances.get(i).getWeight() / 4));
+                replicas[i] = nodes * 4;
+                total += replicas[i];
+            }
+            // 高32位是哈希值，低32位是实例下标，排序后同时得到两个数组
+            long[] packed = new long[total];
+            int n = 0;
+            MessageDigest md5 = md5();
+            for (int i = 0; i < replicas.length; i++) {
+                Instance instance = instances.get(i);
+                String address = instance.getIp() + ":" + instance.getPort();
+                for (int group = 0; group < replicas[i] / 4; group++) {
+                    byte[] digest = md5.digest((address + "#" + group).getBytes(StandardCharsets.UTF_8));
+                    for (int k = 0; k < 4; k++) {
+                        int hash = (digest[3 + k * 4] & 0xFF) << 24
+                                | (digest[2 + k * 4] & 0xFF) << 16
+                                | (digest[1 + k * 4] & 0xFF) << 8
+                                | (digest[k * 4] & 0xFF);
+                        packed[n++] = (long) hash << 32 | i;
+                    }
+                }
+            }
+            Arrays.sort(packed);
+            hashes = new int[total];
+            owners = new Instance[total];
+            for (int j = 0; j < total; j++) {
+                hashes[j] = (int) (packed[j] >> 32);
+                owners[j] = instances.get((int) packed[j]);
+            }
+        }
+
+        /**
+         * 顺时针找到第一个不小于key哈希值的虚拟节点
+         */
+        Instance select(int hash) {
+            int index = Arrays.binarySearch(hashes, hash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return owners[index == hashes.length ? 0 : index];
+        }
+    }
+
+    /**
+     * 与进程无关的key哈希值: 枚举取name()，其他对象取String.valueOf，再对字符做MurmurHash3(x86_32)
+     * 数字、相邻字符串等key经过Murmur的混合后在环上分布均匀，String类型的key逐字符计算不分配对象
+     */
+    static int keyHash(Object key) {
+        String value = key instanceof Enum ? ((Enum<?>) key).name() : String.valueOf(key);
+        int h = 0;
+        int length = value.length();
+        // 每次处理两个字符即4字节
+        for (int i = 1; i < length; i += 2) {
+            int k = value.charAt(i - 1) | (value.charAt(i) << 16);
+            h = mixH(h, mixK(k));
+        }
+        if ((length & 1) == 1) {
+            h ^= mixK(value.charAt(length - 1));
+        }
+        h ^= length * 2;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int mixK(int k) {
+        k *= 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15);
+        return k * 0x1b873593;
+    }
+
+    private static int mixH(int h, int k) {
+        h ^= k;
+        h = Integer.rotateLeft(h, 13);
+        return h * 5 + 0xe6546b64;
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not supported", e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package studio.lh.loadbalancer;
+
+import com.alibaba.nacos.api.naming.pojo.Instance;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/20 10:15
+ * @description : 最小负载，随机取两个实例(power of two choices)，选择 延迟EWMA * (在途请求数 + 1) 较小的一个
+ * 延迟使用peak EWMA: 变慢时立即跟上，变快时按时间衰减，慢实例会很快少分到请求，恢复后逐渐拿回流量。
+ * 只比较两个随机实例，所有客户端不会同时涌向同一个"最快"的实例
+ */
+public class LeastLoadedLoadBalancer implements LoadBalancer {
+
+    /**
+     * EWMA的衰减时间常数
+     */
+    private static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * 还没有延迟样本的实例按 这个延迟 * 在途请求数 计算，新实例会先被试探，但在第一个响应回来前不会被压满
+     */
+    private static final long INITIAL_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * 失败的请求至少按这个延迟计入
+     */
+    private static final long FAILURE_PENALTY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * key: ip:port
+     */
+    private final Map<String, InstanceStats> stats = new ConcurrentHashMap<>();
+
+    @Override
+    public Instance select(List<Instance> instances) {
+        int size = instances.size();
+        if (size == 1) {
+            return instances.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        // 第二个在其余实例中选，保证两个不同
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        Instance a = instances.get(first);
+        Instance b = instances.get(second);
+        return cost(a) <= cost(b) ? a : b;
+    }
+
+    @Override
+    public void onStart(InetSocketAddress address) {
+        stats(key(address)).inflight.incrementAndGet();
+    }
+
+    @Override
+    public void onComplete(InetSocketAddress address, long latencyNanos, boolean success) {
+        InstanceStats instanceStats = stats.get(key(address));
+        if (instanceStats == null) {
+            // 实例已下线, 不再统计
+            return;
+        }
+        instanceStats.inflight.decrementAndGet();
+        instanceStats.observe(success ? latencyNanos : Math.max(latencyNanos, FAILURE_PENALTY_NANOS));
+    }
+
+    @Override
+    public void onInstanceRemoved(InetSocketAddress address) {
+        stats.remove(key(address));
+    }
+
+    private double cost(Instance instance) {
+        InstanceStats instanceStats = stats.get(instance.getIp() + ":" + instance.getPort());
+        if (instanceStats == null) {
+            return 0;
+        }
+        double latency = instanceStats.latency();
+        // 下线又上线的实例可能收到下线前请求的回调, 在途数短暂偏小
+        int inflight = Math.max(0, instanceStats.inflight.get());
+        return latency == 0 ? (double) INITIAL_LATENCY_NANOS * inflight : latency * (inflight + 1);
+    }
+
+    private InstanceStats stats(String key) {
+        return stats.computeIfAbsent(key, k -> new InstanceStats());
+    }
+
+    private static String key(InetSocketAddress address) {
+        return address.getHostString() + ":" + address.getPort();
+    }
+
+    private static final class InstanceStats {
+
+        private final AtomicInteger inflight = new AtomicInteger();
+
+        private double ewmaNanos;
+
+        private long lastUpdateNanos = System.nanoTime();
+
+        /**
+         * 读取时也按经过的时间衰减，长时间没有请求的慢实例可以重新被选中
+         * @return 还没有样本时返回0
+         */
+        synchronized double latency() {
+            if (ewmaNanos == 0) {
+                return 0;
+            }
+            long elapsed = System.nanoTime() - lastUpdateNanos;
+            return ewmaNanos * Math.exp(-(double) elapsed / DECAY_NANOS);
+        }
+
+        synchronized void observe(long latencyNanos) {
+            long now = System.nanoTime();
+            if (latencyNanos > ewmaNanos) {
+                ewmaNanos = latencyNanos;
+            } else {
+                double weight = Math.exp(-(double) (now - lastUpdateNanos) / DECAY_NANOS);
+                ewmaNanos = ewmaNanos * weight + latencyNanos * (1 - weight);
+            }
+            lastUpdateNanos = now;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package studio.lh.loadbalancer;
 
 import com.alibaba.nacos.api.naming.pojo.Instance;
+import studio.lh.dto.RpcRequest;
 
+import java.net.InetSocketAddress;
 import java.util.List;
 
 /**
@@ -19,4 +21,38 @@ public interface LoadBalancer {
      */
     Instance select(List<Instance> instances);
 
+    /**
+     * 为一次调用选择实例, 需要根据请求内容选择的负载均衡器重写这个方法
+     * @param instances 注册在Nacos的节点实例列表
+     * @param rpcRequest 请求, 可能为null
+     * @return 选择出的节点
+     */
+    default Instance select(List<Instance> instances, RpcRequest rpcRequest) {
+        return select(instances);
+    }
+
+    /**
+     * 请求即将发往选中的实例, 由客户端在发送前调用
+     * @param address 实例地址
+     */
+    default void onStart(InetSocketAddress address) {
+    }
+
+    /**
+     * 请求结束, 无论成功失败都会调用且只调用一次
+     * @param address 实例地址
+     * @param latencyNanos 请求耗时
+     * @param success 是否收到了服务端的正常响应
+     */
+    default void onComplete(InetSocketAddress address, long latencyNanos, boolean success) {
+    }
+
+    /**
+     * 实例已从服务发现中下线, 按实例保存状态的负载均衡器在这里清理
+     * 之后仍可能收到下线前发出的请求的onComplete
+     * @param address 实例地址
+     */
+    default void onInstanceRemoved(InetSocketAddress address) {
+    }
+
 }
@@ -1,19 +1,40 @@
 package studio.lh.loadbalancer;
 
 import com.alibaba.nacos.api.naming.pojo.Instance;
+import studio.lh.dto.RpcRequest;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author :MayRain
  * @version :1.0
  * @date :2022/12/8 23:01
- * @description : 轮询
+ * @description : 平滑加权轮询，按Nacos实例的权重分配请求，跳过不健康和下线的实例
+ * 实例列表变化时按平滑加权轮询算法预先算出一整轮的选择顺序，选择时只对计数器做一次原子自增，不加锁。
+ * 平滑: 权重 5,1,1 的顺序是 a a b a c a a 而不是 a a a a a b c
  */
 public class RoundRobinLoadBalancer implements LoadBalancer {
 
-    private int index = 0;
+    /**
+     * 权重换算成整数时保留的精度
+     */
+    private static final int WEIGHT_SCALE = 100;
+
+    /**
+     * 一轮选择顺序的最大长度，权重差异很大时按比例缩小
+     */
+    private static final int MAX_CYCLE = 4096;
+
+    private static final String DEFAULT_KEY = "";
+
+    /**
+     * key: 服务名，不同服务的实例列表各自轮询
+     */
+    private final Map<String, Schedule> schedules = new ConcurrentHashMap<>();
 
     /**
      * @param instances 注册在Nacos的节点实例列表
@@ -21,9 +42,89 @@ public class RoundRobinLoadBalancer implements LoadBalancer {
      */
     @Override
     public Instance select(List<Instance> instances) {
-        if (index == instances.size()) {
-            index = index % instances.size();
+        return select(instances, null);
+    }
+
+    @Override
+    public Instance select(List<Instance> instances, RpcRequest rpcRequest) {
+        String key = rpcRequest == null || rpcRequest.getInterfaceName() == null ? DEFAULT_KEY : rpcRequest.getInterfaceName();
+        Schedule schedule = schedules.get(key);
+        // 注册中心推送的实例列表是整体替换的不可变列表，引用变化即说明实例有变化
+        if (schedule == null || schedule.instances != instances) {
+            schedule = new Schedule(instances);
+            schedules.put(key, schedule);
+        }
+        return schedule.next();
+    }
+
+    private static final class Schedule {
+
+        private final List<Instance> instances;
+
+        private final Instance[] sequence;
+
+        private final AtomicInteger index = new AtomicInteger();
+
+        Schedule(List<Instance> instances) {
+            this.instances = instances;
+            List<Instance> candidates = new ArrayList<>(instances.size());
+            for (Instance instance : instances) {
+                if (instance.isHealthy() && instance.isEnabled() && instance.getWeight() > 0) {
+                    candidates.add(instance);
+                }
+            }
+            // 没有可用实例时退回到全部实例，由调用结果决定是否真的不可用
+            if (candidates.isEmpty()) {
+                candidates.addAll(instances);
+            }
+            this.sequence = buildSequence(candidates);
+        }
+
+        Instance next() {
+            return sequence[Math.floorMod(index.getAndIncrement(), sequence.length)];
+        }
+
+        private static Instance[] buildSequence(List<Instance> candidates) {
+            int size = candidates.size();
+            int[] weights = new int[size];
+            int gcd = 0;
+            long total = 0;
+            for (int i = 0; i < size; i++) {
+                weights[i] = (int) Math.min(Integer.MAX_VALUE, Math.max(1, Math.round(candidates.get(i).getWeight() * WEIGHT_SCALE)));
+                gcd = gcd(gcd, weights[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                weights[i] /= gcd;
+                total += weights[i];
+            }
+            if (total > MAX_CYCLE) {
+                long scaled = 0;
+                for (int i = 0; i < size; i++) {
+                    // 权重可能很大，先转成long再乘，避免int溢出成负数
+                    weights[i] = (int) Math.max(1, (long) weights[i] * MAX_CYCLE / total);
+                    scaled += weights[i];
+                }
+                total = scaled;
+            }
+            // nginx的平滑加权轮询: 每步所有实例加上自身权重，选当前值最大的，再从它身上减去总权重
+            Instance[] sequence = new Instance[(int) total];
+            long[] current = new long[size];
+            for (int step = 0; step < sequence.length; step++) {
+                int best = 0;
+                for (int i = 0; i < size; i++) {
+                    current[i] += weights[i];
+                    if (current[i] > current[best]) {
+                        best = i;
+                    }
+                }
+                current[best] -= total;
+                sequence[step] = candidates.get(best);
+            }
+            return sequence;
+        }
+
+        private static int gcd(int a, int b) {
+            return b == 0 ? a : gcd(b, a % b);
         }
-        return instances.get(index++);
     }
 }
@@ -0,0 +1,154 @@
+package studio.lh.provider;
+
+import studio.lh.annotation.RpcDispatch;
+import studio.lh.enumeration.DispatchModeEnum;
+import studio.lh.factory.ThreadPoolFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/15 20:20
+ * @description : 服务端请求的执行策略，注册服务时为每个方法确定，请求到来时按方法选择执行的线程
+ * 每个策略都可以读取自己的队列长度和活跃线程数
+ */
+public final class DispatchPolicy {
+
+    private static final String SHARED_THREAD_NAME_PREFIX = "netty-server-handler";
+
+    private static final String BULKHEAD_THREAD_NAME_PREFIX = "rpc-bulkhead-";
+
+    /**
+     * key: 策略名
+     * 同名的策略共用同一个线程池
+     */
+    private static final Map<String, DispatchPolicy> POLICIES = new ConcurrentHashMap<>();
+
+    private final String name;
+
+    private final DispatchModeEnum mode;
+
+    /**
+     * IO_THREAD 模式为null
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * IO_THREAD 模式下正在IO线程上执行的请求数
+     */
+    private final AtomicInteger inlineActive = new AtomicInteger();
+
+    private DispatchPolicy(String name, DispatchModeEnum mode, ThreadPoolExecutor executor) {
+        this.name = name;
+        this.mode = mode;
+        this.executor = executor;
+    }
+
+    /**
+     * 所有服务共用的线程池
+     */
+    public static DispatchPolicy shared() {
+        return POLICIES.computeIfAbsent(SHARED_THREAD_NAME_PREFIX, k -> new DispatchPolicy(k, DispatchModeEnum.SHARED,
+                (ThreadPoolExecutor) ThreadPoolFactory.createDefaultThreadPool(SHARED_THREAD_NAME_PREFIX)));
+    }
+
+    /**
+     * 独占的有界线程池，同名的只创建一次
+     * @param name 线程池名字
+     * @param threads 线程数
+     * @param queueCapacity 队列长度
+     */
+    public static DispatchPolicy bulkhead(String name, int threads, int queueCapacity) {
+        return POLICIES.computeIfAbsent(name, k -> new DispatchPolicy(k, DispatchModeEnum.BULKHEAD,
+                ThreadPoolFactory.createFixedThreadPool(BULKHEAD_THREAD_NAME_PREFIX + k, threads, queueCapacity, false)));
+    }
+
+    /**
+     * 在Netty的IO线程上直接执行
+     */
+    public static DispatchPolicy ioThread() {
+        return POLICIES.computeIfAbsent(DispatchModeEnum.IO_THREAD.name(), k -> new DispatchPolicy(k, DispatchModeEnum.IO_THREAD, null));
+    }
+
+    /**
+     * 根据注解创建策略
+     * @param rpcDispatch 注解
+     * @param defaultName 注解未指定名字时使用的线程池名字
+     */
+    public static DispatchPolicy of(RpcDispatch rpcDispatch, String defaultName) {
+        switch (rpcDispatch.value()) {
+            case BULKHEAD:
+                String name = rpcDispatch.name().isEmpty() ? defaultName : rpcDispatch.name();
+                return bulkhead(name, rpcDispatch.threads(), rpcDispatch.queueCapacity());
+            case IO_THREAD:
+                return ioThread();
+            default:
+                return shared();
+        }
+    }
+
+    /**
+     * @return 已创建的所有策略，用于输出指标
+     */
+    public static Collection<DispatchPolicy> all() {
+        return Collections.unmodifiableCollection(POLICIES.values());
+    }
+
+    /**
+     * 执行请求。线程池满时抛出 RejectedExecutionException
+     * @param task 请求的处理过程
+     */
+    public void execute(Runnable task) {
+        if (executor == null) {
+            inlineActive.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                inlineActive.decrementAndGet();
+            }
+            return;
+        }
+        executor.execute(task);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DispatchModeEnum getMode() {
+        return mode;
+    }
+
+    /**
+     * @return 排队等待执行的请求数
+     */
+    public int getQueueSize() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * @return 正在执行请求的线程数
+     */
+    public int getActiveCount() {
+        return executor == null ? inlineActive.get() : executor.getActiveCount();
+    }
+
+    /**
+     * @return 线程池当前的线程数
+     */
+    public int getPoolSize() {
+        return executor == null ? 0 : executor.getPoolSize();
+    }
+
+    @Override
+    public String toString() {
+        return "DispatchPolicy{name=" + name + ", mode=" + mode + ", queueSize=" + getQueueSize()
+                + ", activeCount=" + getActiveCount() + ", poolSize=" + getPoolSize() + "}";
+    }
+}
@@ -0,0 +1,186 @@
+package studio.lh.provider;
+
+import studio.lh.annotation.RpcDispatch;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.exception.RpcException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/13 19:42
+ * @description : 一个服务的调用表，注册服务时构建一次
+ * 接口的每个方法都预先解析成绑定了服务实例的MethodHandle，请求到来时按方法名查表、比较参数类型后直接调用，
+ * 不再每次 getMethod + Method.invoke
+ */
+public class ServiceInvoker {
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+    private final Object service;
+
+    /**
+     * key: 方法名
+     * value: 同名的重载方法
+     */
+    private final Map<String, MethodInvoker[]> invokers;
+
+    public ServiceInvoker(Object service, Class<?> serviceClass) {
+        this(service, serviceClass, null);
+    }
+
+    /**
+     * @param service 实现类实例
+     * @param serviceClass 服务接口
+     * @param dispatchPolicy 发布服务时指定的执行策略，可以为null
+     */
+    public ServiceInvoker(Object service, Class<?> serviceClass, DispatchPolicy dispatchPolicy) {
+        this.service = service;
+        String serviceName = serviceClass.getCanonicalName();
+        DispatchPolicy servicePolicy = dispatchPolicy != null ? dispatchPolicy
+                : resolvePolicy(serviceName, service.getClass().getAnnotation(RpcDispatch.class), serviceClass.getAnnotation(RpcDispatch.class));
+        if (servicePolicy == null) {
+            servicePolicy = DispatchPolicy.shared();
+        }
+        Map<String, List<MethodInvoker>> grouped = new HashMap<>();
+        for (Method method : serviceClass.getMethods()) {
+            DispatchPolicy methodPolicy = resolvePolicy(serviceName + "#" + method.getName(),
+                    implAnnotation(service, method), method.getAnnotation(RpcDispatch.class));
+            grouped.computeIfAbsent(method.getName(), k -> new ArrayList<>())
+                    .add(new MethodInvoker(method, bind(method, service), methodPolicy != null ? methodPolicy : servicePolicy));
+        }
+        Map<String, MethodInvoker[]> table = new HashMap<>(grouped.size() * 2);
+        grouped.forEach((name, list) -> table.put(name, list.toArray(new MethodInvoker[0])));
+        this.invokers = Collections.unmodifiableMap(table);
+    }
+
+    public Object getService() {
+        return service;
+    }
+
+    /**
+     * @return 本服务所有方法的调用者
+     */
+    public List<MethodInvoker> getMethodInvokers() {
+        List<MethodInvoker> all = new ArrayList<>();
+        for (MethodInvoker[] overloads : invokers.values()) {
+            all.addAll(Arrays.asList(overloads));
+        }
+        return all;
+    }
+
+    /**
+     * 查找方法，只做一次哈希查找和参数类型比较，不产生新对象
+     * @param methodName 方法名
+     * @param paramTypes 参数类型
+     * @return 找不到时返回null
+     */
+    public MethodInvoker getMethodInvoker(String methodName, Class<?>[] paramTypes) {
+        MethodInvoker[] candidates = invokers.get(methodName);
+        if (candidates == null) {
+            return null;
+        }
+        for (MethodInvoker candidate : candidates) {
+            if (candidate.matches(paramTypes)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 实现类上的注解优先于接口上的
+     */
+    private static DispatchPolicy resolvePolicy(String defaultName, RpcDispatch implDispatch, RpcDispatch interfaceDispatch) {
+        RpcDispatch rpcDispatch = implDispatch != null ? implDispatch : interfaceDispatch;
+        return rpcDispatch == null ? null : DispatchPolicy.of(rpcDispatch, defaultName);
+    }
+
+    private static RpcDispatch implAnnotation(Object service, Method method) {
+        try {
+            return service.getClass().getMethod(method.getName(), method.getParameterTypes()).getAnnotation(RpcDispatch.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 绑定服务实例，并把参数展开成 (Object[])Object 的统一签名，调用时可以用invokeExact
+     */
+    private static MethodHandle bind(Method method, Object service) {
+        try {
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method)
+                    .bindTo(service)
+                    .asSpreader(Object[].class, method.getParameterCount())
+                    .asType(INVOKER_TYPE);
+        } catch (IllegalAccessException | SecurityException e) {
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, method.toString());
+        }
+    }
+
+    /**
+     * 单个方法的调用者
+     */
+    public static final class MethodInvoker {
+        private final Method method;
+        private final Class<?>[] paramTypes;
+        private final MethodHandle handle;
+        /**
+         * 服务端全局唯一的方法编号, 注册服务时分配
+         */
+        private int methodId;
+        /**
+         * 该方法的执行策略
+         */
+        private final DispatchPolicy dispatchPolicy;
+
+        private MethodInvoker(Method method, MethodHandle handle, DispatchPolicy dispatchPolicy) {
+            this.method = method;
+            this.paramTypes = method.getParameterTypes();
+            this.handle = handle;
+            this.dispatchPolicy = dispatchPolicy;
+        }
+
+        public DispatchPolicy getDispatchPolicy() {
+            return dispatchPolicy;
+        }
+
+        public Method getMethod() {
+            return method;
+        }
+
+        public Class<?>[] getParamTypes() {
+            return paramTypes;
+        }
+
+        public int getMethodId() {
+            return methodId;
+        }
+
+        void setMethodId(int methodId) {
+            this.methodId = methodId;
+        }
+
+        private boolean matches(Class<?>[] types) {
+            if (types == null) {
+                return paramTypes.length == 0;
+            }
+            return Arrays.equals(paramTypes, types);
+        }
+
+        /**
+         * 直接调用目标方法，业务异常原样抛出
+         * @param args 参数，无参方法可以为null
+         * @return 方法返回值
+         */
+        public Object invoke(Object[] args) throws Throwable {
+            return (Object) handle.invokeExact(args);
+        }
+    }
+}
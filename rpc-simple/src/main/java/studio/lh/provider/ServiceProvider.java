@@ -8,5 +8,8 @@ package studio.lh.provider;
  */
 public interface ServiceProvider {
     <T> void addService(T service, Class<T> serviceClass);
+    <T> void addService(T service, Class<T> serviceClass, DispatchPolicy dispatchPolicy);
     Object getService(String serviceName);
+    ServiceInvoker getServiceInvoker(String serviceName);
+    ServiceInvoker.MethodInvoker getMethodInvoker(int methodId);
 }
@@ -5,6 +5,8 @@ import org.slf4j.LoggerFactory;
 import studio.lh.enumeration.RpcErrorMessageEnum;
 import studio.lh.exception.RpcException;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -25,6 +27,17 @@ public class ServiceProviderImpl implements ServiceProvider {
      */
     private static final Map<String, Object> SERVICE_MAP = new ConcurrentHashMap<>();
 
+    /**
+     * key: 接口类名
+     * value: 注册时构建好的调用表
+     */
+    private static final Map<String, ServiceInvoker> SERVICE_INVOKER_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 下标即方法编号, 0号不用, 表示未协商。只在注册服务时整体替换, 读取不加锁
+     */
+    private static volatile ServiceInvoker.MethodInvoker[] METHOD_INVOKERS = new ServiceInvoker.MethodInvoker[1];
+
     private static final Set<String> REGISTERED_SERVICE = ConcurrentHashMap.newKeySet();
 
     /**
@@ -36,17 +49,46 @@ public class ServiceProviderImpl implements ServiceProvider {
      */
     @Override
     public <T> void addService(T service, Class<T> serviceClass) {
+        addService(service, serviceClass, null);
+    }
+
+    /**
+     * 注册服务并指定执行策略，方法上的 @RpcDispatch 仍然优先
+     * @param service 实现类
+     * @param serviceClass 服务接口
+     * @param dispatchPolicy 执行策略，为null时按注解或使用共享线程池
+     */
+    @Override
+    public <T> void addService(T service, Class<T> serviceClass, DispatchPolicy dispatchPolicy) {
         // 获取规范类名
         String serviceName = serviceClass.getCanonicalName();
         if (REGISTERED_SERVICE.contains(serviceName)) {
             return;
         }
         REGISTERED_SERVICE.add(serviceName);
+        ServiceInvoker serviceInvoker = new ServiceInvoker(service, serviceClass, dispatchPolicy);
+        assignMethodIds(serviceInvoker);
+        SERVICE_INVOKER_MAP.put(serviceName, serviceInvoker);
         SERVICE_MAP.put(serviceName, service);
         LOGGER.info("Add serviceImpl: {} to interfaces:{}", serviceName, service.getClass().getInterfaces());
     }
 
 
+    /**
+     * 为服务的每个方法分配编号, 客户端协商后只用编号调用
+     */
+    private static synchronized void assignMethodIds(ServiceInvoker serviceInvoker) {
+        List<ServiceInvoker.MethodInvoker> methodInvokers = serviceInvoker.getMethodInvokers();
+        ServiceInvoker.MethodInvoker[] current = METHOD_INVOKERS;
+        ServiceInvoker.MethodInvoker[] next = Arrays.copyOf(current, current.length + methodInvokers.size());
+        int methodId = current.length;
+        for (ServiceInvoker.MethodInvoker methodInvoker : methodInvokers) {
+            methodInvoker.setMethodId(methodId);
+            next[methodId++] = methodInvoker;
+        }
+        METHOD_INVOKERS = next;
+    }
+
     /**
      * 线程安全
      * 根据接口获取实现类
@@ -61,4 +103,32 @@ public class ServiceProviderImpl implements ServiceProvider {
         }
         return service;
     }
+
+    /**
+     * 根据接口获取调用表
+     * @param serviceName 接口名
+     * @return 调用表
+     */
+    @Override
+    public ServiceInvoker getServiceInvoker(String serviceName) {
+        ServiceInvoker serviceInvoker = SERVICE_INVOKER_MAP.get(serviceName);
+        if (null == serviceInvoker) {
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_FOUND);
+        }
+        return serviceInvoker;
+    }
+
+    /**
+     * 根据协商好的方法编号获取调用者
+     * @param methodId 方法编号
+     * @return 编号不存在时返回null
+     */
+    @Override
+    public ServiceInvoker.MethodInvoker getMethodInvoker(int methodId) {
+        ServiceInvoker.MethodInvoker[] methodInvokers = METHOD_INVOKERS;
+        if (methodId <= 0 || methodId >= methodInvokers.length) {
+            return null;
+        }
+        return methodInvokers[methodId];
+    }
 }
@@ -0,0 +1,138 @@
+package studio.lh.registry;
+
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import studio.lh.breaker.CircuitBreaker;
+import studio.lh.dto.RpcRequest;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.exception.RpcException;
+import studio.lh.loadbalancer.LoadBalancer;
+import studio.lh.loadbalancer.RoundRobinLoadBalancer;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/19 19:20
+ * @description : 直连模式，所有服务都使用构造时给定的地址，不经过注册中心
+ * 地址格式 host:port，IPv6地址写成 [host]:port，多个地址用逗号分隔，由负载均衡器选择
+ */
+public class DirectServiceDiscovery implements ServiceDiscovery {
+
+    private final List<Instance> instances;
+
+    /**
+     * 只有一个地址时直接返回，不经过负载均衡
+     */
+    private final InetSocketAddress singleAddress;
+
+    private final LoadBalancer loadBalancer;
+
+    public DirectServiceDiscovery(String addresses) {
+        this(addresses, null);
+    }
+
+    public DirectServiceDiscovery(String addresses, LoadBalancer loadBalancer) {
+        List<Instance> parsed = new ArrayList<>();
+        for (String address : addresses.split(",")) {
+            if (!address.trim().isEmpty()) {
+                parsed.add(parseInstance(null, address));
+            }
+        }
+        if (parsed.isEmpty()) {
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_FOUND, "直连地址为空");
+        }
+        this.instances = Collections.unmodifiableList(parsed);
+        this.singleAddress = parsed.size() == 1 ? new InetSocketAddress(parsed.get(0).getIp(), parsed.get(0).getPort()) : null;
+        this.loadBalancer = loadBalancer == null ? new RoundRobinLoadBalancer() : loadBalancer;
+    }
+
+    @Override
+    public InetSocketAddress lookupService(String serviceName) {
+        return lookupService(serviceName, null);
+    }
+
+    @Override
+    public InetSocketAddress lookupService(RpcRequest rpcRequest) {
+        return lookupService(rpcRequest.getInterfaceName(), rpcRequest);
+    }
+
+    private InetSocketAddress lookupService(String serviceName, RpcRequest rpcRequest) {
+        if (singleAddress != null) {
+            return singleAddress;
+        }
+        Instance instance = loadBalancer.select(CircuitBreaker.filter(serviceName, instances), rpcRequest);
+        return new InetSocketAddress(instance.getIp(), instance.getPort());
+    }
+
+    @Override
+    public List<InetSocketAddress> lookupAll(String serviceName) {
+        return toAddresses(instances);
+    }
+
+    /**
+     * 解析 host:port[:weight]，IPv6地址本身带冒号，需要写成 [host]:port[:weight]
+     */
+    static Instance parseInstance(String serviceName, String address) {
+        String trimmed = address.trim();
+        String host;
+        String[] fields;
+        if (trimmed.startsWith("[")) {
+            int end = trimmed.indexOf(']');
+            if (end < 0 || end + 1 >= trimmed.length() || trimmed.charAt(end + 1) != ':') {
+                throw illegalAddress(address);
+            }
+            host = trimmed.substring(1, end);
+            fields = trimmed.substring(end + 2).split(":");
+        } else {
+            String[] split = trimmed.split(":");
+            if (split.length < 2 || split.length > 3) {
+                // 不带方括号的IPv6地址无法区分端口
+                throw illegalAddress(address);
+            }
+            host = split[0];
+            fields = Arrays.copyOfRange(split, 1, split.length);
+        }
+        if (host.isEmpty() || fields.length < 1 || fields.length > 2) {
+            throw illegalAddress(address);
+        }
+        try {
+            Instance instance = toInstance(serviceName, host, Integer.parseInt(fields[0]));
+            if (fields.length > 1) {
+                instance.setWeight(Double.parseDouble(fields[1]));
+            }
+            return instance;
+        } catch (NumberFormatException e) {
+            throw illegalAddress(address);
+        }
+    }
+
+    private static RpcException illegalAddress(String address) {
+        return new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_FOUND, "地址格式应为host:port或[IPv6地址]:port, 实际为: " + address);
+    }
+
+    static List<InetSocketAddress> toAddresses(List<Instance> instances) {
+        List<InetSocketAddress> addresses = new ArrayList<>(instances.size());
+        for (Instance instance : instances) {
+            addresses.add(new InetSocketAddress(instance.getIp(), instance.getPort()));
+        }
+        return addresses;
+    }
+
+    static Instance toInstance(String serviceName, String host, int port) {
+        Instance instance = new Instance();
+        instance.setServiceName(serviceName);
+        instance.setIp(host);
+        instance.setPort(port);
+        return instance;
+    }
+
+    @Override
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+}
@@ -0,0 +1,216 @@
+package studio.lh.registry;
+
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import studio.lh.breaker.CircuitBreaker;
+import studio.lh.dto.RpcRequest;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.exception.RpcException;
+import studio.lh.loadbalancer.LoadBalancer;
+import studio.lh.loadbalancer.RoundRobinLoadBalancer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/19 19:40
+ * @description : 从静态的地址文件读取服务实例，文件修改后自动重新加载
+ * 文件为properties格式，每行一个服务，多个实例用逗号分隔，权重可选:
+ * studio.lh.HelloService=127.0.0.1:5657,127.0.0.1:5658:2,[::1]:5659
+ * 修改时应先写临时文件再改名替换，直接覆盖写入时可能读到写了一半的文件。
+ * 监听文件使用一个WatchService和一个后台线程，不再使用时调用 {@link #close()} 释放
+ */
+public class FileServiceDiscovery implements ServiceDiscovery, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileServiceDiscovery.class);
+
+    private final Path file;
+
+    private final LoadBalancer loadBalancer;
+
+    /**
+     * key: 服务名 value: 不可变的实例列表
+     * 重新加载时整体替换
+     */
+    private volatile Map<String, List<Instance>> services;
+
+    private final Map<String, List<Consumer<List<InetSocketAddress>>>> listeners = new ConcurrentHashMap<>();
+
+    /**
+     * 监听文件的WatchService，无法监听时为null
+     */
+    private volatile WatchService watchService;
+
+    public FileServiceDiscovery(String file) {
+        this(file, null);
+    }
+
+    public FileServiceDiscovery(String file, LoadBalancer loadBalancer) {
+        this.file = Paths.get(file).toAbsolutePath();
+        this.loadBalancer = loadBalancer == null ? new RoundRobinLoadBalancer() : loadBalancer;
+        try {
+            this.services = load(this.file);
+        } catch (IOException | RpcException e) {
+            LOGGER.error("读取服务地址文件 {} 时有错误发生:", this.file, e);
+            throw new RpcException(RpcErrorMessageEnum.FAILED_TO_CONNECT_TO_SERVICE_REGISTRY, this.file.toString());
+        }
+        watch();
+    }
+
+    @Override
+    public InetSocketAddress lookupService(String serviceName) {
+        return lookupService(serviceName, null);
+    }
+
+    @Override
+    public InetSocketAddress lookupService(RpcRequest rpcRequest) {
+        return lookupService(rpcRequest.getInterfaceName(), rpcRequest);
+    }
+
+    private InetSocketAddress lookupService(String serviceName, RpcRequest rpcRequest) {
+        List<Instance> instances = services.get(serviceName);
+        if (instances == null || instances.isEmpty()) {
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_FOUND, "暂无可用的服务实例: " + serviceName);
+        }
+        Instance instance = loadBalancer.select(CircuitBreaker.filter(serviceName, instances), rpcRequest);
+        return new InetSocketAddress(instance.getIp(), instance.getPort());
+    }
+
+    @Override
+    public List<InetSocketAddress> lookupAll(String serviceName) {
+        return DirectServiceDiscovery.toAddresses(services.getOrDefault(serviceName, Collections.emptyList()));
+    }
+
+    @Override
+    public void addChangeListener(String serviceName, Consumer<List<InetSocketAddress>> listener) {
+        listeners.computeIfAbsent(serviceName, k -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    private static Map<String, List<Instance>> load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        Map<String, List<Instance>> services = new HashMap<>();
+        for (String serviceName : properties.stringPropertyNames()) {
+            List<Instance> instances = new ArrayList<>();
+            for (String address : properties.getProperty(serviceName).split(",")) {
+                if (!address.trim().isEmpty()) {
+                    instances.add(DirectServiceDiscovery.parseInstance(serviceName, address));
+                }
+            }
+            services.put(serviceName, Collections.unmodifiableList(instances));
+        }
+        return Collections.unmodifiableMap(services);
+    }
+
+    /**
+     * 监听文件所在目录，文件被修改或替换时重新加载。加载失败时保留原来的地址
+     */
+    private void watch() {
+        WatchService watchService;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            LOGGER.warn("无法监听服务地址文件 {}, 修改后需要重启才能生效: {}", file, e.toString());
+            return;
+        }
+        try {
+            file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            LOGGER.warn("无法监听服务地址文件 {}, 修改后需要重启才能生效: {}", file, e.toString());
+            closeQuietly(watchService);
+            return;
+        }
+        this.watchService = watchService;
+        Thread watcher = new Thread(() -> {
+            try {
+                for (;;) {
+                    WatchKey key = watchService.take();
+                    boolean changed = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        Object context = event.context();
+                        if (context instanceof Path && file.getFileName().equals(context)) {
+                            changed = true;
+                        }
+                    }
+                    key.reset();
+                    if (changed) {
+                        reload();
+                    }
+                }
+            } catch (ClosedWatchServiceException e) {
+                // close()关闭了WatchService, 线程随之退出
+                LOGGER.debug("停止监听服务地址文件 {}", file);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "rpc-registry-file-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void reload() {
+        try {
+            Map<String, List<Instance>> previous = services;
+            services = load(file);
+            LOGGER.info("服务地址文件 {} 已重新加载, 共 {} 个服务", file, services.size());
+            listeners.forEach((serviceName, serviceListeners) -> {
+                List<Instance> instances = services.getOrDefault(serviceName, Collections.emptyList());
+                if (!instances.equals(previous.getOrDefault(serviceName, Collections.emptyList()))) {
+                    List<InetSocketAddress> addresses = DirectServiceDiscovery.toAddresses(instances);
+                    serviceListeners.forEach(listener -> listener.accept(addresses));
+                }
+            });
+        } catch (IOException | RpcException e) {
+            LOGGER.warn("重新加载服务地址文件 {} 失败, 继续使用原来的地址: {}", file, e.toString());
+        }
+    }
+
+    @Override
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+
+    /**
+     * 停止监听文件，关闭WatchService并结束监听线程，已加载的地址仍然可用
+     */
+    @Override
+    public void close() {
+        WatchService current = watchService;
+        watchService = null;
+        if (current != null) {
+            closeQuietly(current);
+        }
+    }
+
+    private void closeQuietly(WatchService watchService) {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOGGER.warn("关闭服务地址文件 {} 的监听时有错误发生: {}", file, e.toString());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package studio.lh.registry;
+
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import studio.lh.breaker.CircuitBreaker;
+import studio.lh.dto.RpcRequest;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.exception.RpcException;
+import studio.lh.loadbalancer.LoadBalancer;
+import studio.lh.loadbalancer.RoundRobinLoadBalancer;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/19 19:05
+ * @description : 进程内的注册中心，同一个JVM里的服务端和客户端共用，用于测试和压测，不需要启动Nacos
+ */
+public class InMemoryServiceRegistry implements ServiceRegistry, ServiceDiscovery {
+
+    /**
+     * key: 服务名 value: 不可变的实例列表
+     */
+    private static final Map<String, List<Instance>> SERVICES = new ConcurrentHashMap<>();
+
+    private static final Map<String, List<Consumer<List<InetSocketAddress>>>> LISTENERS = new ConcurrentHashMap<>();
+
+    private final LoadBalancer loadBalancer;
+
+    public InMemoryServiceRegistry() {
+        this(null);
+    }
+
+    public InMemoryServiceRegistry(LoadBalancer loadBalancer) {
+        this.loadBalancer = loadBalancer == null ? new RoundRobinLoadBalancer() : loadBalancer;
+    }
+
+    @Override
+    public void register(String serviceName, InetSocketAddress inetSocketAddress) {
+        Instance instance = DirectServiceDiscovery.toInstance(serviceName, inetSocketAddress.getHostString(), inetSocketAddress.getPort());
+        SERVICES.compute(serviceName, (k, instances) -> {
+            List<Instance> updated = instances == null ? new ArrayList<>() : new ArrayList<>(instances);
+            updated.removeIf(old -> old.getIp().equals(instance.getIp()) && old.getPort() == instance.getPort());
+            updated.add(instance);
+            return Collections.unmodifiableList(updated);
+        });
+        notifyListeners(serviceName);
+    }
+
+    /**
+     * 注销一个实例
+     */
+    public void deregister(String serviceName, InetSocketAddress inetSocketAddress) {
+        SERVICES.computeIfPresent(serviceName, (k, instances) -> {
+            List<Instance> updated = new ArrayList<>(instances);
+            updated.removeIf(old -> old.getIp().equals(inetSocketAddress.getHostString()) && old.getPort() == inetSocketAddress.getPort());
+            return updated.isEmpty() ? null : Collections.unmodifiableList(updated);
+        });
+        notifyListeners(serviceName);
+    }
+
+    @Override
+    public List<InetSocketAddress> lookupAll(String serviceName) {
+        return DirectServiceDiscovery.toAddresses(SERVICES.getOrDefault(serviceName, Collections.emptyList()));
+    }
+
+    @Override
+    public void addChangeListener(String serviceName, Consumer<List<InetSocketAddress>> listener) {
+        LISTENERS.computeIfAbsent(serviceName, k -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    private static void notifyListeners(String serviceName) {
+        List<Consumer<List<InetSocketAddress>>> listeners = LISTENERS.get(serviceName);
+        if (listeners != null) {
+            List<InetSocketAddress> addresses = DirectServiceDiscovery.toAddresses(SERVICES.getOrDefault(serviceName, Collections.emptyList()));
+            listeners.forEach(listener -> listener.accept(addresses));
+        }
+    }
+
+    @Override
+    public InetSocketAddress lookupService(String serviceName) {
+        return lookupService(serviceName, null);
+    }
+
+    @Override
+    public InetSocketAddress lookupService(RpcRequest rpcRequest) {
+        return lookupService(rpcRequest.getInterfaceName(), rpcRequest);
+    }
+
+    private InetSocketAddress lookupService(String serviceName, RpcRequest rpcRequest) {
+        List<Instance> instances = SERVICES.get(serviceName);
+        if (instances == null || instances.isEmpty()) {
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_FOUND, "暂无可用的服务实例: " + serviceName);
+        }
+        Instance instance = loadBalancer.select(CircuitBreaker.filter(serviceName, instances), rpcRequest);
+        return new InetSocketAddress(instance.getIp(), instance.getPort());
+    }
+
+    @Override
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+}
@@ -0,0 +1,91 @@
+package studio.lh.registry;
+
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/19 14:20
+ * @description : 服务实例列表的本地快照，启动时注册中心不可用则用上次成功获取的列表
+ * 每个服务一个文件，每行一个实例: ip port weight healthy enabled
+ * 目录通过 -Drpc.registry.snapshotDir 配置，默认 ${user.home}/.rpc-ln/snapshot
+ */
+final class InstanceSnapshot {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InstanceSnapshot.class);
+
+    private static final Path SNAPSHOT_DIR = Paths.get(System.getProperty("rpc.registry.snapshotDir",
+            Paths.get(System.getProperty("user.home"), ".rpc-ln", "snapshot").toString()));
+
+    private static final String SUFFIX = ".snapshot";
+
+    private InstanceSnapshot() {
+    }
+
+    /**
+     * 先写临时文件再改名，读到的快照不会是写了一半的
+     */
+    static void save(String serviceName, List<Instance> instances) {
+        Path file = SNAPSHOT_DIR.resolve(serviceName + SUFFIX);
+        Path tmp = SNAPSHOT_DIR.resolve(serviceName + SUFFIX + ".tmp");
+        try {
+            Files.createDirectories(SNAPSHOT_DIR);
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Instance instance : instances) {
+                    writer.write(instance.getIp() + " " + instance.getPort() + " " + instance.getWeight()
+                            + " " + instance.isHealthy() + " " + instance.isEnabled());
+                    writer.newLine();
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // 快照只是兜底，写失败不影响调用
+            LOGGER.warn("保存服务 {} 的实例快照失败: {}", serviceName, e.toString());
+        }
+    }
+
+    /**
+     * @return 快照中的实例列表，没有快照或读取失败时返回空列表
+     */
+    static List<Instance> load(String serviceName) {
+        Path file = SNAPSHOT_DIR.resolve(serviceName + SUFFIX);
+        if (!Files.exists(file)) {
+            return Collections.emptyList();
+        }
+        List<Instance> instances = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split(" ");
+                if (fields.length < 5) {
+                    continue;
+                }
+                Instance instance = new Instance();
+                instance.setIp(fields[0]);
+                instance.setPort(Integer.parseInt(fields[1]));
+                instance.setWeight(Double.parseDouble(fields[2]));
+                instance.setHealthy(Boolean.parseBoolean(fields[3]));
+                instance.setEnabled(Boolean.parseBoolean(fields[4]));
+                instance.setServiceName(serviceName);
+                instances.add(instance);
+            }
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.warn("读取服务 {} 的实例快照失败: {}", serviceName, e.toString());
+            return Collections.emptyList();
+        }
+        return instances;
+    }
+}
@@ -1,28 +1,71 @@
 package studio.lh.registry;
 
 import com.alibaba.nacos.api.exception.NacosException;
-import com.alibaba.nacos.api.naming.NamingService;
+import com.alibaba.nacos.api.naming.listener.NamingEvent;
 import com.alibaba.nacos.api.naming.pojo.Instance;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import studio.lh.breaker.CircuitBreaker;
+import studio.lh.dto.RpcRequest;
 import studio.lh.enumeration.RpcErrorMessageEnum;
 import studio.lh.exception.RpcException;
+import studio.lh.factory.ThreadPoolFactory;
 import studio.lh.loadbalancer.LoadBalancer;
-import studio.lh.loadbalancer.RandomLoadBalancer;
 import studio.lh.loadbalancer.RoundRobinLoadBalancer;
 import studio.lh.util.NacosUtil;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * @author :MayRain
  * @version :1.0
  * @date :2022/11/29 13:14
- * @description :
+ * @description : 带本地缓存的Nacos服务发现
+ * 每个服务第一次调用时从Nacos拉取实例列表并订阅变化，之后的查询只读本地缓存，
+ * 实例上下线由Nacos推送更新。每次更新都写入本地快照，启动时Nacos不可用则使用快照
  */
 public class NacosServiceDiscovery implements ServiceDiscovery {
-    private static final Logger LOGGER = LoggerFactory.getLogger(NacosServiceRegistry.class);
+    private static final Logger LOGGER = LoggerFactory.getLogger(NacosServiceDiscovery.class);
+
+    /**
+     * 注册中心不可用时的重试间隔
+     */
+    private static final long RETRY_INTERVAL_SECONDS = 5;
+
+    /**
+     * key: 服务名 value: 不可变的实例列表
+     * 整个列表一起替换，查询时不需要加锁
+     */
+    private static final Map<String, List<Instance>> INSTANCE_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * key: 服务名 value: 实例列表变化的监听器
+     */
+    private static final Map<String, List<Consumer<List<InetSocketAddress>>>> LISTENERS = new ConcurrentHashMap<>();
+
+    /**
+     * key: 服务名 value: 正在进行的加载, 同一服务的并发查询共用一次加载
+     */
+    private static final Map<String, CompletableFuture<List<Instance>>> LOADING = new ConcurrentHashMap<>();
+
+    /**
+     * 已经订阅过的服务
+     */
+    private static final Set<String> SUBSCRIBED = ConcurrentHashMap.newKeySet();
+
+    private static final ScheduledExecutorService RETRY_EXECUTOR = ThreadPoolFactory.createScheduledThreadPool("rpc-registry-retry", true);
 
     private final LoadBalancer loadBalancer;
 
@@ -34,24 +77,204 @@ public class NacosServiceDiscovery implements ServiceDiscovery {
         }
     }
 
+    @Override
+    public InetSocketAddress lookupService(String serviceName) {
+        return lookupService(serviceName, null);
+    }
+
+    @Override
+    public InetSocketAddress lookupService(RpcRequest rpcRequest) {
+        return lookupService(rpcRequest.getInterfaceName(), rpcRequest);
+    }
+
     /**
-     * 从nacos注册中心获取服务实例地址
+     * 从本地缓存获取服务实例地址，缓存中没有时从Nacos拉取
      * @param serviceName 服务名称
+     * @param rpcRequest 请求, 只按服务名查找时为null
      * @return InetSocketAddress 服务实例地址
      */
+    private InetSocketAddress lookupService(String serviceName, RpcRequest rpcRequest) {
+        List<Instance> instances = getInstances(serviceName);
+        if (instances.isEmpty()) {
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_FOUND, "暂无可用的服务实例: " + serviceName);
+        }
+        // 负载均衡
+        Instance instance = loadBalancer.select(CircuitBreaker.filter(serviceName, instances), rpcRequest);
+        return new InetSocketAddress(instance.getIp(), instance.getPort());
+    }
+
     @Override
-    public InetSocketAddress lookupService(String serviceName) {
+    public List<InetSocketAddress> lookupAll(String serviceName) {
+        return DirectServiceDiscovery.toAddresses(getInstances(serviceName));
+    }
+
+    @Override
+    public void addChangeListener(String serviceName, Consumer<List<InetSocketAddress>> listener) {
+        LISTENERS.computeIfAbsent(serviceName, k -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    /**
+     * 缓存中没有时加载, 同一服务同时只有一个线程访问Nacos, 其他线程等待它的结果
+     * 加载在Map的compute之外进行, 不会锁住其他服务; 空结果不缓存, 下一次查询重新加载
+     */
+    private static List<Instance> getInstances(String serviceName) {
+        List<Instance> instances = INSTANCE_CACHE.get(serviceName);
+        if (instances != null) {
+            return instances;
+        }
+        CompletableFuture<List<Instance>> loading = new CompletableFuture<>();
+        CompletableFuture<List<Instance>> existing = LOADING.putIfAbsent(serviceName, loading);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            // 上一次加载可能刚好在get之后完成
+            instances = INSTANCE_CACHE.get(serviceName);
+            if (instances == null) {
+                instances = loadInstances(serviceName);
+                if (!instances.isEmpty()) {
+                    // 加载期间可能已经收到了推送, 推送的列表更新
+                    List<Instance> pushed = INSTANCE_CACHE.putIfAbsent(serviceName, instances);
+                    instances = pushed == null ? instances : pushed;
+                }
+            }
+            loading.complete(instances);
+            return instances;
+        } catch (RuntimeException e) {
+            loading.completeExceptionally(e);
+            throw e;
+        } finally {
+            LOADING.remove(serviceName, loading);
+        }
+    }
+
+    private static List<Instance> await(CompletableFuture<List<Instance>> loading) {
+        try {
+            return loading.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 订阅并拉取，Nacos不可用时退回到本地快照
+     * Nacos客户端连不上服务端时不一定抛异常，也可能返回空列表，这时同样尝试快照，并在后台重试拉取。
+     * 订阅已经成功的情况下，注册中心恢复后也会推送新的实例列表替换快照
+     */
+    private static List<Instance> loadInstances(String serviceName) {
+        List<Instance> instances;
         try {
-            List<Instance> instances = NacosUtil.getAllInstance(serviceName);
-            if (instances.size() < 1) {
-                throw new RpcException(RpcErrorMessageEnum.SERIALIZER_NOT_FOUND, "暂无可用的服务实例");
+            subscribe(serviceName);
+            instances = fetch(serviceName);
+        } catch (NacosException | RpcException e) {
+            List<Instance> snapshot = InstanceSnapshot.load(serviceName);
+            if (snapshot.isEmpty()) {
+                LOGGER.error("获取服务时有错误发生:", e);
+                throw new RpcException(RpcErrorMessageEnum.FAILED_TO_CONNECT_TO_SERVICE_REGISTRY, serviceName);
+            }
+            LOGGER.warn("注册中心不可用, 服务 {} 使用本地快照中的 {} 个实例", serviceName, snapshot.size());
+            return useSnapshot(serviceName, snapshot);
+        }
+        if (instances.isEmpty()) {
+            List<Instance> snapshot = InstanceSnapshot.load(serviceName);
+            if (!snapshot.isEmpty()) {
+                LOGGER.warn("注册中心没有返回服务 {} 的实例, 使用本地快照中的 {} 个实例", serviceName, snapshot.size());
+                return useSnapshot(serviceName, snapshot);
             }
-            // 负载均衡
-            Instance instance = loadBalancer.select(instances);
-            return new InetSocketAddress(instance.getIp(), instance.getPort());
-        } catch (NacosException e) {
-            LOGGER.error("获取服务时有错误发生:", e);
         }
-        return null;
+        return instances;
+    }
+
+    /**
+     * 每个服务只订阅一次, 订阅失败时下一次加载或重试再订阅, 不会重复注册监听器
+     */
+    private static void subscribe(String serviceName) throws NacosException {
+        if (!SUBSCRIBED.add(serviceName)) {
+            return;
+        }
+        try {
+            NacosUtil.subscribe(serviceName, event -> {
+                if (event instanceof NamingEvent) {
+                    List<Instance> updated = immutableCopy(((NamingEvent) event).getInstances());
+                    INSTANCE_CACHE.put(serviceName, updated);
+                    saveSnapshot(serviceName, updated);
+                    LOGGER.info("服务 {} 的实例列表已更新, 共 {} 个", serviceName, updated.size());
+                    notifyListeners(serviceName, updated);
+                }
+            });
+        } catch (NacosException | RuntimeException e) {
+            SUBSCRIBED.remove(serviceName);
+            throw e;
+        }
+    }
+
+    private static List<Instance> fetch(String serviceName) throws NacosException {
+        List<Instance> instances = immutableCopy(NacosUtil.getAllInstance(serviceName));
+        saveSnapshot(serviceName, instances);
+        return instances;
+    }
+
+    /**
+     * 快照只保留最后一次非空的列表
+     */
+    private static void saveSnapshot(String serviceName, List<Instance> instances) {
+        if (!instances.isEmpty()) {
+            InstanceSnapshot.save(serviceName, instances);
+        }
+    }
+
+    private static void notifyListeners(String serviceName, List<Instance> instances) {
+        List<Consumer<List<InetSocketAddress>>> listeners = LISTENERS.get(serviceName);
+        if (listeners != null) {
+            List<InetSocketAddress> addresses = DirectServiceDiscovery.toAddresses(instances);
+            listeners.forEach(listener -> listener.accept(addresses));
+        }
+    }
+
+    private static List<Instance> useSnapshot(String serviceName, List<Instance> snapshot) {
+        List<Instance> instances = Collections.unmodifiableList(snapshot);
+        scheduleRetry(serviceName, instances);
+        return instances;
+    }
+
+    /**
+     * 后台重新拉取, 直到拿到非空的列表, 或者缓存中的快照已被推送替换
+     * 拉取结果为空时保留快照继续重试
+     * @param snapshot 当前使用的快照列表
+     */
+    private static void scheduleRetry(String serviceName, List<Instance> snapshot) {
+        RETRY_EXECUTOR.schedule(() -> {
+            List<Instance> cached = INSTANCE_CACHE.get(serviceName);
+            if (cached != null && cached != snapshot) {
+                return;
+            }
+            try {
+                subscribe(serviceName);
+                List<Instance> instances = fetch(serviceName);
+                if (instances.isEmpty()) {
+                    scheduleRetry(serviceName, snapshot);
+                    return;
+                }
+                // 重试期间收到推送时以推送为准
+                if (INSTANCE_CACHE.replace(serviceName, snapshot, instances)) {
+                    notifyListeners(serviceName, instances);
+                    LOGGER.info("注册中心已恢复, 服务 {} 改为使用注册中心的实例列表", serviceName);
+                }
+            } catch (NacosException | RpcException e) {
+                scheduleRetry(serviceName, snapshot);
+            }
+        }, RETRY_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static List<Instance> immutableCopy(List<Instance> instances) {
+        return instances == null ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(instances));
+    }
+
+    @Override
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
     }
 }
@@ -0,0 +1,21 @@
+package studio.lh.registry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/19 19:30
+ * @description : 不向任何注册中心注册，服务端配合客户端的直连模式或静态地址文件使用
+ */
+public class NoOpServiceRegistry implements ServiceRegistry {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NoOpServiceRegistry.class);
+
+    @Override
+    public void register(String serviceName, InetSocketAddress inetSocketAddress) {
+        LOGGER.debug("未使用注册中心, 跳过注册: {} @ {}", serviceName, inetSocketAddress);
+    }
+}
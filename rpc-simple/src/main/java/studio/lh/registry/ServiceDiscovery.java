@@ -1,6 +1,12 @@
 package studio.lh.registry;
 
+import studio.lh.dto.RpcRequest;
+import studio.lh.loadbalancer.LoadBalancer;
+
 import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * @author :MayRain
@@ -18,4 +24,40 @@ public interface ServiceDiscovery {
      */
     InetSocketAddress lookupService(String serviceName);
 
+    /**
+     * 为一次调用查找服务实体, 负载均衡器可以根据请求内容选择实例
+     *
+     * @param rpcRequest 请求
+     * @return 服务实体
+     */
+    default InetSocketAddress lookupService(RpcRequest rpcRequest) {
+        return lookupService(rpcRequest.getInterfaceName());
+    }
+
+    /**
+     * 服务的全部实例地址, 用于预先建立连接
+     *
+     * @param serviceName 服务名称
+     * @return 实例地址, 不支持时返回空列表
+     */
+    default List<InetSocketAddress> lookupAll(String serviceName) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * 监听服务实例列表的变化
+     *
+     * @param serviceName 服务名称
+     * @param listener 实例列表变化后以新的全部地址回调, 可能在注册中心的线程上执行
+     */
+    default void addChangeListener(String serviceName, Consumer<List<InetSocketAddress>> listener) {
+    }
+
+    /**
+     * @return 选择实例的负载均衡器, 客户端把调用结果反馈给它; 不使用负载均衡时返回null
+     */
+    default LoadBalancer getLoadBalancer() {
+        return null;
+    }
+
 }
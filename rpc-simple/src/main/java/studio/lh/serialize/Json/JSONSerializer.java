@@ -1,15 +1,21 @@
 package studio.lh.serialize.Json;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import studio.lh.dto.RpcRequest;
 import studio.lh.exception.SerializeException;
 import studio.lh.serialize.Serializer;
 import studio.lh.serialize.SerializerCodeEnum;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * @author :MayRain
@@ -21,7 +27,12 @@ public class JSONSerializer implements Serializer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JSONSerializer.class);
 
-    private ObjectMapper objectMapper = new ObjectMapper();
+    /**
+     * 不输出null字段, 协商过方法编号的请求不再带上空的接口名、方法名和参数类型
+     * transient字段的getter/setter同样忽略, 与Kryo的行为一致
+     */
+    private ObjectMapper objectMapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .configure(MapperFeature.PROPAGATE_TRANSIENT_MARKER, true);
 
     @Override
     public byte[] serialize(Object obj) {
@@ -38,10 +49,37 @@ public class JSONSerializer implements Serializer {
     public Object deserialize(byte[] bytes, Class<?> clazz) {
         try {
             // 读出object对象
-            Object obj = objectMapper.readValue(bytes, clazz);
-            // 服务端收到
-            if (obj instanceof RpcRequest) {
-                obj = handleRequest(obj);
+            return objectMapper.readValue(bytes, clazz);
+        } catch (IOException e) {
+            LOGGER.error("序列化时有错误发生:", e);
+            throw new SerializeException("序列化时有错误发生");
+        }
+    }
+
+    /**
+     * Jackson直接向ByteBuf输出，内部缓冲由Jackson自身回收复用
+     */
+    @Override
+    public void serialize(Object obj, ByteBuf byteBuf) {
+        try {
+            objectMapper.writeValue((OutputStream) new ByteBufOutputStream(byteBuf), obj);
+        } catch (IOException e) {
+            LOGGER.error("序列化时有错误发生:", e);
+            throw new SerializeException("序列化时有错误发生");
+        }
+    }
+
+    @Override
+    public Object deserialize(ByteBuf byteBuf, Class<?> clazz) {
+        try {
+            Object obj;
+            if (byteBuf.hasArray()) {
+                // 堆内存直接读底层数组
+                int readableBytes = byteBuf.readableBytes();
+                obj = objectMapper.readValue(byteBuf.array(), byteBuf.arrayOffset() + byteBuf.readerIndex(), readableBytes, clazz);
+                byteBuf.skipBytes(readableBytes);
+            } else {
+                obj = objectMapper.readValue((InputStream) new ByteBufInputStream(byteBuf), clazz);
             }
             return obj;
         } catch (IOException e) {
@@ -52,23 +90,16 @@ public class JSONSerializer implements Serializer {
 
     /*
         这里由于使用JSON序列化和反序列化Object数组(参数值数组)，无法保证反序列化后仍然为原参数的类型
-        需要重新判断处理
+        需要按目标方法的参数类型重新转换, 由服务端找到目标方法后调用
      */
-    private Object handleRequest(Object obj) throws IOException {
-        RpcRequest rpcRequest = (RpcRequest) obj;
-        for (int i = 0; i < rpcRequest.getParamTypes().length; i++) {
-            // 获取当前request的参数信息
-            Class<?> clazz = rpcRequest.getParamTypes()[i];
-            // 检查当前的参数是否可以强转到类型列表里指定的类型
-            // 不行，重新序列化一下
-            if (!clazz.isAssignableFrom(rpcRequest.getParameters()[i].getClass())) {
-                // 写入参数到字节数组
-                byte[] bytes = objectMapper.writeValueAsBytes(rpcRequest.getParameters()[i]);
-                // 重新按照类型列表里指定的类型序列化，相当于重新转换
-                rpcRequest.getParameters()[i] = objectMapper.readValue(bytes, clazz);
-            }
+    @Override
+    public Object convert(Object value, Class<?> type) {
+        try {
+            return objectMapper.convertValue(value, type);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("参数转换时有错误发生:", e);
+            throw new SerializeException("参数转换时有错误发生");
         }
-        return rpcRequest;
     }
 
     @Override
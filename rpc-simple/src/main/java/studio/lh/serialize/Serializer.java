@@ -1,5 +1,7 @@
 package studio.lh.serialize;
 
+import io.netty.buffer.ByteBuf;
+import studio.lh.factory.SingletonFactory;
 import studio.lh.serialize.Json.JSONSerializer;
 import studio.lh.serialize.kryo.KryoSerializer;
 
@@ -29,12 +31,51 @@ public interface Serializer {
      */
     Object deserialize(byte[] bytes, Class<?> clazz);
 
+    /**
+     * 序列化并直接写入ByteBuf，编码器使用该方法避免中间的byte数组
+     * 默认实现退化为字节数组的拷贝，具体序列化器应当覆盖
+     * @param obj 要序列化的对象
+     * @param byteBuf 写入的目标, 从writerIndex开始写
+     */
+    default void serialize(Object obj, ByteBuf byteBuf) {
+        byteBuf.writeBytes(serialize(obj));
+    }
+
+    /**
+     * 直接从ByteBuf反序列化，解码器传入的是只包含消息体的切片
+     * @param byteBuf 序列化后的数据, 从readerIndex开始读
+     * @param clazz 类
+     * @return 反序列化的对象
+     */
+    default Object deserialize(ByteBuf byteBuf, Class<?> clazz) {
+        byte[] bytes = new byte[byteBuf.readableBytes()];
+        byteBuf.readBytes(bytes);
+        return deserialize(bytes, clazz);
+    }
+
+    /**
+     * 把反序列化出的参数值转换成方法声明的类型
+     * 不带类型信息的格式(如JSON)中, 参数值反序列化后可能是Map、Integer等, 服务端找到目标方法后按参数类型调用此方法转换
+     * 默认原样返回, 带类型信息的序列化器不需要转换
+     * @param value 反序列化出的参数值, 不为null
+     * @param type 方法声明的参数类型
+     * @return 转换后的参数值
+     */
+    default Object convert(Object value, Class<?> type) {
+        return value;
+    }
+
+    /**
+     * 根据编号获取序列化器，解码时按帧头逐帧调用，所以返回的是无状态的单例
+     * @param code 序列化器编号
+     * @return 序列化器，编号未知时返回null
+     */
     static Serializer getSerializer(int code) {
         switch (code) {
             case 0:
-                return new KryoSerializer();
+                return SingletonFactory.getInstance(KryoSerializer.class);
             case 1:
-                return new JSONSerializer();
+                return SingletonFactory.getInstance(JSONSerializer.class);
             default:
                 return null;
         }
@@ -7,13 +7,13 @@ import lombok.Getter;
  * @author :MayRain
  * @version :1.0
  * @date :2022/11/29 19:48
- * @description : 字节流中标识序列化和反序列化器
+ * @description : 字节流中标识序列化和反序列化器, 与 {@link Serializer#getSerializer(int)} 的编号保持一致
  */
 
 @AllArgsConstructor
 @Getter
 public enum SerializerCodeEnum {
-    JSON(0),
-    Kryo(1);
+    KRYO(0),
+    JSON(1);
     private final int code;
 }
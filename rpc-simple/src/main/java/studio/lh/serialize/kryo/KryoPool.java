@@ -0,0 +1,230 @@
+package studio.lh.serialize.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.ByteBufferOutput;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/11 10:32
+ * @description : 有界、无锁的Kryo对象池
+ * 槽位数组 + CAS 实现借出与归还，不依赖线程本地变量，所以Netty的IO线程和业务线程池都可以安全使用。
+ * 每个池化对象除了Kryo实例外，还带有可复用的Input/Output，避免每条消息都分配新的缓冲区。
+ * 池满时归还的对象直接丢弃，池空时临时创建，因此池的大小只影响命中率，不会阻塞调用方。
+ */
+public final class KryoPool {
+
+    /**
+     * 归还时Output缓冲超过该大小就换回初始缓冲，避免偶发的大消息长期占用内存
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    private final Supplier<Kryo> kryoFactory;
+
+    private final AtomicReferenceArray<KryoHolder> slots;
+
+    private final int mask;
+
+    private final AtomicInteger idle = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder discarded = new LongAdder();
+
+    /**
+     * @param kryoFactory 创建并注册好类型的Kryo实例
+     * @param capacity 池中最多保留的实例数，向上取整到2的幂
+     */
+    public KryoPool(Supplier<Kryo> kryoFactory, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.kryoFactory = kryoFactory;
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(Math.max(size, 1));
+        this.mask = slots.length() - 1;
+    }
+
+    /**
+     * 借出一个Kryo，用完后必须调用 {@link #release(KryoHolder)} 归还
+     */
+    public KryoHolder borrow() {
+        int start = probe();
+        for (int i = 0; i <= mask; i++) {
+            int index = (start + i) & mask;
+            KryoHolder holder = slots.get(index);
+            if (holder != null && slots.compareAndSet(index, holder, null)) {
+                idle.decrementAndGet();
+                hits.increment();
+                return holder;
+            }
+        }
+        misses.increment();
+        return new KryoHolder(kryoFactory.get());
+    }
+
+    /**
+     * 归还Kryo, 池已满时丢弃
+     */
+    public void release(KryoHolder holder) {
+        holder.reset();
+        int start = probe();
+        for (int i = 0; i <= mask; i++) {
+            int index = (start + i) & mask;
+            if (slots.get(index) == null && slots.compareAndSet(index, null, holder)) {
+                idle.incrementAndGet();
+                return;
+            }
+        }
+        discarded.increment();
+    }
+
+    /**
+     * 不同线程从不同的槽位开始查找，减少CAS竞争
+     */
+    private int probe() {
+        int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    /**
+     * @return 当前池中空闲的实例数
+     */
+    public int getIdleCount() {
+        return idle.get();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return 池中没有空闲实例而新建Kryo的次数
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return 池满时丢弃的实例数
+     */
+    public long getDiscardedCount() {
+        return discarded.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "KryoPool{capacity=" + getCapacity() + ", idle=" + getIdleCount() + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + ", discarded=" + getDiscardedCount() + '}';
+    }
+
+    /**
+     * 池化的对象：Kryo实例及其复用的输入输出
+     */
+    public static final class KryoHolder {
+        private final Kryo kryo;
+        private final Output output = new Output(INITIAL_BUFFER_SIZE, -1);
+        private final Input input = new Input();
+        private final BoundedByteBufferOutput byteBufferOutput = new BoundedByteBufferOutput();
+        private final ByteBufferInput byteBufferInput = new ByteBufferInput(EMPTY_BUFFER);
+
+        private KryoHolder(Kryo kryo) {
+            this.kryo = kryo;
+        }
+
+        public Kryo getKryo() {
+            return kryo;
+        }
+
+        /**
+         * @return 清空后的可扩容Output
+         */
+        public Output output() {
+            output.clear();
+            return output;
+        }
+
+        public Input input(byte[] bytes, int offset, int count) {
+            input.setBuffer(bytes, offset, count);
+            return input;
+        }
+
+        /**
+         * @return 写入给定缓冲区、不会扩容的Output
+         */
+        public BoundedByteBufferOutput byteBufferOutput(ByteBuffer buffer, int maxBufferSize) {
+            byteBufferOutput.setBuffer(buffer, maxBufferSize);
+            return byteBufferOutput;
+        }
+
+        public ByteBufferInput byteBufferInput(ByteBuffer buffer) {
+            byteBufferInput.setBuffer(buffer);
+            return byteBufferInput;
+        }
+
+        /**
+         * 断开对调用方缓冲区的引用，并收缩过大的缓冲
+         */
+        private void reset() {
+            if (output.getBuffer().length > MAX_RETAINED_BUFFER_SIZE) {
+                output.setBuffer(new byte[INITIAL_BUFFER_SIZE], -1);
+            }
+            output.clear();
+            input.setBuffer(EMPTY_BUFFER.array());
+            byteBufferOutput.setBuffer(EMPTY_BUFFER, 0);
+            byteBufferInput.setBuffer(EMPTY_BUFFER);
+        }
+    }
+
+    /**
+     * 容量固定的ByteBufferOutput，空间不够时先记下溢出再抛出异常，
+     * 调用方据此扩容重写，不需要解析异常信息
+     */
+    public static final class BoundedByteBufferOutput extends ByteBufferOutput {
+        private boolean overflowed;
+
+        private BoundedByteBufferOutput() {
+            super(EMPTY_BUFFER, 0);
+        }
+
+        @Override
+        public void setBuffer(ByteBuffer buffer, int maxBufferSize) {
+            super.setBuffer(buffer, maxBufferSize);
+            overflowed = false;
+        }
+
+        @Override
+        protected boolean require(int required) {
+            if (maxCapacity - position < required) {
+                overflowed = true;
+            }
+            return super.require(required);
+        }
+
+        /**
+         * @return 上次setBuffer之后是否因为空间不够写入失败
+         */
+        public boolean isOverflowed() {
+            return overflowed;
+        }
+    }
+}
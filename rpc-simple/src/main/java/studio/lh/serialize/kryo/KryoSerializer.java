@@ -1,8 +1,11 @@
 package studio.lh.serialize.kryo;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import io.netty.buffer.ByteBuf;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import studio.lh.dto.RpcRequest;
@@ -11,8 +14,7 @@ import studio.lh.exception.SerializeException;
 import studio.lh.serialize.Serializer;
 import studio.lh.serialize.SerializerCodeEnum;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * @author :MayRain
@@ -21,13 +23,27 @@ import java.io.ByteArrayOutputStream;
  * @description :
  * Kryo 不是线程安全的。每个线程都应该有自己的 Kryo 对象、输入和输出实例。
  * 因此在多线程环境中，可以考虑使用 ThreadLocal 或者对象池来保证线程安全性。
- * ThreadLocal 牺牲空间换取线程安全 ：为每个线程都单独创建本线程专用的 kryo 对象。对于每条线程的每个 kryo 对象来说，都是顺序执行的，因此天然避免了并发安全问题。
+ * 之前使用 ThreadLocal 并在每次调用后 remove，实际上每条消息都会新建并注册一个 Kryo。
+ * 现在改为有界对象池 {@link KryoPool}：Kryo 与其 Input/Output 一起被借出和归还，创建一次后反复使用。
  */
 public class KryoSerializer implements Serializer {
     private static final Logger LOGGER = LoggerFactory.getLogger(KryoSerializer.class);
 
-    private static final ThreadLocal<Kryo> KRYO_THREAD_LOCAL = ThreadLocal.withInitial(() -> {
-        // 一个ThreadLocal容器中只会有一个kryo实例
+    /**
+     * 直接写入ByteBuf时首次预留的空间, 放不下时成倍扩容后重写
+     */
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private static final int MAX_BUFFER_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * IO线程数默认是CPU核数的2倍，再加上业务线程池，按核数的4倍保留实例
+     */
+    private static final int DEFAULT_POOL_CAPACITY = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+
+    private static final KryoPool KRYO_POOL = new KryoPool(KryoSerializer::createKryo, DEFAULT_POOL_CAPACITY);
+
+    private static Kryo createKryo() {
         Kryo kryo = new Kryo();
         // 为了提供性能和减小序列化结果体积，提供注册的序列化对象类的方式。
         // 在注册时，会为该序列化类生成 int ID，后续在序列化时使用 int ID 唯一标识该类型
@@ -41,21 +57,101 @@ public class KryoSerializer implements Serializer {
          */
 //        kryo.setRegistrationRequired(false); // 关闭注册行为？？？？？？？？？？？？？？？
         return kryo;
-    });
+    }
+
+    /**
+     * @return Kryo对象池，可用于查看命中率等统计信息
+     */
+    public static KryoPool getKryoPool() {
+        return KRYO_POOL;
+    }
 
     @Override
     public byte[] serialize(Object obj) {
-        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-             Output output = new Output(byteArrayOutputStream)) {
-            Kryo kryo = KRYO_THREAD_LOCAL.get();
-            //将对象序列化为byte数组
-            kryo.writeObject(output, obj);
-            // kryoThreadLocal调用完之后要remove一下, 防止内存泄露
-            KRYO_THREAD_LOCAL.remove();
-            return output.toBytes();
+        KryoPool.KryoHolder holder = KRYO_POOL.borrow();
+        try {
+            return serializeToArray(holder, obj);
+        } catch (Exception e) {
+            LOGGER.error("occur exception when serialize:", e);
+            throw new SerializeException("序列化失败");
+        } finally {
+            KRYO_POOL.release(holder);
+        }
+    }
+
+    /**
+     * 直接序列化到ByteBuf的可写区域，不经过中间的byte数组
+     * 对象大小事先未知，ByteBuf剩余空间不够时扩容并从头重写一次
+     * 可写区域不是一整块NIO缓冲(如CompositeByteBuf)时，NIO视图可能是拷贝，写入会丢失，改为先序列化成byte数组
+     */
+    @Override
+    public void serialize(Object obj, ByteBuf byteBuf) {
+        int writerIndex = byteBuf.writerIndex();
+        int capacity = Math.max(byteBuf.writableBytes(), INITIAL_BUFFER_SIZE);
+        KryoPool.KryoHolder holder = KRYO_POOL.borrow();
+        try {
+            while (true) {
+                byteBuf.ensureWritable(capacity);
+                if (byteBuf.nioBufferCount() != 1) {
+                    byteBuf.writeBytes(serializeToArray(holder, obj));
+                    return;
+                }
+                // 只有一块NIO缓冲时是同一块内存的视图, 不会发生拷贝
+                ByteBuffer nioBuffer = byteBuf.nioBuffer(writerIndex, capacity);
+                KryoPool.BoundedByteBufferOutput output = holder.byteBufferOutput(nioBuffer, capacity);
+                try {
+                    holder.getKryo().writeObject(output, obj);
+                    byteBuf.writerIndex(writerIndex + output.position());
+                    return;
+                } catch (KryoException e) {
+                    if (!output.isOverflowed() || capacity >= MAX_BUFFER_SIZE) {
+                        throw e;
+                    }
+                    capacity = Math.min(capacity << 1, MAX_BUFFER_SIZE);
+                }
+            }
         } catch (Exception e) {
             LOGGER.error("occur exception when serialize:", e);
             throw new SerializeException("序列化失败");
+        } finally {
+            KRYO_POOL.release(holder);
+        }
+    }
+
+    private static byte[] serializeToArray(KryoPool.KryoHolder holder, Object obj) {
+        Output output = holder.output();
+        //将对象序列化为byte数组
+        holder.getKryo().writeObject(output, obj);
+        return output.toBytes();
+    }
+
+    /**
+     * 直接从ByteBuf中反序列化：堆内存直接读底层数组，直接内存读NIO视图
+     */
+    @Override
+    public Object deserialize(ByteBuf byteBuf, Class<?> clazz) {
+        KryoPool.KryoHolder holder = KRYO_POOL.borrow();
+        try {
+            int readableBytes = byteBuf.readableBytes();
+            Object o;
+            int consumed;
+            if (byteBuf.hasArray()) {
+                int offset = byteBuf.arrayOffset() + byteBuf.readerIndex();
+                Input input = holder.input(byteBuf.array(), offset, readableBytes);
+                o = holder.getKryo().readObject(input, clazz);
+                consumed = input.position() - offset;
+            } else {
+                ByteBufferInput input = holder.byteBufferInput(byteBuf.nioBuffer(byteBuf.readerIndex(), readableBytes));
+                o = holder.getKryo().readObject(input, clazz);
+                consumed = input.position();
+            }
+            byteBuf.skipBytes(consumed);
+            return clazz.cast(o);
+        } catch (Exception e) {
+            LOGGER.error("occur exception when deserialize:", e);
+            throw new SerializeException("反序列化失败");
+        } finally {
+            KRYO_POOL.release(holder);
         }
     }
 
@@ -66,17 +162,18 @@ public class KryoSerializer implements Serializer {
 
     @Override
     public Object deserialize(byte[] bytes, Class<?> clazz) {
-        try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
-             Input input = new Input(byteArrayInputStream)) {
-            Kryo kryo = KRYO_THREAD_LOCAL.get();
+        KryoPool.KryoHolder holder = KRYO_POOL.borrow();
+        try {
+            Input input = holder.input(bytes, 0, bytes.length);
             // 从byte数组中反序列化出对对象
-            Object o = kryo.readObject(input, clazz);
-            KRYO_THREAD_LOCAL.remove();
+            Object o = holder.getKryo().readObject(input, clazz);
             // clazz.cast(o) 通过类对象，将o强类型转换
             return clazz.cast(o);
         } catch (Exception e) {
             LOGGER.error("occur exception when deserialize:", e);
             throw new SerializeException("反序列化失败");
+        } finally {
+            KRYO_POOL.release(holder);
         }
     }
 }
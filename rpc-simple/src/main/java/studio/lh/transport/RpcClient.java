@@ -10,4 +10,21 @@ import studio.lh.dto.RpcRequest;
  */
 public interface RpcClient {
     Object sendRpcRequest(RpcRequest rpcRequest);
+
+    /**
+     * 发送请求并指定本次调用的超时时间
+     * @param rpcRequest 请求
+     * @param timeoutMillis 超时时间，不大于0时使用客户端的默认超时
+     * @return 调用结果
+     */
+    default Object sendRpcRequest(RpcRequest rpcRequest, long timeoutMillis) {
+        return sendRpcRequest(rpcRequest);
+    }
+
+    /**
+     * 为服务预先建立连接，创建服务代理时调用，不阻塞调用方
+     * @param serviceName 服务名
+     */
+    default void warmUp(String serviceName) {
+    }
 }
@@ -2,17 +2,27 @@ package studio.lh.transport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import studio.lh.annotation.Idempotent;
+import studio.lh.annotation.RpcHashKey;
+import studio.lh.annotation.RpcTimeout;
 import studio.lh.dto.RpcRequest;
 import studio.lh.dto.RpcResponse;
-import studio.lh.transport.socket.SocketRpcClient;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.exception.RpcException;
+import studio.lh.factory.ThreadPoolFactory;
 import studio.lh.util.RpcMessageChecker;
 
+import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * @author :MayRain
@@ -29,11 +39,42 @@ public class RpcClientProxy implements InvocationHandler {
      */
     private RpcClient rpcClient;
 
+    /**
+     * 异步方法的回调在这个线程池上执行，避免占用客户端的IO线程
+     */
+    private final Executor callbackExecutor;
+
+    /**
+     * 每个方法解析出的超时时间，0表示使用客户端的默认超时。注解只在第一次调用时解析
+     */
+    private final Map<Method, Long> timeouts = new ConcurrentHashMap<>();
+
+    /**
+     * 每个方法标注了@RpcHashKey的参数下标，-1表示没有
+     */
+    private final Map<Method, Integer> hashKeyIndexes = new ConcurrentHashMap<>();
+
+    /**
+     * 每个方法的@Idempotent声明
+     */
+    private final Map<Method, Optional<Idempotent>> idempotents = new ConcurrentHashMap<>();
+
     public RpcClientProxy(RpcClient rpcClient) {
+        this(rpcClient, ThreadPoolFactory.createDefaultThreadPool("rpc-client-callback", true));
+    }
+
+    /**
+     * @param rpcClient 发送请求的客户端
+     * @param callbackExecutor 返回CompletableFuture的方法, 其结果在此线程池上完成
+     */
+    public RpcClientProxy(RpcClient rpcClient, Executor callbackExecutor) {
         this.rpcClient = rpcClient;
+        this.callbackExecutor = callbackExecutor;
     }
 
     public <T> T getProxy(Class<T> clazz) {
+        // 开启预连接时在后台连接服务的实例
+        rpcClient.warmUp(clazz.getName());
         return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[]{clazz}, this);
     }
 
@@ -45,21 +86,93 @@ public class RpcClientProxy implements InvocationHandler {
                 .paramTypes(method.getParameterTypes())
                 //BUG 傻逼 不是method.getParameters()
                 .parameters(args)
-                // 生成请求ID
-                .requestId(UUID.randomUUID().toString())
+                // 请求ID由rpcClient发送时按序生成
                 .build();
+        int hashKeyIndex = hashKeyIndexes.computeIfAbsent(method, RpcClientProxy::resolveHashKeyIndex);
+        if (hashKeyIndex >= 0) {
+            rpcRequest.setHashKey(args[hashKeyIndex]);
+        }
+        idempotents.computeIfAbsent(method, RpcClientProxy::resolveIdempotent).ifPresent(rpcRequest::setIdempotent);
+        long timeoutMillis = timeouts.computeIfAbsent(method, RpcClientProxy::resolveTimeout);
         // 代理过程中获得一个rpcClient的实例, 调用实例的sendRpcRequest方法
-        RpcResponse rpcResponse = null;
-        // 返回的其实是future
-        CompletableFuture<RpcResponse> completableFuture = (CompletableFuture<RpcResponse>) rpcClient.sendRpcRequest(rpcRequest);
+        Object result = rpcClient.sendRpcRequest(rpcRequest, timeoutMillis);
+        boolean async = CompletableFuture.class.isAssignableFrom(method.getReturnType());
+        // socket实现直接返回调用结果
+        if (!(result instanceof CompletableFuture)) {
+            return async ? CompletableFuture.completedFuture(result) : result;
+        }
+        CompletableFuture<RpcResponse> completableFuture = (CompletableFuture<RpcResponse>) result;
+        // 接口声明返回CompletableFuture时直接返回future, 不阻塞调用线程
+        if (async) {
+            return completableFuture.thenApplyAsync(rpcResponse -> {
+                RpcMessageChecker.check(rpcResponse, rpcRequest);
+                return rpcResponse.getData();
+            }, this::executeCallback);
+        }
+        RpcResponse rpcResponse;
         try {
-            // 阻塞直到handler向future中放入结果
+            // 阻塞直到handler向future中放入结果, 超时由客户端的时间轮保证, 这里不会永久阻塞
             rpcResponse = completableFuture.get();
-        } catch (InterruptedException | ExecutionException e) {
-            LOGGER.error("方法调用请求发送失败", e);
-            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RpcException("方法调用被中断", e);
+        } catch (ExecutionException e) {
+            LOGGER.error("方法调用失败, interfaceName:{}, methodName:{}", rpcRequest.getInterfaceName(), rpcRequest.getMethodName());
+            Throwable cause = e.getCause();
+            if (cause instanceof RpcException) {
+                throw cause;
+            }
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE.getMessage(), cause);
         }
         RpcMessageChecker.check(rpcResponse, rpcRequest);
         return rpcResponse.getData();
     }
+
+    /**
+     * 回调线程池满时在完成future的线程上直接执行, 不能让回调丢失导致调用方的future永远不完成
+     */
+    private void executeCallback(Runnable callback) {
+        try {
+            callbackExecutor.execute(callback);
+        } catch (RejectedExecutionException e) {
+            callback.run();
+        }
+    }
+
+    /**
+     * 方法上的@RpcTimeout优先于接口上的, 都没有时返回0
+     */
+    private static long resolveTimeout(Method method) {
+        RpcTimeout rpcTimeout = method.getAnnotation(RpcTimeout.class);
+        if (rpcTimeout == null) {
+            rpcTimeout = method.getDeclaringClass().getAnnotation(RpcTimeout.class);
+        }
+        return rpcTimeout == null ? 0L : rpcTimeout.value();
+    }
+
+    /**
+     * 方法上的@Idempotent优先于接口上的
+     */
+    private static Optional<Idempotent> resolveIdempotent(Method method) {
+        Idempotent idempotent = method.getAnnotation(Idempotent.class);
+        if (idempotent == null) {
+            idempotent = method.getDeclaringClass().getAnnotation(Idempotent.class);
+        }
+        return Optional.ofNullable(idempotent);
+    }
+
+    /**
+     * @return 第一个标注了@RpcHashKey的参数下标, 没有时返回-1
+     */
+    private static int resolveHashKeyIndex(Method method) {
+        Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+        for (int i = 0; i < parameterAnnotations.length; i++) {
+            for (Annotation annotation : parameterAnnotations[i]) {
+                if (annotation instanceof RpcHashKey) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
 }
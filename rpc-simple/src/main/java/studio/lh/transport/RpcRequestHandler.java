@@ -1,15 +1,15 @@
 package studio.lh.transport;
 
+import com.google.common.primitives.Primitives;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import studio.lh.dto.RpcRequest;
-import studio.lh.dto.RpcResponse;
-import studio.lh.enumeration.RpcResponseCode;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.exception.RpcException;
+import studio.lh.provider.ServiceInvoker;
 import studio.lh.provider.ServiceProvider;
 import studio.lh.provider.ServiceProviderImpl;
-
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import studio.lh.serialize.Serializer;
 
 /**
  * @author :MayRain
@@ -32,22 +32,79 @@ public class RpcRequestHandler {
      * 请求已经发到本服务上了，本机就是被"发现"的服务，所以只管调用发过来的请求就好了
      * @param rpcRequest 请求DTO
      * @return 调用结果
+     * @throws RpcException 找不到服务或方法, 或者方法执行时抛出了异常
      */
     public Object handle(RpcRequest rpcRequest) {
-        // 从本地的serviceProvider获取服务实现的实例
-        Object service = SERVICE_PROVIDER.getService(rpcRequest.getInterfaceName());
-        return invokeTargetMethod(rpcRequest, service);
+        ServiceInvoker.MethodInvoker methodInvoker = resolve(rpcRequest);
+        if (methodInvoker == null) {
+            throw new RpcException(RpcErrorMessageEnum.METHOD_CAN_NOT_FOUND, rpcRequest.getInterfaceName() + "#" + rpcRequest.getMethodName());
+        }
+        return invoke(rpcRequest, methodInvoker);
+    }
+
+    /**
+     * 查找请求要调用的方法, 只查表不执行, 可以在IO线程上调用以便按方法选择执行策略
+     * @param rpcRequest 请求DTO
+     * @return 找不到方法时返回null
+     */
+    public ServiceInvoker.MethodInvoker resolve(RpcRequest rpcRequest) {
+        ServiceInvoker.MethodInvoker methodInvoker;
+        if (rpcRequest.getMethodId() != 0) {
+            // 已协商的请求直接按方法编号查找
+            methodInvoker = SERVICE_PROVIDER.getMethodInvoker(rpcRequest.getMethodId());
+            if (methodInvoker != null && rpcRequest.getParamTypes() == null) {
+                // 协商过的请求不带参数类型, 从找到的方法中补上
+                rpcRequest.setParamTypes(methodInvoker.getParamTypes());
+            }
+        } else {
+            // 从本地的serviceProvider获取服务注册时构建好的调用表, 根据方法名、参数列表类型查找目标方法
+            ServiceInvoker serviceInvoker = SERVICE_PROVIDER.getServiceInvoker(rpcRequest.getInterfaceName());
+            methodInvoker = serviceInvoker.getMethodInvoker(rpcRequest.getMethodName(), rpcRequest.getParamTypes());
+            if (methodInvoker != null) {
+                // 回填编号, 随响应返回给客户端
+                rpcRequest.setMethodId(methodInvoker.getMethodId());
+            }
+        }
+        return methodInvoker;
+    }
+
+    /**
+     * 按目标方法的参数类型转换请求中的参数值, 在 {@link #resolve(RpcRequest)} 找到方法之后、执行之前调用
+     * @param rpcRequest 请求DTO
+     * @param methodInvoker 目标方法
+     * @param serializer 请求使用的序列化器, 由它完成转换
+     */
+    public void convertParameters(RpcRequest rpcRequest, ServiceInvoker.MethodInvoker methodInvoker, Serializer serializer) {
+        Object[] parameters = rpcRequest.getParameters();
+        if (parameters == null) {
+            return;
+        }
+        Class<?>[] paramTypes = methodInvoker.getParamTypes();
+        for (int i = 0; i < Math.min(parameters.length, paramTypes.length); i++) {
+            // 检查当前的参数是否可以强转到方法声明的类型, 基本类型按包装类型检查
+            if (parameters[i] != null && !Primitives.wrap(paramTypes[i]).isInstance(parameters[i])) {
+                parameters[i] = serializer.convert(parameters[i], paramTypes[i]);
+            }
+        }
     }
 
-    private Object invokeTargetMethod(RpcRequest rpcRequest, Object service) {
-        Object result = null;
-        // 根据方法名、参数列表类型，从实现类获取目标方法
+    /**
+     * 执行已经查找到的方法
+     * @param rpcRequest 请求DTO
+     * @param methodInvoker 目标方法
+     * @return 调用结果
+     * @throws RpcException 方法执行时抛出了异常, 调用方应回复失败响应而不是把它当作结果
+     */
+    public Object invoke(RpcRequest rpcRequest, ServiceInvoker.MethodInvoker methodInvoker) {
+        Object result;
         try {
-            Method method = service.getClass().getMethod(rpcRequest.getMethodName(), rpcRequest.getParamTypes());
-            result = method.invoke(service, rpcRequest.getParameters());
-            LOGGER.info("服务:{} 成功调用方法:{}", rpcRequest.getInterfaceName(), rpcRequest.getMethodName());
-        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
-            return RpcResponse.fail(RpcResponseCode.NOT_FOUND_METHOD);
+            result = methodInvoker.invoke(rpcRequest.getParameters());
+        } catch (Throwable e) {
+            LOGGER.error("调用方法:{} 失败", methodInvoker.getMethod(), e);
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, String.valueOf(methodInvoker.getMethod()));
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("成功调用方法:{}", methodInvoker.getMethod());
         }
         return result;
     }
@@ -0,0 +1,40 @@
+package studio.lh.transport.netty;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/18 16:35
+ * @description : ByteBuf分配器的内存指标快照，由 {@link NettyAllocator#metrics()} 生成
+ */
+@Getter
+@Builder
+@ToString
+public class AllocatorMetrics {
+    private final boolean pooled;
+    /**
+     * arena向系统申请的内存
+     */
+    private final long usedHeapMemory;
+    private final long usedDirectMemory;
+    /**
+     * 正被未释放的ByteBuf占用的内存
+     */
+    private final long pinnedHeapMemory;
+    private final long pinnedDirectMemory;
+    private final int numHeapArenas;
+    private final int numDirectArenas;
+    private final int numThreadLocalCaches;
+    private final int tinyCacheSize;
+    private final int smallCacheSize;
+    private final int normalCacheSize;
+    private final int chunkSize;
+    /**
+     * Netty统计的整个进程的直接内存使用量和上限(-XX:MaxDirectMemorySize / -Dio.netty.maxDirectMemory)
+     */
+    private final long platformUsedDirectMemory;
+    private final long platformMaxDirectMemory;
+}
@@ -0,0 +1,105 @@
+package studio.lh.transport.netty;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PoolChunkListMetric;
+import io.netty.buffer.PoolChunkMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/18 16:20
+ * @description : 服务端和客户端共用的ByteBuf分配器，编解码器通过 ctx.alloc() 使用
+ * 默认是偏好直接内存的池化分配器，通过系统属性配置:
+ * -Drpc.netty.allocator=pooled       pooled 或 unpooled
+ * -Drpc.netty.preferDirect=true      编解码使用直接内存
+ * -Drpc.netty.heapArenas             堆内存arena数，默认同Netty
+ * -Drpc.netty.directArenas           直接内存arena数，默认同Netty
+ * -Drpc.netty.pageSize               页大小，默认8192
+ * -Drpc.netty.maxOrder               chunk大小为 pageSize << maxOrder，默认11(16MB)
+ * -Drpc.netty.leakDetection=SIMPLE   内存泄漏检测级别: DISABLED/SIMPLE/ADVANCED/PARANOID，生产环境一般用DISABLED或SIMPLE
+ */
+public final class NettyAllocator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NettyAllocator.class);
+
+    public static final ByteBufAllocator ALLOCATOR = createAllocator();
+
+    private NettyAllocator() {
+    }
+
+    private static ByteBufAllocator createAllocator() {
+        String leakDetection = System.getProperty("rpc.netty.leakDetection");
+        if (leakDetection != null) {
+            ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.valueOf(leakDetection.trim().toUpperCase()));
+        }
+        boolean preferDirect = Boolean.parseBoolean(System.getProperty("rpc.netty.preferDirect", "true"))
+                && PlatformDependent.hasUnsafe();
+        if ("unpooled".equalsIgnoreCase(System.getProperty("rpc.netty.allocator", "pooled"))) {
+            LOGGER.info("ByteBuf分配器: unpooled, preferDirect={}", preferDirect);
+            return new UnpooledByteBufAllocator(preferDirect);
+        }
+        PooledByteBufAllocator allocator = new PooledByteBufAllocator(preferDirect,
+                Integer.getInteger("rpc.netty.heapArenas", PooledByteBufAllocator.defaultNumHeapArena()),
+                Integer.getInteger("rpc.netty.directArenas", PooledByteBufAllocator.defaultNumDirectArena()),
+                Integer.getInteger("rpc.netty.pageSize", PooledByteBufAllocator.defaultPageSize()),
+                Integer.getInteger("rpc.netty.maxOrder", PooledByteBufAllocator.defaultMaxOrder()),
+                PooledByteBufAllocator.defaultTinyCacheSize(),
+                PooledByteBufAllocator.defaultSmallCacheSize(),
+                PooledByteBufAllocator.defaultNormalCacheSize(),
+                PooledByteBufAllocator.defaultUseCacheForAllThreads());
+        LOGGER.info("ByteBuf分配器: pooled, preferDirect={}, leakDetection={}, {}", preferDirect,
+                ResourceLeakDetector.getLevel(), allocator.metric());
+        return allocator;
+    }
+
+    /**
+     * 当前的内存使用情况
+     * used 是arena已经向系统申请的内存(按chunk计)，pinned 是其中正被未释放的ByteBuf占用的字节数
+     */
+    public static AllocatorMetrics metrics() {
+        AllocatorMetrics.AllocatorMetricsBuilder builder = AllocatorMetrics.builder()
+                .platformUsedDirectMemory(PlatformDependent.usedDirectMemory())
+                .platformMaxDirectMemory(PlatformDependent.maxDirectMemory());
+        if (!(ALLOCATOR instanceof PooledByteBufAllocator)) {
+            return builder.pooled(false).build();
+        }
+        PooledByteBufAllocatorMetric metric = ((PooledByteBufAllocator) ALLOCATOR).metric();
+        return builder.pooled(true)
+                .usedHeapMemory(metric.usedHeapMemory())
+                .usedDirectMemory(metric.usedDirectMemory())
+                .pinnedHeapMemory(pinnedBytes(metric.heapArenas()))
+                .pinnedDirectMemory(pinnedBytes(metric.directArenas()))
+                .numHeapArenas(metric.numHeapArenas())
+                .numDirectArenas(metric.numDirectArenas())
+                .numThreadLocalCaches(metric.numThreadLocalCaches())
+                .tinyCacheSize(metric.tinyCacheSize())
+                .smallCacheSize(metric.smallCacheSize())
+                .normalCacheSize(metric.normalCacheSize())
+                .chunkSize(metric.chunkSize())
+                .build();
+    }
+
+    /**
+     * 当前Netty版本没有直接的pinned指标，按每个chunk中已分配出去的字节数累加(包含线程缓存中暂存的)
+     */
+    private static long pinnedBytes(List<PoolArenaMetric> arenas) {
+        long bytes = 0;
+        for (PoolArenaMetric arena : arenas) {
+            for (PoolChunkListMetric chunkList : arena.chunkLists()) {
+                for (PoolChunkMetric chunk : chunkList) {
+                    bytes += chunk.chunkSize() - chunk.freeBytes();
+                }
+            }
+        }
+        return bytes;
+    }
+}
@@ -3,9 +3,16 @@ package studio.lh.transport.netty;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
-import lombok.AllArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import studio.lh.compress.CompressionMetrics;
+import studio.lh.compress.Compressor;
+import studio.lh.dto.RpcMessage;
+import studio.lh.dto.RpcRequest;
+import studio.lh.dto.RpcResponse;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.enumeration.RpcMessageTypeEnum;
+import studio.lh.exception.RpcException;
 import studio.lh.serialize.Serializer;
 
 import java.util.List;
@@ -15,19 +22,12 @@ import java.util.List;
  * @version :1.0
  * @date :2022/11/27 15:10
  * @description : 继承自Netty的ByteToMessageDecoder，所以可以作为入站处理器
+ * 帧头中带有消息类型、序列化器编号和压缩算法，同一个端口可以同时服务使用不同序列化器的客户端
+ * 消息体解析失败时仍然向后传递这一帧，由 {@link RpcMessage#getDecodeError()} 带出原因
  */
-@AllArgsConstructor
 public class NettyKryoDecoder extends ByteToMessageDecoder {
     private static final Logger LOGGER = LoggerFactory.getLogger(NettyKryoDecoder.class);
 
-    private Serializer serializer;
-    private Class<?> genericClass;
-
-    /**
-     * Netty传输的消息长度也就是对象序列化后对应的字节数组的大小，存储在 ByteBuf 头部
-     */
-    private static final int BODY_LENGTH = 4;
-
     /**
      * 重写ByteToMessageDecoder的解码方法
      * @param channelHandlerContext
@@ -36,30 +36,94 @@ public class NettyKryoDecoder extends ByteToMessageDecoder {
      */
     @Override
     protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, List<Object> list) {
-
-        //1.byteBuf中写入的消息长度所占的字节数已经是4了，所以 byteBuf 的可读字节必须大于 4。
-        if (byteBuf.readableBytes() >= BODY_LENGTH) {
-            //2.标记当前readIndex的位置，以便后面重置readIndex 的时候使用
-            byteBuf.markReaderIndex();
-            //3.读取消息的长度
-            //注意： 消息长度是encode的时候我们自己写入的，参见 NettyKryoEncoder 的encode方法
-            int dataLength = byteBuf.readInt();
-            //4.遇到不合理的情况直接 return
-            if (dataLength < 0 || byteBuf.readableBytes() < 0) {
-                return;
-            }
-            //5.如果可读字节数小于消息长度的话，说明是不完整的消息，重置readIndex
-            if (byteBuf.readableBytes() < dataLength) {
-                byteBuf.resetReaderIndex();
-                return;
+        //1.帧头没有收全，等待更多数据
+        if (byteBuf.readableBytes() < RpcProtocolConstants.HEADER_LENGTH) {
+            return;
+        }
+        //2.标记当前readIndex的位置，以便后面重置readIndex 的时候使用
+        byteBuf.markReaderIndex();
+        //3.校验魔数和版本，不是本协议的连接直接报错，由异常处理器关闭连接
+        //  帧头出错后无法再找到下一帧的边界, 只有这类错误才关闭连接
+        int magicNumber = byteBuf.readInt();
+        if (magicNumber != RpcProtocolConstants.MAGIC_NUMBER) {
+            throw new RpcException(RpcErrorMessageEnum.UNKNOWN_MAGIC_NUMBER, Integer.toHexString(magicNumber));
+        }
+        byte version = byteBuf.readByte();
+        if (version != RpcProtocolConstants.VERSION) {
+            throw new RpcException(RpcErrorMessageEnum.UNSUPPORTED_PROTOCOL_VERSION, String.valueOf(version));
+        }
+        byte messageType = byteBuf.readByte();
+        byte codec = byteBuf.readByte();
+        byte compress = byteBuf.readByte();
+        long requestId = byteBuf.readLong();
+        int bodyLength = byteBuf.readInt();
+        //4.遇到不合理的长度直接报错
+        if (bodyLength < 0 || bodyLength > RpcProtocolConstants.MAX_BODY_LENGTH) {
+            throw new RpcException(RpcErrorMessageEnum.ILLEGAL_FRAME_LENGTH, String.valueOf(bodyLength));
+        }
+        //5.如果可读字节数小于消息长度的话，说明是不完整的消息，重置readIndex
+        if (byteBuf.readableBytes() < bodyLength) {
+            byteBuf.resetReaderIndex();
+            return;
+        }
+        RpcMessage rpcMessage = RpcMessage.builder()
+                .messageType(messageType)
+                .codec(codec)
+                .compress(compress)
+                .requestId(requestId)
+                .build();
+        //6.心跳帧没有消息体，不需要反序列化
+        if (bodyLength > 0) {
+            // 消息体的切片与原ByteBuf共享内存，反序列化时不再拷贝出byte数组
+            ByteBuf body = byteBuf.readSlice(bodyLength);
+            try {
+                if (compress == 0) {
+                    rpcMessage.setData(deserializeBody(body, messageType, codec));
+                } else {
+                    rpcMessage.setData(decompressAndDeserialize(channelHandlerContext, body, messageType, codec, compress));
+                }
+            } catch (RuntimeException e) {
+                // 整帧已经读走，后面的帧不受影响; 连接上有其他请求，只让这一个请求失败
+                LOGGER.error("请求号为 {} 的消息体解析失败", requestId, e);
+                rpcMessage.setDecodeError(e);
             }
-            // 6.走到这里说明没什么问题了，可以序列化了
-            byte[] body = new byte[dataLength];
-            byteBuf.readBytes(body);
-            // 将bytes数组转换为我们需要的对象
-            Object obj = serializer.deserialize(body, genericClass);
-            // 传递解码后的结果
-            list.add(obj);
         }
+        // 传递解码后的结果
+        list.add(rpcMessage);
+    }
+
+    private Object decompressAndDeserialize(ChannelHandlerContext ctx, ByteBuf body, byte messageType, byte codec, byte compress) {
+        Compressor compressor = Compressor.getCompressor(compress);
+        if (compressor == null) {
+            throw new RpcException(RpcErrorMessageEnum.UNKNOWN_COMPRESS_TYPE, "compress:" + compress);
+        }
+        ByteBuf decompressed = ctx.alloc().buffer(body.readableBytes() * 2);
+        try {
+            long start = System.nanoTime();
+            // 解压后的长度同样受单帧上限约束
+            compressor.decompress(body, decompressed, RpcProtocolConstants.MAX_BODY_LENGTH);
+            CompressionMetrics.of(compressor.getType()).recordDecompress(System.nanoTime() - start);
+            return deserializeBody(decompressed, messageType, codec);
+        } finally {
+            decompressed.release();
+        }
+    }
+
+    private Object deserializeBody(ByteBuf body, byte messageType, byte codec) {
+        Class<?> bodyClass;
+        if (messageType == RpcMessageTypeEnum.REQUEST.getCode()) {
+            bodyClass = RpcRequest.class;
+        } else if (messageType == RpcMessageTypeEnum.RESPONSE.getCode()) {
+            bodyClass = RpcResponse.class;
+        } else {
+            throw new RpcException(RpcErrorMessageEnum.UNKNOWN_MESSAGE_TYPE, String.valueOf(messageType));
+        }
+        Serializer serializer = Serializer.getSerializer(codec);
+        if (serializer == null) {
+            LOGGER.error("未找到编号为 {} 的序列化器", codec);
+            throw new RpcException(RpcErrorMessageEnum.SERIALIZER_NOT_FOUND, "codec:" + codec);
+        }
+        // 将消息体转换为我们需要的对象
+        return serializer.deserialize(body, bodyClass);
     }
 }
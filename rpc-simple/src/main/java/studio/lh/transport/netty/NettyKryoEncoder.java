@@ -3,7 +3,12 @@ package studio.lh.transport.netty;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
-import lombok.AllArgsConstructor;
+import studio.lh.compress.CompressTypeEnum;
+import studio.lh.compress.CompressionMetrics;
+import studio.lh.compress.Compressor;
+import studio.lh.dto.RpcMessage;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.exception.RpcException;
 import studio.lh.serialize.Serializer;
 
 /**
@@ -11,30 +16,98 @@ import studio.lh.serialize.Serializer;
  * @version :1.0
  * @date :2022/11/27 15:06
  * @description : 重写MessageToByteEncoder，所以可以作为出站处理器
+ * 按 {@link RpcProtocolConstants} 中定义的帧格式写出，序列化器由每条消息自己指定
+ * 消息体达到阈值时压缩，压缩后没有变小则按原样发送，实际使用的算法写入帧头:
+ * -Drpc.compress.type=none          默认压缩算法: none/gzip/snappy
+ * -Drpc.compress.threshold=4096     消息体达到这个字节数才压缩
  */
-@AllArgsConstructor
-public class NettyKryoEncoder extends MessageToByteEncoder<Object> {
-    private Serializer serializer;
-    private Class<?> genericClass;
+public class NettyKryoEncoder extends MessageToByteEncoder<RpcMessage> {
+
+    private static final CompressTypeEnum DEFAULT_COMPRESS_TYPE = CompressTypeEnum.of(System.getProperty("rpc.compress.type", "none"));
+
+    private static final int DEFAULT_COMPRESS_THRESHOLD = Integer.getInteger("rpc.compress.threshold", 4096);
+
+    /**
+     * 消息没有指定压缩算法时使用
+     */
+    private final byte compressType;
+
+    private final int compressThreshold;
+
+    public NettyKryoEncoder() {
+        this(DEFAULT_COMPRESS_TYPE.getCode(), DEFAULT_COMPRESS_THRESHOLD);
+    }
+
+    /**
+     * @param compressType 默认压缩算法 {@link CompressTypeEnum}
+     * @param compressThreshold 消息体达到这个字节数才压缩
+     */
+    public NettyKryoEncoder(byte compressType, int compressThreshold) {
+        this.compressType = compressType;
+        this.compressThreshold = compressThreshold;
+    }
 
     /**
      * 将对象转换为字节码然后写入到 ByteBuf 对象中
-     * LD格式
+     * 帧头 + 消息体
      */
     @Override
-    protected void encode(ChannelHandlerContext channelHandlerContext, Object o, ByteBuf byteBuf) {
-        // 这个方法是Java语言instanceof操作符的动态等效。
-        // 形参: Obj -要检查的对象 返回值: 如果obj是该类的实例，则为True
-        // 如果收到的object不是指定类型的，就无需编码。指定类型由构造NettyKryoEncoder时指定
-        if (genericClass.isInstance(o)) {
-            // 1. 将对象转换为byte
-            byte[] body = serializer.serialize(o);
-            // 2. 读取消息的长度
-            int dataLength = body.length;
-            // 3.写入消息对应的字节数组长度,writerIndex 加 4
-            byteBuf.writeInt(dataLength);
-            //4.将字节数组写入 ByteBuf 对象中
-            byteBuf.writeBytes(body);
+    protected void encode(ChannelHandlerContext channelHandlerContext, RpcMessage rpcMessage, ByteBuf byteBuf) {
+        // 1. 写帧头
+        int frameIndex = byteBuf.writerIndex();
+        byteBuf.writeInt(RpcProtocolConstants.MAGIC_NUMBER);
+        byteBuf.writeByte(RpcProtocolConstants.VERSION);
+        byteBuf.writeByte(rpcMessage.getMessageType());
+        byteBuf.writeByte(rpcMessage.getCodec());
+        // 压缩成功后再回填
+        byteBuf.writeByte(CompressTypeEnum.NONE.getCode());
+        byteBuf.writeLong(rpcMessage.getRequestId());
+        // 2. 心跳等没有消息体的帧，长度写0即可
+        if (rpcMessage.getData() == null) {
+            byteBuf.writeInt(0);
+            return;
+        }
+        Serializer serializer = Serializer.getSerializer(rpcMessage.getCodec());
+        if (serializer == null) {
+            throw new RpcException(RpcErrorMessageEnum.SERIALIZER_NOT_FOUND, "codec:" + rpcMessage.getCodec());
+        }
+        // 3. 先占位消息体长度，对象直接序列化进ByteBuf后再回填长度
+        byteBuf.writeInt(0);
+        serializer.serialize(rpcMessage.getData(), byteBuf);
+        int bodyLength = byteBuf.writerIndex() - frameIndex - RpcProtocolConstants.HEADER_LENGTH;
+        byte compress = rpcMessage.getCompress() != 0 ? rpcMessage.getCompress() : compressType;
+        if (compress != 0 && bodyLength >= compressThreshold) {
+            bodyLength = compressBody(channelHandlerContext, byteBuf, frameIndex, bodyLength, compress);
+        }
+        byteBuf.setInt(frameIndex + RpcProtocolConstants.BODY_LENGTH_OFFSET, bodyLength);
+    }
+
+    /**
+     * 把已经序列化好的消息体压缩后原地替换
+     * @return 替换后的消息体长度
+     */
+    private int compressBody(ChannelHandlerContext ctx, ByteBuf byteBuf, int frameIndex, int bodyLength, byte compress) {
+        Compressor compressor = Compressor.getCompressor(compress);
+        if (compressor == null) {
+            throw new RpcException(RpcErrorMessageEnum.UNKNOWN_COMPRESS_TYPE, "compress:" + compress);
+        }
+        int bodyIndex = frameIndex + RpcProtocolConstants.HEADER_LENGTH;
+        ByteBuf compressed = ctx.alloc().buffer(bodyLength);
+        try {
+            long start = System.nanoTime();
+            compressor.compress(byteBuf.slice(bodyIndex, bodyLength), compressed);
+            int compressedLength = compressed.readableBytes();
+            CompressionMetrics.of(compressor.getType()).recordCompress(bodyLength, compressedLength, System.nanoTime() - start);
+            if (compressedLength >= bodyLength) {
+                // 数据本身不可压缩，按原样发送
+                return bodyLength;
+            }
+            byteBuf.writerIndex(bodyIndex);
+            byteBuf.writeBytes(compressed);
+            byteBuf.setByte(frameIndex + RpcProtocolConstants.COMPRESS_OFFSET, compress);
+            return compressedLength;
+        } finally {
+            compressed.release();
         }
     }
 }
@@ -0,0 +1,127 @@
+package studio.lh.transport.netty;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/17 20:12
+ * @description : 服务端和客户端共用的传输层配置
+ * Linux上native epoll可用时自动使用epoll，否则退回NIO。线程数、socket缓冲区等通过系统属性配置:
+ * -Drpc.netty.epoll=false            禁用epoll
+ * -Drpc.netty.bossThreads=1          服务端接收连接的线程数
+ * -Drpc.netty.workerThreads=0        服务端IO线程数，0表示Netty默认(CPU核数*2)
+ * -Drpc.netty.clientThreads=0        客户端IO线程数，0表示Netty默认
+ * -Drpc.netty.soRcvbuf=0             socket接收缓冲区字节数，0表示使用系统默认
+ * -Drpc.netty.soSndbuf=0             socket发送缓冲区字节数，0表示使用系统默认
+ * -Drpc.netty.tcpQuickAck=true       epoll下开启TCP_QUICKACK
+ * -Drpc.netty.reusePort=false        epoll下服务端开启SO_REUSEPORT
+ * ByteBuf分配器的配置见 {@link NettyAllocator}
+ */
+public final class NettyTransport {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NettyTransport.class);
+
+    public static final boolean USE_EPOLL = Boolean.parseBoolean(System.getProperty("rpc.netty.epoll", "true")) && Epoll.isAvailable();
+
+    public static final int BOSS_THREADS = Integer.getInteger("rpc.netty.bossThreads", 1);
+    public static final int WORKER_THREADS = Integer.getInteger("rpc.netty.workerThreads", 0);
+    public static final int CLIENT_THREADS = Integer.getInteger("rpc.netty.clientThreads", 0);
+    public static final int SO_RCVBUF = Integer.getInteger("rpc.netty.soRcvbuf", 0);
+    public static final int SO_SNDBUF = Integer.getInteger("rpc.netty.soSndbuf", 0);
+    public static final boolean TCP_QUICKACK = Boolean.parseBoolean(System.getProperty("rpc.netty.tcpQuickAck", "true"));
+    public static final boolean REUSE_PORT = Boolean.getBoolean("rpc.netty.reusePort");
+
+    static {
+        LOGGER.info("Netty传输层: {}", USE_EPOLL ? "epoll" : "nio");
+    }
+
+    private NettyTransport() {
+    }
+
+    public static EventLoopGroup newEventLoopGroup(int threads, String threadNamePrefix, boolean daemon) {
+        return newEventLoopGroup(USE_EPOLL, threads, threadNamePrefix, daemon);
+    }
+
+    /**
+     * @param epoll 是否使用epoll, 调用方需保证 {@link Epoll#isAvailable()}
+     * @param threads 线程数, 0表示Netty默认
+     * @param threadNamePrefix 线程名前缀
+     * @param daemon 是否守护线程。服务端的IO线程要撑住进程, 传false; 客户端不应阻止进程退出, 可以传true
+     */
+    public static EventLoopGroup newEventLoopGroup(boolean epoll, int threads, String threadNamePrefix, boolean daemon) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(threadNamePrefix, daemon);
+        return epoll ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    public static Class<? extends ServerChannel> serverChannelClass(boolean epoll) {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public static Class<? extends SocketChannel> socketChannelClass(boolean epoll) {
+        return epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    /**
+     * 服务端的channel类型和socket选项
+     */
+    public static ServerBootstrap configure(ServerBootstrap serverBootstrap, boolean epoll) {
+        serverBootstrap.channel(serverChannelClass(epoll))
+                .option(ChannelOption.ALLOCATOR, NettyAllocator.ALLOCATOR)
+                .childOption(ChannelOption.ALLOCATOR, NettyAllocator.ALLOCATOR)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true);
+        if (SO_RCVBUF > 0) {
+            // 接收缓冲区要在监听socket上设置, accept出来的连接才能按这个大小协商窗口
+            serverBootstrap.option(ChannelOption.SO_RCVBUF, SO_RCVBUF);
+            serverBootstrap.childOption(ChannelOption.SO_RCVBUF, SO_RCVBUF);
+        }
+        if (SO_SNDBUF > 0) {
+            serverBootstrap.childOption(ChannelOption.SO_SNDBUF, SO_SNDBUF);
+        }
+        if (epoll) {
+            if (REUSE_PORT) {
+                serverBootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+            if (TCP_QUICKACK) {
+                serverBootstrap.childOption(EpollChannelOption.TCP_QUICKACK, true);
+            }
+        }
+        return serverBootstrap;
+    }
+
+    /**
+     * 客户端的channel类型和socket选项
+     */
+    public static Bootstrap configure(Bootstrap bootstrap, boolean epoll) {
+        bootstrap.channel(socketChannelClass(epoll))
+                .option(ChannelOption.ALLOCATOR, NettyAllocator.ALLOCATOR)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true);
+        if (SO_RCVBUF > 0) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, SO_RCVBUF);
+        }
+        if (SO_SNDBUF > 0) {
+            bootstrap.option(ChannelOption.SO_SNDBUF, SO_SNDBUF);
+        }
+        if (epoll && TCP_QUICKACK) {
+            bootstrap.option(EpollChannelOption.TCP_QUICKACK, true);
+        }
+        return bootstrap;
+    }
+}
@@ -0,0 +1,48 @@
+package studio.lh.transport.netty;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/10 14:45
+ * @description : 自定义协议帧格式
+ * <pre>
+ *   0     1     2     3     4        5          6          7          8 ......... 15  16 ...... 19
+ *   +-----+-----+-----+-----+--------+----------+----------+----------+--------------+------------+
+ *   |      magic number     |version | msg type |  codec   | compress |  request id  | body length|
+ *   +-----------------------+--------+----------+----------+----------+--------------+------------+
+ *   |                                         body                                              |
+ *   +-------------------------------------------------------------------------------------------+
+ * </pre>
+ */
+public final class RpcProtocolConstants {
+
+    /**
+     * 魔数 "LNRP"，用于快速识别非本协议的连接
+     */
+    public static final int MAGIC_NUMBER = 0x4C4E5250;
+
+    public static final byte VERSION = 1;
+
+    /**
+     * 帧头长度：魔数4 + 版本1 + 消息类型1 + 序列化器1 + 压缩1 + 请求号8 + 消息体长度4
+     */
+    public static final int HEADER_LENGTH = 20;
+
+    /**
+     * 压缩算法字段在帧头中的偏移量
+     */
+    public static final int COMPRESS_OFFSET = 7;
+
+    /**
+     * 消息体长度字段在帧头中的偏移量
+     */
+    public static final int BODY_LENGTH_OFFSET = 16;
+
+    /**
+     * 单帧消息体的最大长度，超过则认为是非法帧
+     */
+    public static final int MAX_BODY_LENGTH = 8 * 1024 * 1024;
+
+    private RpcProtocolConstants() {
+    }
+}
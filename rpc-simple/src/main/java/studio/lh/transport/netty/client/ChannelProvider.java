@@ -2,18 +2,18 @@ package studio.lh.transport.netty.client;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.timeout.IdleStateHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import studio.lh.dto.RpcRequest;
-import studio.lh.dto.RpcResponse;
-import studio.lh.serialize.Serializer;
+import studio.lh.dto.RpcMessage;
+import studio.lh.enumeration.RpcMessageTypeEnum;
 import studio.lh.transport.netty.NettyKryoDecoder;
 import studio.lh.transport.netty.NettyKryoEncoder;
+import studio.lh.transport.netty.NettyTransport;
 
 import java.net.InetSocketAddress;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.*;
 
@@ -21,83 +21,112 @@ import java.util.concurrent.*;
  * @author :MayRain
  * @version :1.0
  * @date :2022/11/28 12:21
- * @description :
+ * @description : 维护到每个服务实例的长连接
+ * 同一个地址只保持一条连接，所有请求在这条连接上并发发送，靠请求号与响应对应。
+ * 帧头中带有序列化器编号，所以不同序列化器的请求也可以共用一条连接。
+ * 连接断开后从缓存中移除，下一次获取时自动重连。
+ * 连接读空闲时发送心跳，服务端连续多次没有响应时主动关闭，不必等到请求超时才发现半开连接。
  */
 public class ChannelProvider {
     private static final Logger LOGGER = LoggerFactory.getLogger(ChannelProvider.class);
     private static EventLoopGroup eventLoopGroup;
     private static Bootstrap bootstrap = initializeBootstrap();
 
-    private static Map<String, Channel> channels = new ConcurrentHashMap<>();
+    private static Map<InetSocketAddress, Channel> channels = new ConcurrentHashMap<>();
 
     /**
-     * 获取用于发出请求的Channel
+     * 正在建立中的连接，保证并发的首次调用只会发起一次连接
+     */
+    private static final Map<InetSocketAddress, CompletableFuture<Channel>> CONNECTING = new ConcurrentHashMap<>();
+
+    /**
+     * 获取用于发出请求的Channel, 不阻塞调用方
+     * 已有可用连接时返回已完成的future, 否则在连接建立后完成; 并发的首次调用共用同一次连接
      * @param inetSocketAddress 从注册中心获取到的服务实例的地址
-     * @param serializer 序列化器
-     * @return 于服务提供端相连的Channel
+     * @return 与服务提供端相连的Channel, 连接失败时以异常结束
      */
-    public static Channel get(InetSocketAddress inetSocketAddress, Serializer serializer) throws InterruptedException {
-        String key = inetSocketAddress.toString() + serializer.getCode();
-        if (channels.containsKey(key)) {
-            Channel channel = channels.get(key);
-            if (channels != null && channel.isActive()) {
-                return channel;
-            } else {
-                channels.remove(key);
-            }
+    public static CompletableFuture<Channel> get(InetSocketAddress inetSocketAddress) {
+        Channel channel = channels.get(inetSocketAddress);
+        if (channel != null && channel.isActive()) {
+            return CompletableFuture.completedFuture(channel);
         }
-        bootstrap.handler(new ChannelInitializer<SocketChannel>() {
-            @Override
-            protected void initChannel(SocketChannel ch) {
+        CompletableFuture<Channel> connectFuture = CONNECTING.computeIfAbsent(inetSocketAddress, ChannelProvider::connect);
+        // 连接完成后(无论成败)移除，失败时下一次调用会重新发起连接
+        connectFuture.whenComplete((connected, throwable) -> CONNECTING.remove(inetSocketAddress, connectFuture));
+        return connectFuture;
+    }
 
-                ch.pipeline()
-                        // 客户端解码响应
-                        .addLast(new NettyKryoDecoder(serializer, RpcResponse.class))
-                        // 客户端编码请求
-                        .addLast(new NettyKryoEncoder(serializer, RpcRequest.class))
-                        .addLast(new NettyClientHandler());
+    /**
+     * 在后台建立到这些地址的连接，已有可用连接的地址跳过。不阻塞调用方
+     * @param addresses 服务实例地址
+     * @param ping 连接建立后是否发送一次心跳，让连接和编解码器在第一次真实调用前走一遍
+     */
+    public static void preconnect(Collection<InetSocketAddress> addresses, boolean ping) {
+        for (InetSocketAddress address : addresses) {
+            Channel channel = channels.get(address);
+            if (channel != null && channel.isActive()) {
+                continue;
             }
-        });
-        Channel channel = null;
-        try {
-            channel = connect(bootstrap, inetSocketAddress);
-        } catch (ExecutionException e) {
-            LOGGER.error("连接客户端时有错误发生", e);
-            return null;
+            get(address).whenComplete((connected, throwable) -> {
+                if (throwable != null) {
+                    LOGGER.warn("预连接服务端 {} 失败: {}", address, throwable.toString());
+                } else if (ping) {
+                    connected.writeAndFlush(RpcMessage.builder()
+                            .messageType(RpcMessageTypeEnum.HEARTBEAT_PING.getCode())
+                            .build(), connected.voidPromise());
+                }
+            });
         }
-        channels.put(key, channel);
-        return channel;
     }
 
     /**
-     * 缺省重试次数时，以MAX_RETRY_COUNT为默认
-     * @param bootstrap
-     * @param inetSocketAddress
+     * 异步建立连接，连接成功后放入缓存，并在连接关闭时自动移除
+     * @param inetSocketAddress 服务实例地址
      */
-    private static Channel connect(Bootstrap bootstrap, InetSocketAddress inetSocketAddress) throws ExecutionException, InterruptedException {
+    private static CompletableFuture<Channel> connect(InetSocketAddress inetSocketAddress) {
         CompletableFuture<Channel> completableFuture = new CompletableFuture<>();
         bootstrap.connect(inetSocketAddress).addListener((ChannelFutureListener) future -> {
             if (future.isSuccess()) {
-                LOGGER.info("客户端连接成功!");
-                completableFuture.complete(future.channel());
+                LOGGER.info("客户端连接成功: {}", inetSocketAddress);
+                Channel channel = future.channel();
+                channels.put(inetSocketAddress, channel);
+                channel.closeFuture().addListener(closeFuture -> {
+                    LOGGER.info("与服务端 {} 的连接已关闭", inetSocketAddress);
+                    channels.remove(inetSocketAddress, channel);
+                });
+                completableFuture.complete(channel);
             } else {
-                throw new IllegalStateException();
+                completableFuture.completeExceptionally(future.cause());
             }
         });
-        return completableFuture.get();
+        return completableFuture;
     }
 
     private static Bootstrap initializeBootstrap() {
-        eventLoopGroup = new NioEventLoopGroup();
+        // 所有客户端共用一个EventLoopGroup, Linux上自动使用epoll
+        eventLoopGroup = NettyTransport.newEventLoopGroup(NettyTransport.CLIENT_THREADS, "rpc-client", true);
         Bootstrap bootstrap = new Bootstrap();
+        // channel类型, TCP_NODELAY, SO_KEEPALIVE, 缓冲区大小等
+        NettyTransport.configure(bootstrap, NettyTransport.USE_EPOLL);
         bootstrap.group(eventLoopGroup)
-                .channel(NioSocketChannel.class)
                 //连接的超时时间，超过这个时间还是建立不上的话则代表连接失败
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
-                //是否开启 TCP 底层心跳机制
-                .option(ChannelOption.SO_KEEPALIVE, true)
-                //TCP默认开启了 Nagle 算法，该算法的作用是尽可能的发送大数据快，减少网络传输。TCP_NODELAY 参数的作用就是控制是否启用 Nagle 算法。
-                .option(ChannelOption.TCP_NODELAY, true);
+                // 所有连接的pipeline相同，初始化时设置一次即可
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        if (NettyClientHandler.HEARTBEAT_SECONDS > 0) {
+                            // 读空闲时由NettyClientHandler发送心跳, 心跳无响应时关闭连接
+                            ch.pipeline().addLast(new IdleStateHandler(NettyClientHandler.HEARTBEAT_SECONDS, 0, 0, TimeUnit.SECONDS));
+                        }
+                        ch.pipeline()
+                                // 客户端解码响应
+                                .addLast(new NettyKryoDecoder())
+                                // 客户端编码请求
+                                .addLast(new NettyKryoEncoder())
+                                .addLast(new NettyClientHandler());
+                    }
+                });
         return bootstrap;
     }
 }
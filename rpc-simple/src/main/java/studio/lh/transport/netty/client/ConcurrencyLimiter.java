@@ -0,0 +1,162 @@
+package studio.lh.transport.netty.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/16 19:48
+ * @description : 客户端到单个服务端的自适应并发上限(AIMD)
+ * 请求正常返回且延迟没有明显上升时加法增大上限，收到过载响应、超时或延迟超过最小延迟的若干倍时乘法减小上限，
+ * 超过上限的请求在客户端直接失败，不再压向已经过载的服务端
+ */
+public class ConcurrencyLimiter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    private static final Map<InetSocketAddress, ConcurrencyLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private static final int INITIAL_LIMIT = 200;
+    private static final int MIN_LIMIT = 1;
+    private static final int MAX_LIMIT = 2000;
+
+    /**
+     * 过载响应或超时时的减小比例
+     */
+    private static final double DROP_BACKOFF_RATIO = 0.5;
+
+    /**
+     * 延迟上升时的减小比例
+     */
+    private static final double LATENCY_BACKOFF_RATIO = 0.9;
+
+    /**
+     * 延迟超过最小延迟的这个倍数时认为服务端开始排队
+     */
+    private static final int LATENCY_TOLERANCE = 2;
+
+    /**
+     * 低于这个延迟时不因延迟减小上限，避免本机调用的抖动
+     */
+    private static final long LATENCY_FLOOR_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * 每隔这么多个样本重新统计最小延迟，跟上网络路径的变化
+     */
+    private static final int MIN_RTT_WINDOW = 1000;
+
+    private final InetSocketAddress address;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    private volatile double limit = INITIAL_LIMIT;
+
+    private long minRttNanos = Long.MAX_VALUE;
+
+    private int samples;
+
+    private long lastDecreaseNanos;
+
+    private ConcurrencyLimiter(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    public static ConcurrencyLimiter get(InetSocketAddress address) {
+        return LIMITERS.computeIfAbsent(address, ConcurrencyLimiter::new);
+    }
+
+    /**
+     * 服务端从服务发现中下线时删除它的并发上限，在途请求结束时仍归还到旧的对象上
+     * 同一地址重新上线后从初始上限开始
+     * @param address 服务端地址
+     */
+    public static void remove(InetSocketAddress address) {
+        LIMITERS.remove(address);
+    }
+
+    /**
+     * 申请一个并发名额
+     * @return 已达上限时返回false
+     */
+    public boolean tryAcquire() {
+        for (;;) {
+            int current = inflight.get();
+            if (current >= (int) limit) {
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 请求正常返回
+     * @param rttNanos 请求耗时
+     */
+    public synchronized void onSuccess(long rttNanos) {
+        int current = inflight.getAndDecrement();
+        if (++samples >= MIN_RTT_WINDOW) {
+            samples = 0;
+            minRttNanos = rttNanos;
+        } else if (rttNanos < minRttNanos) {
+            minRttNanos = rttNanos;
+        }
+        // 上限没有被用到一半时, 延迟变化与本客户端的并发无关, 既不增大也不减小
+        if (current * 2 < limit) {
+            return;
+        }
+        if (rttNanos > LATENCY_FLOOR_NANOS && rttNanos > minRttNanos * LATENCY_TOLERANCE) {
+            decrease(LATENCY_BACKOFF_RATIO, rttNanos);
+        } else {
+            limit = Math.min(MAX_LIMIT, limit + 1.0 / limit);
+        }
+    }
+
+    /**
+     * 服务端过载或者请求超时
+     * @param rttNanos 请求耗时
+     */
+    public synchronized void onDropped(long rttNanos) {
+        inflight.decrementAndGet();
+        decrease(DROP_BACKOFF_RATIO, rttNanos);
+    }
+
+    /**
+     * 与服务端负载无关的失败, 如连接断开, 只归还名额
+     */
+    public void onIgnored() {
+        inflight.decrementAndGet();
+    }
+
+    /**
+     * 一个延迟周期内最多减小一次, 同一批排队的请求不会让上限连续塌缩
+     */
+    private void decrease(double ratio, long rttNanos) {
+        long now = System.nanoTime();
+        long interval = Math.max(minRttNanos == Long.MAX_VALUE ? 0 : minRttNanos, rttNanos);
+        if (now - lastDecreaseNanos < interval) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        double previous = limit;
+        limit = Math.max(MIN_LIMIT, limit * ratio);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("到 {} 的并发上限由 {} 调整为 {}", address, (int) previous, (int) limit);
+        }
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+}
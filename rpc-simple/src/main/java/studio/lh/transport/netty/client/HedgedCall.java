@@ -0,0 +1,349 @@
+package studio.lh.transport.netty.client;
+
+import io.netty.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import studio.lh.annotation.Idempotent;
+import studio.lh.dto.RpcRequest;
+import studio.lh.dto.RpcResponse;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.enumeration.RpcResponseCode;
+import studio.lh.exception.RpcException;
+import studio.lh.factory.SingletonFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/22 11:10
+ * @description : 幂等方法的一次调用，可能发出多个请求
+ * 首个请求超过对冲等待时间仍未响应时，向另一个实例发出对冲请求；请求因连接失败、过载、熔断等原因失败时重试。
+ * 每个请求使用独立的请求号，最先返回的正常响应作为调用结果，其他还在等待的请求从等待表中移除并取消。
+ * 所有请求共用调用的超时时间，对冲和重试都要从服务的重试预算中取令牌
+ */
+final class HedgedCall {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HedgedCall.class);
+
+    /**
+     * 这些失败与请求内容无关，换一个实例或稍后再发可能成功
+     */
+    private static final Set<RpcErrorMessageEnum> RETRYABLE_ERRORS = EnumSet.of(
+            RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE,
+            RpcErrorMessageEnum.CONNECTION_CLOSED,
+            RpcErrorMessageEnum.SERVICE_OVERLOAD,
+            RpcErrorMessageEnum.CONCURRENCY_LIMIT_EXCEEDED,
+            RpcErrorMessageEnum.CIRCUIT_BREAKER_OPEN,
+            RpcErrorMessageEnum.REQUEST_TIMEOUT);
+
+    private final NettyRpcClient client;
+
+    private final UnprocessedRequests unprocessedRequests;
+
+    /**
+     * 对冲和重试请求在这个线程池上发出，选实例和建立连接可能阻塞，不能占用IO线程和时间轮线程
+     */
+    private final Executor executor;
+
+    private final RpcRequest rpcRequest;
+
+    private final Idempotent idempotent;
+
+    private final long timeoutMillis;
+
+    private final long deadlineNanos;
+
+    private final RetryBudget retryBudget;
+
+    private final LatencyTracker latencyTracker;
+
+    private final CompletableFuture<RpcResponse> resultFuture = new CompletableFuture<>();
+
+    /**
+     * 已经发送过的实例，对冲请求要避开
+     */
+    private final Set<InetSocketAddress> tried = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 以下字段由this保护
+     */
+    private final List<Attempt> attempts = new ArrayList<>(2);
+
+    /**
+     * 已发出的请求数
+     */
+    private int started;
+
+    /**
+     * 还在等待响应的请求数，加上已决定但还没有发出的重试
+     */
+    private int pending;
+
+    private RpcResponse lastResponse;
+
+    private Throwable lastFailure;
+
+    private Timeout hedgeTimeout;
+
+    /**
+     * @param rpcRequest 调用的请求, 已分配请求号, 调用结果的请求号与它一致
+     */
+    HedgedCall(NettyRpcClient client, Executor executor, RpcRequest rpcRequest, long timeoutMillis) {
+        this.client = client;
+        this.unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
+        this.executor = executor;
+        this.rpcRequest = rpcRequest;
+        this.idempotent = rpcRequest.getIdempotent();
+        this.timeoutMillis = timeoutMillis;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.retryBudget = RetryBudget.get(rpcRequest.getInterfaceName());
+        this.latencyTracker = LatencyTracker.get(rpcRequest.getInterfaceName() + "#" + rpcRequest.getMethodName());
+    }
+
+    CompletableFuture<RpcResponse> start() {
+        retryBudget.deposit();
+        resultFuture.whenComplete((rpcResponse, throwable) -> cancelOthers());
+        // 首个请求在调用线程上发出, 与非幂等方法一致
+        if (!attempt(false)) {
+            finishIfIdle();
+            return resultFuture;
+        }
+        long hedgeDelayMillis = hedgeDelayMillis();
+        if (hedgeDelayMillis > 0 && hedgeDelayMillis < timeoutMillis) {
+            synchronized (this) {
+                if (!resultFuture.isDone()) {
+                    hedgeTimeout = UnprocessedRequests.schedule(timeout -> execute(this::hedge, null), hedgeDelayMillis);
+                }
+            }
+        }
+        return resultFuture;
+    }
+
+    /**
+     * 注解指定了等待时间时使用注解的值, 否则使用该方法最近调用延迟的p95, 还没有足够的样本时不对冲
+     */
+    private long hedgeDelayMillis() {
+        if (idempotent.hedgeDelayMillis() >= 0) {
+            return idempotent.hedgeDelayMillis();
+        }
+        long p95Nanos = latencyTracker.getP95Nanos();
+        return p95Nanos < 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(p95Nanos));
+    }
+
+    private void hedge() {
+        synchronized (this) {
+            if (resultFuture.isDone() || started >= idempotent.maxAttempts()) {
+                return;
+            }
+        }
+        if (!retryBudget.tryWithdraw()) {
+            LOGGER.debug("服务 {} 的重试预算已用完, 不发出对冲请求", rpcRequest.getInterfaceName());
+            return;
+        }
+        if (!attempt(true)) {
+            retryBudget.refund();
+        }
+    }
+
+    private void retry() {
+        if (retryBudget.tryWithdraw()) {
+            if (!attempt(false)) {
+                retryBudget.refund();
+            }
+        } else {
+            LOGGER.debug("服务 {} 的重试预算已用完, 不再重试", rpcRequest.getInterfaceName());
+        }
+        // 归还决定重试时保留的名额
+        synchronized (this) {
+            pending--;
+        }
+        finishIfIdle();
+    }
+
+    /**
+     * 发出一个请求
+     * @param hedge 是否是对冲请求, 对冲请求只发往还没有发送过的实例
+     * @return 是否发出了请求
+     */
+    private boolean attempt(boolean hedge) {
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if (remainingMillis <= 0) {
+            return false;
+        }
+        synchronized (this) {
+            if (resultFuture.isDone() || started >= idempotent.maxAttempts()) {
+                return false;
+            }
+            started++;
+            pending++;
+        }
+        RpcRequest attemptRequest = RpcRequest.builder()
+                .interfaceName(rpcRequest.getInterfaceName())
+                .methodName(rpcRequest.getMethodName())
+                .parameters(rpcRequest.getParameters())
+                .paramTypes(rpcRequest.getParamTypes())
+                .hashKey(rpcRequest.getHashKey())
+                .idempotent(idempotent)
+                .build();
+        CompletableFuture<RpcResponse> future = client.send(attemptRequest, remainingMillis, tried, hedge);
+        if (future == null) {
+            synchronized (this) {
+                started--;
+                pending--;
+            }
+            return false;
+        }
+        Attempt attempt = new Attempt(attemptRequest.getRequestId(), future);
+        boolean cancel;
+        synchronized (this) {
+            attempts.add(attempt);
+            cancel = resultFuture.isDone();
+        }
+        if (cancel) {
+            // 发送期间其他请求已经返回了结果
+            attempt.cancel(unprocessedRequests);
+        }
+        long startNanos = System.nanoTime();
+        future.whenComplete((rpcResponse, throwable) -> onAttemptComplete(rpcResponse, throwable, System.nanoTime() - startNanos));
+        return true;
+    }
+
+    private void onAttemptComplete(RpcResponse rpcResponse, Throwable throwable, long latencyNanos) {
+        if (throwable instanceof CancellationException) {
+            return;
+        }
+        if (throwable == null && !isOverload(rpcResponse)) {
+            // 业务异常的响应也是服务端的正常响应, 不重试
+            latencyTracker.record(latencyNanos);
+            complete(rpcResponse);
+            return;
+        }
+        boolean retry;
+        synchronized (this) {
+            lastResponse = rpcResponse;
+            lastFailure = throwable;
+            retry = !resultFuture.isDone() && started < idempotent.maxAttempts() && isRetryable(throwable)
+                    && deadlineNanos - System.nanoTime() > 0;
+            if (!retry) {
+                pending--;
+            }
+        }
+        if (!retry) {
+            finishIfIdle();
+            return;
+        }
+        execute(this::retry, () -> {
+            synchronized (this) {
+                pending--;
+            }
+            finishIfIdle();
+        });
+    }
+
+    /**
+     * 所有请求都失败且不再重试时, 以最后一次的失败结束调用
+     */
+    private void finishIfIdle() {
+        RpcResponse rpcResponse;
+        Throwable failure;
+        synchronized (this) {
+            if (pending > 0 || resultFuture.isDone()) {
+                return;
+            }
+            rpcResponse = lastResponse;
+            failure = lastFailure;
+        }
+        if (failure != null) {
+            resultFuture.completeExceptionally(failure);
+        } else if (rpcResponse != null) {
+            complete(rpcResponse);
+        } else {
+            resultFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT,
+                    rpcRequest.getInterfaceName() + "#" + rpcRequest.getMethodName()));
+        }
+    }
+
+    private void complete(RpcResponse rpcResponse) {
+        // 响应中是实际发出的请求的请求号, 换成调用的请求号才能通过校验
+        rpcResponse.setRequestId(rpcRequest.getRequestId());
+        resultFuture.complete(rpcResponse);
+    }
+
+    /**
+     * 调用结束后取消对冲定时任务和还在等待的请求
+     */
+    private void cancelOthers() {
+        List<Attempt> outstanding;
+        synchronized (this) {
+            if (hedgeTimeout != null) {
+                hedgeTimeout.cancel();
+            }
+            outstanding = new ArrayList<>(attempts);
+        }
+        for (Attempt attempt : outstanding) {
+            attempt.cancel(unprocessedRequests);
+        }
+    }
+
+    /**
+     * @param onRejected 线程池已满时执行, 为null时放弃任务
+     */
+    private void execute(Runnable task, Runnable onRejected) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("对冲/重试线程池已满, 放弃 {} 的对冲或重试", rpcRequest.getInterfaceName());
+            if (onRejected != null) {
+                onRejected.run();
+            }
+        }
+    }
+
+    private static boolean isOverload(RpcResponse rpcResponse) {
+        return rpcResponse != null && rpcResponse.getCode() != null && rpcResponse.getCode() == RpcResponseCode.OVERLOAD.getCode();
+    }
+
+    /**
+     * 过载响应和发送失败可以重试, 其他的RpcException如序列化失败、找不到服务不能重试
+     */
+    private static boolean isRetryable(Throwable throwable) {
+        if (throwable == null) {
+            return true;
+        }
+        if (throwable instanceof RpcException) {
+            RpcErrorMessageEnum errorMessageEnum = ((RpcException) throwable).getErrorMessageEnum();
+            return errorMessageEnum != null && RETRYABLE_ERRORS.contains(errorMessageEnum);
+        }
+        return !(throwable instanceof RuntimeException);
+    }
+
+    private static final class Attempt {
+        private final long requestId;
+        private final CompletableFuture<RpcResponse> future;
+
+        Attempt(long requestId, CompletableFuture<RpcResponse> future) {
+            this.requestId = requestId;
+            this.future = future;
+        }
+
+        /**
+         * 还在等待时从等待表中移除并取消, 迟到的响应会被丢弃
+         */
+        void cancel(UnprocessedRequests unprocessedRequests) {
+            if (!future.isDone()) {
+                unprocessedRequests.remove(requestId);
+                future.cancel(false);
+            }
+        }
+    }
+}
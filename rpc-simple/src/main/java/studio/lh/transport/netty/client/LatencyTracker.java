@@ -0,0 +1,67 @@
+package studio.lh.transport.netty.client;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/22 10:55
+ * @description : 记录一个方法最近若干次调用的延迟，用于计算对冲请求的等待时间
+ * 样本放在环形数组里，每记录一定数量的样本重新排序计算一次分位数，读分位数不需要加锁
+ */
+public final class LatencyTracker {
+
+    private static final Map<String, LatencyTracker> TRACKERS = new ConcurrentHashMap<>();
+
+    private static final int CAPACITY = 512;
+
+    /**
+     * 每记录这么多个样本重新计算一次分位数
+     */
+    private static final int RECOMPUTE_INTERVAL = 64;
+
+    /**
+     * 样本数少于这个值时分位数不可靠，不返回
+     */
+    private static final int MIN_SAMPLES = 100;
+
+    private final long[] samples = new long[CAPACITY];
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    private volatile long p95Nanos = -1;
+
+    private LatencyTracker() {
+    }
+
+    /**
+     * @param key 接口名#方法名
+     */
+    public static LatencyTracker get(String key) {
+        return TRACKERS.computeIfAbsent(key, k -> new LatencyTracker());
+    }
+
+    /**
+     * 记录一次成功调用的延迟
+     * 并发写同一个槽位时只会丢掉一个样本，不影响统计
+     */
+    public void record(long latencyNanos) {
+        int n = count.incrementAndGet() & Integer.MAX_VALUE;
+        samples[(n - 1) & (CAPACITY - 1)] = latencyNanos;
+        if (n >= MIN_SAMPLES && n % RECOMPUTE_INTERVAL == 0) {
+            long[] copy = Arrays.copyOf(samples, Math.min(n, CAPACITY));
+            Arrays.sort(copy);
+            p95Nanos = copy[(int) (copy.length * 0.95)];
+        }
+    }
+
+    /**
+     * @return 最近调用延迟的p95，样本不足时返回-1
+     */
+    public long getP95Nanos() {
+        return p95Nanos;
+    }
+}
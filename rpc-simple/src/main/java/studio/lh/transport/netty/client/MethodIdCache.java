@@ -0,0 +1,86 @@
+package studio.lh.transport.netty.client;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import studio.lh.dto.RpcRequest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/14 20:31
+ * @description : 每条连接上已协商的方法编号
+ * 方法编号由服务端在注册服务时分配，只在该服务端进程内有效，所以缓存挂在连接上，连接重建后重新协商
+ * 第一次调用某方法时发送完整请求，服务端在响应中带回编号，之后同一连接上的请求只携带编号和参数值
+ */
+public final class MethodIdCache {
+
+    private static final AttributeKey<Map<MethodKey, Integer>> METHOD_IDS = AttributeKey.valueOf("methodIds");
+
+    private MethodIdCache() {
+    }
+
+    /**
+     * @return 已协商的方法编号，未协商时返回0
+     */
+    public static int get(Channel channel, RpcRequest rpcRequest) {
+        Map<MethodKey, Integer> methodIds = channel.attr(METHOD_IDS).get();
+        if (methodIds == null) {
+            return 0;
+        }
+        Integer methodId = methodIds.get(new MethodKey(rpcRequest));
+        return methodId == null ? 0 : methodId;
+    }
+
+    public static void put(Channel channel, RpcRequest rpcRequest, int methodId) {
+        Map<MethodKey, Integer> methodIds = channel.attr(METHOD_IDS).get();
+        if (methodIds == null) {
+            Map<MethodKey, Integer> created = new ConcurrentHashMap<>();
+            methodIds = channel.attr(METHOD_IDS).setIfAbsent(created);
+            if (methodIds == null) {
+                methodIds = created;
+            }
+        }
+        methodIds.put(new MethodKey(rpcRequest), methodId);
+    }
+
+    /**
+     * 接口名 + 方法名 + 参数类型
+     */
+    private static final class MethodKey {
+        private final String interfaceName;
+        private final String methodName;
+        private final Class<?>[] paramTypes;
+        private final int hash;
+
+        private MethodKey(RpcRequest rpcRequest) {
+            this.interfaceName = rpcRequest.getInterfaceName();
+            this.methodName = rpcRequest.getMethodName();
+            this.paramTypes = rpcRequest.getParamTypes();
+            this.hash = 31 * (31 * interfaceName.hashCode() + methodName.hashCode()) + Arrays.hashCode(paramTypes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MethodKey)) {
+                return false;
+            }
+            MethodKey that = (MethodKey) o;
+            return hash == that.hash
+                    && interfaceName.equals(that.interfaceName)
+                    && methodName.equals(that.methodName)
+                    && Arrays.equals(paramTypes, that.paramTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -1,13 +1,18 @@
 package studio.lh.transport.netty.client;
 
 
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.AttributeKey;
 import io.netty.util.ReferenceCountUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import studio.lh.dto.RpcMessage;
 import studio.lh.dto.RpcResponse;
+import studio.lh.enumeration.RpcMessageTypeEnum;
 import studio.lh.factory.SingletonFactory;
 
 /**
@@ -19,21 +24,78 @@ import studio.lh.factory.SingletonFactory;
 public class NettyClientHandler extends ChannelInboundHandlerAdapter {
     public static final Logger LOGGER = LoggerFactory.getLogger(NettyClientHandler.class);
 
+    /**
+     * 连接上这么久没有读到数据时发送一次心跳，单位秒，可以通过 -Drpc.client.heartbeatSeconds 配置，0表示不发送心跳
+     */
+    static final int HEARTBEAT_SECONDS = Integer.getInteger("rpc.client.heartbeatSeconds", 30);
+
+    /**
+     * 连续这么多次心跳之后仍然没有读到任何数据时认为连接已断开，可以通过 -Drpc.client.maxMissedHeartbeats 配置
+     */
+    private static final int MAX_MISSED_HEARTBEATS = Math.max(1, Integer.getInteger("rpc.client.maxMissedHeartbeats", 3));
+
     private final UnprocessedRequests unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
 
+    /**
+     * 上一次读到数据之后发出的心跳次数，每条连接一个handler实例，只在IO线程上访问
+     */
+    private int missedHeartbeats;
+
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        // 读到任何数据都说明连接还活着
+        missedHeartbeats = 0;
         try {
-            RpcResponse rpcResponse = (RpcResponse) msg;
-            // 读到响应后，更改请求的状态
-            unprocessedRequests.complete(rpcResponse);
-            ctx.channel().close();
+            RpcMessage rpcMessage = (RpcMessage) msg;
+            if (rpcMessage.getDecodeError() != null) {
+                // 只有这个响应的消息体无法解析, 连接上的其他请求照常等待
+                unprocessedRequests.fail(rpcMessage.getRequestId(), rpcMessage.getDecodeError());
+            } else if (rpcMessage.getMessageType() == RpcMessageTypeEnum.RESPONSE.getCode()) {
+                RpcResponse rpcResponse = (RpcResponse) rpcMessage.getData();
+                // 读到响应后，更改请求的状态
+                // 按帧头中的请求号找到等待中的请求
+                unprocessedRequests.complete(rpcMessage.getRequestId(), rpcResponse);
+            } else if (rpcMessage.getMessageType() == RpcMessageTypeEnum.HEARTBEAT_PONG.getCode()) {
+                LOGGER.debug("收到心跳响应: {}", ctx.channel().remoteAddress());
+            }
         } finally {
             // 释放引用
             ReferenceCountUtil.release(msg);
         }
     }
 
+    /**
+     * 读空闲时发送心跳, 连续多次心跳都没有收到任何数据时关闭连接
+     * 连接关闭后从ChannelProvider的缓存中移除, 等待中的请求立即失败, 下一次调用重新建立连接
+     * 只看读空闲, 只发请求收不到响应的半开连接也能被发现
+     */
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (!(evt instanceof IdleStateEvent) || ((IdleStateEvent) evt).state() != IdleState.READER_IDLE) {
+            super.userEventTriggered(ctx, evt);
+            return;
+        }
+        if (missedHeartbeats >= MAX_MISSED_HEARTBEATS) {
+            LOGGER.warn("连续 {} 次心跳没有收到服务端 {} 的数据, 关闭连接", missedHeartbeats, ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+        missedHeartbeats++;
+        ctx.writeAndFlush(RpcMessage.builder()
+                .messageType(RpcMessageTypeEnum.HEARTBEAT_PING.getCode())
+                .build())
+                .addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+    }
+
+    /**
+     * 连接断开，让还在这条连接上等待响应的请求立即失败
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        unprocessedRequests.failAll(ctx.channel());
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         LOGGER.error("rpc客户端捕捉到异常");
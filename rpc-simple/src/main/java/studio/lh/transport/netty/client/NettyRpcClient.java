@@ -1,15 +1,20 @@
 package studio.lh.transport.netty.client;
 
-import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import studio.lh.annotation.Idempotent;
+import studio.lh.breaker.CircuitBreaker;
+import studio.lh.dto.RpcMessage;
 import studio.lh.dto.RpcRequest;
 import studio.lh.dto.RpcResponse;
 import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.enumeration.RpcMessageTypeEnum;
+import studio.lh.enumeration.RpcResponseCode;
 import studio.lh.exception.RpcException;
+import studio.lh.factory.SingletonFactory;
+import studio.lh.factory.ThreadPoolFactory;
 import studio.lh.loadbalancer.LoadBalancer;
 import studio.lh.loadbalancer.RoundRobinLoadBalancer;
 import studio.lh.registry.NacosServiceDiscovery;
@@ -18,7 +23,16 @@ import studio.lh.serialize.Serializer;
 import studio.lh.transport.RpcClient;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 /**
  * @author :MayRain
@@ -31,92 +45,361 @@ public class NettyRpcClient implements RpcClient {
 
     private final Serializer serializer;
 
-    private static final EventLoopGroup GROUP;
+    private static final int DEFAULT_SERIALIZER_CODE = 0;
 
-    private static final Bootstrap BOOTSTRAP;
+    /**
+     * 未指定超时时间的调用使用的默认超时，单位毫秒
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000L;
 
-    private static final int DEFAULT_SERIALIZER_CODE = 0;
+    /**
+     * 创建服务代理和实例列表变化时是否在后台预先建立连接, 可以通过 -Drpc.client.eagerConnect=true 开启
+     */
+    private static final boolean EAGER_CONNECT = Boolean.getBoolean("rpc.client.eagerConnect");
+
+    /**
+     * 每个服务最多预连接的实例数, 0表示全部, 通过 -Drpc.client.warmupConnections 配置
+     * 只连接一部分时每个客户端随机选择, 不同客户端的预连接分散在各个实例上
+     */
+    private static final int WARMUP_CONNECTIONS = Integer.getInteger("rpc.client.warmupConnections", 0);
+
+    /**
+     * 预连接后是否发送一次心跳, 通过 -Drpc.client.warmupPing=false 关闭
+     */
+    private static final boolean WARMUP_PING = Boolean.parseBoolean(System.getProperty("rpc.client.warmupPing", "true"));
+
+    /**
+     * 对冲和重试时为避开已发送过的实例最多重新选择的次数
+     */
+    private static final int RESELECT_TIMES = 3;
+
+    /**
+     * 已经预连接过的服务, 每个服务只注册一次监听器
+     */
+    private final Set<String> warmedServices = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 调用过的服务最近一次的实例地址, 实例下线时据此清理按实例保存的熔断器、并发上限和负载均衡状态
+     * 每个服务只注册一次监听器
+     */
+    private final Map<String, Set<InetSocketAddress>> knownInstances = new ConcurrentHashMap<>();
+
+    /**
+     * 对冲和重试请求在这个线程池上发出, 创建客户端时取一次, 每次调用不再查表
+     */
+    private final Executor retryExecutor = ThreadPoolFactory.createDefaultThreadPool("rpc-client-retry", true);
 
     /**
      * 存放客户端尚未得到响应的请求
      */
     private final UnprocessedRequests unprocessedRequests;
     /**
-     * 远程Nacos注册中心
+     * 服务发现, 默认使用Nacos注册中心
      */
     private final ServiceDiscovery serviceDiscovery;
 
-    static {
-        GROUP = new NioEventLoopGroup();
-        BOOTSTRAP = new Bootstrap();
-        BOOTSTRAP.group(GROUP)
-                .channel(NioSocketChannel.class)
-                .option(ChannelOption.SO_KEEPALIVE, true);
-    }
-
     // 默认使用Kryo序列化,轮询负载均衡
     public NettyRpcClient() {
         this(DEFAULT_SERIALIZER_CODE, new RoundRobinLoadBalancer());
     }
 
     public NettyRpcClient(int code, LoadBalancer loadBalancer) {
-        serviceDiscovery = new NacosServiceDiscovery(loadBalancer);
+        this(code, new NacosServiceDiscovery(loadBalancer));
+    }
+
+    /**
+     * @param code 序列化器编号
+     * @param serviceDiscovery 服务发现, 如 {@link studio.lh.registry.DirectServiceDiscovery} 可以不经过注册中心直连服务端
+     */
+    public NettyRpcClient(int code, ServiceDiscovery serviceDiscovery) {
+        this.serviceDiscovery = serviceDiscovery;
         serializer = Serializer.getSerializer(code);
-        unprocessedRequests = new UnprocessedRequests();
+        // 与NettyClientHandler共用同一张表
+        unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
     }
 
     /**
-     * 发送消息, 返回包装RpcResponse的CompletableFuture
+     * 开启预连接时, 在后台连接服务的实例, 并在实例列表变化后连接新的实例
+     * 第一次查询注册中心可能较慢, 所以整个过程放在后台线程中
+     * @param serviceName 服务名
+     */
+    @Override
+    public void warmUp(String serviceName) {
+        if (!EAGER_CONNECT || !warmedServices.add(serviceName)) {
+            return;
+        }
+        ThreadPoolFactory.createDefaultThreadPool("rpc-client-warmup", true).execute(() -> {
+            try {
+                // 序列化器第一次使用时要加载类、注册类型，先走一遍
+                serializer.deserialize(serializer.serialize(RpcRequest.builder().interfaceName(serviceName).build()), RpcRequest.class);
+                serviceDiscovery.addChangeListener(serviceName, addresses -> ChannelProvider.preconnect(pickWarmupAddresses(addresses), WARMUP_PING));
+                ChannelProvider.preconnect(pickWarmupAddresses(serviceDiscovery.lookupAll(serviceName)), WARMUP_PING);
+            } catch (RpcException e) {
+                LOGGER.warn("服务 {} 预连接失败, 将在第一次调用时连接: {}", serviceName, e.getMessage());
+            }
+        });
+    }
+
+    private static List<InetSocketAddress> pickWarmupAddresses(List<InetSocketAddress> addresses) {
+        if (WARMUP_CONNECTIONS <= 0 || addresses.size() <= WARMUP_CONNECTIONS) {
+            return addresses;
+        }
+        List<InetSocketAddress> shuffled = new ArrayList<>(addresses);
+        Collections.shuffle(shuffled);
+        return shuffled.subList(0, WARMUP_CONNECTIONS);
+    }
+
+    /**
+     * 发送消息, 使用默认超时时间
      * @param rpcRequest 消息体
      * @return 服务端返回的数据
      */
     @Override
     public CompletableFuture<RpcResponse> sendRpcRequest(RpcRequest rpcRequest) {
+        return sendRpcRequest(rpcRequest, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * 发送消息, 返回包装RpcResponse的CompletableFuture
+     * 超时未响应时future以超时异常结束, 不会一直占着等待表
+     * @param rpcRequest 消息体
+     * @param timeoutMillis 超时时间, 不大于0时使用默认超时
+     * @return 服务端返回的数据
+     */
+    @Override
+    public CompletableFuture<RpcResponse> sendRpcRequest(RpcRequest rpcRequest, long timeoutMillis) {
         if (serializer == null) {
             LOGGER.error("未设置序列化器");
             throw new RpcException(RpcErrorMessageEnum.SERIALIZER_NOT_FOUND);
         }
+        long timeout = timeoutMillis > 0 ? timeoutMillis : DEFAULT_TIMEOUT_MILLIS;
+        Idempotent idempotent = rpcRequest.getIdempotent();
+        if (idempotent != null && idempotent.maxAttempts() > 1) {
+            // 幂等方法可以对冲和重试, 每个请求另外分配请求号
+            rpcRequest.setRequestId(unprocessedRequests.nextRequestId());
+            return new HedgedCall(this, retryExecutor, rpcRequest, timeout).start();
+        }
+        return send(rpcRequest, timeout, null, false);
+    }
+
+    /**
+     * 向选出的一个实例发送一次请求
+     * @param rpcRequest 消息体, 发送前分配新的请求号
+     * @param timeoutMillis 超时时间
+     * @param tried 同一次调用已经发送过的实例, 尽量避开, 选中的实例会加入其中; 为null时不记录
+     * @param requireNew 只发往tried之外的实例
+     * @return 服务端返回的数据, requireNew为true且选不出其他实例时返回null
+     */
+    CompletableFuture<RpcResponse> send(RpcRequest rpcRequest, long timeoutMillis, Set<InetSocketAddress> tried, boolean requireNew) {
         CompletableFuture<RpcResponse> resultFuture = new CompletableFuture<>();
+        // 数字请求号, 同时作为帧头中的请求号
+        rpcRequest.setRequestId(unprocessedRequests.nextRequestId());
         try {
             // 从注册中心获取服务实例地址
-            InetSocketAddress inetSocketAddress = serviceDiscovery.lookupService(rpcRequest.getInterfaceName());
-            // 获取连接到服务实例的channel
-            Channel channel = null;
-            try {
-                channel = ChannelProvider.get(inetSocketAddress, serializer);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            if (!channel.isActive()) {
-                GROUP.shutdownGracefully();
+            InetSocketAddress selected = select(rpcRequest, tried);
+            if (requireNew && tried.contains(selected)) {
                 return null;
+            }
+            watchInstances(rpcRequest.getInterfaceName());
+            CircuitBreaker selectedBreaker = CircuitBreaker.get(rpcRequest.getInterfaceName(), selected);
+            if (!selectedBreaker.tryAcquire()) {
+                // 选中的实例刚好进入半开状态且试探名额已被其他请求占用, 重新选一次, 这时它已被摘除
+                // 同样避开已经发送过的实例, 对冲请求不能落到第一次请求所在的实例上
+                selected = select(rpcRequest, tried);
+                if (requireNew && tried.contains(selected)) {
+                    return null;
+                }
+                selectedBreaker = CircuitBreaker.get(rpcRequest.getInterfaceName(), selected);
+                if (!selectedBreaker.tryAcquire()) {
+                    resultFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.CIRCUIT_BREAKER_OPEN, String.valueOf(selected)));
+                    return resultFuture;
+                }
+            }
+            InetSocketAddress inetSocketAddress = selected;
+            CircuitBreaker breaker = selectedBreaker;
+            if (tried != null) {
+                tried.add(inetSocketAddress);
+            }
+            // 到该服务端的并发已达自适应上限时直接失败
+            ConcurrencyLimiter limiter = ConcurrencyLimiter.get(inetSocketAddress);
+            if (!limiter.tryAcquire()) {
+                breaker.onIgnored();
+                resultFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.CONCURRENCY_LIMIT_EXCEEDED,
+                        inetSocketAddress + ", limit:" + limiter.getLimit()));
+                return resultFuture;
+            }
+            LoadBalancer loadBalancer = serviceDiscovery.getLoadBalancer();
+            if (loadBalancer != null) {
+                loadBalancer.onStart(inetSocketAddress);
+            }
+            long startNanos = System.nanoTime();
+            resultFuture.whenComplete((rpcResponse, throwable) -> onComplete(inetSocketAddress, limiter, loadBalancer, breaker,
+                    rpcResponse, throwable, System.nanoTime() - startNanos));
+            // 获取连接到服务实例的长连接, 连接断开时会自动重连; 第一次连接时等连接建立后再发送, 不阻塞调用线程
+            ChannelProvider.get(inetSocketAddress).whenComplete((channel, throwable) -> {
+                if (throwable != null) {
+                    LOGGER.error("连接服务端 {} 时有错误发生", inetSocketAddress, throwable);
+                    resultFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE, String.valueOf(inetSocketAddress)));
+                } else if (!resultFuture.isDone()) {
+                    // 等待连接期间请求可能已被取消, 如对冲中落败
+                    write(channel, rpcRequest, resultFuture, timeoutMillis);
+                }
+            });
+        } catch (RuntimeException e) {
+            // 清除请求
+            unprocessedRequests.remove(rpcRequest.getRequestId());
+            LOGGER.error(e.getMessage(), e);
+            resultFuture.completeExceptionally(e);
+        }
+        // 返回future
+        return resultFuture;
+    }
 
+    /**
+     * 在已建立的连接上发出请求
+     */
+    private void write(Channel channel, RpcRequest rpcRequest, CompletableFuture<RpcResponse> resultFuture, long timeoutMillis) {
+        try {
+            // 已协商过方法编号时只发送编号和参数值, 否则发送完整请求并在响应中取回编号
+            RpcRequest wireRequest = rpcRequest;
+            int methodId = MethodIdCache.get(channel, rpcRequest);
+            if (methodId != 0) {
+                wireRequest = RpcRequest.builder()
+                        .requestId(rpcRequest.getRequestId())
+                        .methodId(methodId)
+                        .parameters(rpcRequest.getParameters())
+                        .build();
+            } else {
+                resultFuture.thenAccept(rpcResponse -> {
+                    if (rpcResponse.getMethodId() != 0) {
+                        MethodIdCache.put(channel, rpcRequest, rpcResponse.getMethodId());
+                    }
+                });
             }
             // 记录还未被响应的请求
-            unprocessedRequests.put(rpcRequest.getRequestId(), resultFuture);
+            unprocessedRequests.put(rpcRequest.getRequestId(), resultFuture, channel, timeoutMillis);
             // 给writeAndFlush方法返回的ChannelFuture对象添加监听器
-            channel.writeAndFlush(rpcRequest).addListener((ChannelFutureListener) future1 -> {
+            RpcMessage rpcMessage = RpcMessage.builder()
+                    .messageType(RpcMessageTypeEnum.REQUEST.getCode())
+                    .codec((byte) serializer.getCode())
+                    .requestId(rpcRequest.getRequestId())
+                    .data(wireRequest)
+                    .build();
+            channel.writeAndFlush(rpcMessage).addListener((ChannelFutureListener) future1 -> {
                 if (future1.isSuccess()) {
                     LOGGER.info("客户端发送消息: {}", rpcRequest.toString());
                 } else {
+                    unprocessedRequests.remove(rpcRequest.getRequestId());
                     future1.channel().close();
                     resultFuture.completeExceptionally(future1.cause());
                     LOGGER.error("发送消息时有错误发生: ", future1.cause());
                 }
             });
         } catch (RuntimeException e) {
-            // 清除请求
             unprocessedRequests.remove(rpcRequest.getRequestId());
             LOGGER.error(e.getMessage(), e);
-            /**
-             * 当你捕获InterruptException并吞下它时，你基本上阻止任何更高级别的方法/线程组注意到中断。
-             * 这可能会导致问题。
-             * 通过调用Thread.currentThread().interrupt()
-             * 设置线程的中断标志，因此更高级别的中断处理程序会注意到它并且可以正确处理它。
-             */
-            Thread.currentThread().interrupt();
+            resultFuture.completeExceptionally(e);
         }
-        // 返回future
-        return resultFuture;
+    }
+
+    /**
+     * 第一次调用服务时监听它的实例列表变化, 先注册监听器再记录当前实例, 中间发生的变化不会漏掉
+     */
+    private void watchInstances(String serviceName) {
+        if (knownInstances.containsKey(serviceName)) {
+            return;
+        }
+        synchronized (knownInstances) {
+            if (knownInstances.containsKey(serviceName)) {
+                return;
+            }
+            serviceDiscovery.addChangeListener(serviceName, addresses -> onInstancesChanged(serviceName, addresses));
+            Set<InetSocketAddress> instances;
+            try {
+                instances = new HashSet<>(serviceDiscovery.lookupAll(serviceName));
+            } catch (RpcException e) {
+                // 刚选出过实例, 一般不会失败; 失败时从下一次变化开始跟踪
+                instances = new HashSet<>();
+            }
+            knownInstances.putIfAbsent(serviceName, instances);
+        }
+    }
+
+    /**
+     * 实例下线时删除它在该服务下的熔断器; 地址不再属于任何调用过的服务时, 再删除到它的并发上限和负载均衡统计
+     * @param serviceName 服务名
+     * @param addresses 服务当前的全部实例地址
+     */
+    void onInstancesChanged(String serviceName, List<InetSocketAddress> addresses) {
+        synchronized (knownInstances) {
+            Set<InetSocketAddress> current = new HashSet<>(addresses);
+            Set<InetSocketAddress> previous = knownInstances.put(serviceName, current);
+            if (previous == null) {
+                return;
+            }
+            LoadBalancer loadBalancer = serviceDiscovery.getLoadBalancer();
+            for (InetSocketAddress address : previous) {
+                if (current.contains(address)) {
+                    continue;
+                }
+                CircuitBreaker.remove(serviceName, address);
+                if (knownInstances.values().stream().noneMatch(instances -> instances.contains(address))) {
+                    ConcurrencyLimiter.remove(address);
+                    if (loadBalancer != null) {
+                        loadBalancer.onInstanceRemoved(address);
+                    }
+                    LOGGER.info("实例 {} 已下线, 清理它的并发上限和负载均衡统计", address);
+                }
+            }
+        }
+    }
+
+    /**
+     * 负载均衡器可能选中已经发送过的实例, 多选几次尽量换一个
+     */
+    private InetSocketAddress select(RpcRequest rpcRequest, Set<InetSocketAddress> tried) {
+        InetSocketAddress selected = serviceDiscovery.lookupService(rpcRequest);
+        if (tried != null) {
+            for (int i = 0; i < RESELECT_TIMES && tried.contains(selected); i++) {
+                selected = serviceDiscovery.lookupService(rpcRequest);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 把调用结果反馈给并发上限、负载均衡器和熔断器
+     * 并发上限: 过载响应和超时减小上限, 正常响应按延迟调整
+     * 负载均衡器和熔断器: 收到正常响应(包括业务异常)算成功, 其他都算失败
+     * 对冲中落败被取消的请求不算失败, 只把已等待的时间作为延迟反馈给负载均衡器
+     */
+    private static void onComplete(InetSocketAddress address, ConcurrencyLimiter limiter, LoadBalancer loadBalancer,
+                                   CircuitBreaker breaker, RpcResponse rpcResponse, Throwable throwable, long rttNanos) {
+        if (throwable instanceof CancellationException) {
+            limiter.onIgnored();
+            if (loadBalancer != null) {
+                loadBalancer.onComplete(address, rttNanos, true);
+            }
+            breaker.onIgnored();
+            return;
+        }
+        boolean success = false;
+        if (throwable == null) {
+            if (rpcResponse != null && rpcResponse.getCode() != null && rpcResponse.getCode() == RpcResponseCode.OVERLOAD.getCode()) {
+                limiter.onDropped(rttNanos);
+            } else {
+                limiter.onSuccess(rttNanos);
+                success = true;
+            }
+        } else if (throwable instanceof RpcException
+                && ((RpcException) throwable).getErrorMessageEnum() == RpcErrorMessageEnum.REQUEST_TIMEOUT) {
+            limiter.onDropped(rttNanos);
+        } else {
+            limiter.onIgnored();
+        }
+        if (loadBalancer != null) {
+            loadBalancer.onComplete(address, rttNanos, success);
+        }
+        breaker.onComplete(rttNanos, success);
     }
 }
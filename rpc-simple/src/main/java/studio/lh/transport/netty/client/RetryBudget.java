@@ -0,0 +1,84 @@
+package studio.lh.transport.netty.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/22 10:40
+ * @description : 一个服务的重试预算(令牌桶)
+ * 每个调用向桶中存入一部分令牌，每次对冲或重试取出一个令牌，桶空时不再重试。
+ * 这样重试和对冲请求最多占正常请求的一定比例，服务端故障时重试不会把流量成倍放大。
+ * 通过系统属性配置:
+ * -Drpc.client.retryBudgetPercent=10    每个调用存入的令牌，以百分比表示
+ * -Drpc.client.retryBudgetMax=100       桶的容量，也是启动时的令牌数，保证低流量时也能重试
+ */
+public final class RetryBudget {
+
+    private static final Map<String, RetryBudget> BUDGETS = new ConcurrentHashMap<>();
+
+    /**
+     * 令牌以这个精度存放，避免浮点数的CAS
+     */
+    private static final long SCALE = 100;
+
+    private static final long DEPOSIT = Math.max(0, Integer.getInteger("rpc.client.retryBudgetPercent", 10));
+
+    private static final long CAPACITY = Math.max(1, Integer.getInteger("rpc.client.retryBudgetMax", 100)) * SCALE;
+
+    private final AtomicLong balance = new AtomicLong(CAPACITY);
+
+    private RetryBudget() {
+    }
+
+    public static RetryBudget get(String serviceName) {
+        return BUDGETS.computeIfAbsent(serviceName, k -> new RetryBudget());
+    }
+
+    /**
+     * 每个调用开始时调用一次
+     */
+    public void deposit() {
+        for (;;) {
+            long current = balance.get();
+            if (current >= CAPACITY) {
+                return;
+            }
+            if (balance.compareAndSet(current, Math.min(CAPACITY, current + DEPOSIT))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 取出一个令牌
+     * @return 预算用完时返回false
+     */
+    public boolean tryWithdraw() {
+        for (;;) {
+            long current = balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 取出的令牌没有用上，如找不到其他实例发出对冲请求
+     */
+    public void refund() {
+        balance.accumulateAndGet(SCALE, (current, delta) -> Math.min(CAPACITY, current + delta));
+    }
+
+    /**
+     * @return 剩余可以重试的次数
+     */
+    public long getAvailable() {
+        return balance.get() / SCALE;
+    }
+}
@@ -1,38 +1,203 @@
 package studio.lh.transport.netty.client;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.channel.Channel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import studio.lh.dto.RpcResponse;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.exception.RpcException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author :MayRain
  * @version :1.0
  * @date :2022/11/29 22:07
  * @description : 存放客户端尚未得到响应的请求
+ * 连接是多路复用的，同时记录请求发往的连接，连接断开时只失败该连接上的请求
+ * 请求号是递增的long，表按请求号分段，每段是一个以原始long为键的哈希表，热点路径上不产生String或装箱的键
+ * 每个请求都挂一个超时任务到时间轮上，到期未响应的请求从表中移除并以超时异常结束
  */
 public class UnprocessedRequests {
-    private static ConcurrentHashMap<String, CompletableFuture<RpcResponse>> unprocessedResponseFutures = new ConcurrentHashMap<>();
+    private static final Logger LOGGER = LoggerFactory.getLogger(UnprocessedRequests.class);
 
-    public void put(String requestId, CompletableFuture<RpcResponse> future) {
-        unprocessedResponseFutures.put(requestId, future);
+    /**
+     * 分段数，必须是2的幂。请求号连续递增，按低位取模正好均匀落到各段
+     */
+    private static final int STRIPES = 32;
+
+    private static final int STRIPE_MASK = STRIPES - 1;
+
+    /**
+     * 时间轮的一格10ms，超时精度对RPC来说足够，调度和取消都是O(1)
+     */
+    private static final Timer TIMEOUT_TIMER = new HashedWheelTimer(
+            new ThreadFactoryBuilder().setNameFormat("rpc-request-timer-%d").setDaemon(true).build(),
+            10, TimeUnit.MILLISECONDS, 1024);
+
+    private final AtomicLong requestIdGenerator = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    private final LongObjectHashMap<PendingRequest>[] stripes = new LongObjectHashMap[STRIPES];
+
+    public UnprocessedRequests() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new LongObjectHashMap<>();
+        }
+    }
+
+    /**
+     * @return 新的请求号，单调递增
+     */
+    public long nextRequestId() {
+        return requestIdGenerator.incrementAndGet();
     }
 
-    public void remove(String requestId) {
-        unprocessedResponseFutures.remove(requestId);
+    /**
+     * 记录等待响应的请求
+     * @param requestId 请求号
+     * @param future 收到响应、超时或连接断开时完成
+     * @param channel 请求发往的连接
+     * @param timeoutMillis 超时时间
+     */
+    public void put(long requestId, CompletableFuture<RpcResponse> future, Channel channel, long timeoutMillis) {
+        PendingRequest pendingRequest = new PendingRequest(requestId, future, channel);
+        LongObjectHashMap<PendingRequest> stripe = stripe(requestId);
+        synchronized (stripe) {
+            stripe.put(requestId, pendingRequest);
+        }
+        pendingRequest.timeout = TIMEOUT_TIMER.newTimeout(pendingRequest, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 在请求超时用的时间轮上执行定时任务, 如对冲请求
+     * @param task 到期执行的任务, 在时间轮线程上运行, 不能阻塞
+     * @param delayMillis 延迟时间
+     */
+    static Timeout schedule(TimerTask task, long delayMillis) {
+        return TIMEOUT_TIMER.newTimeout(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void remove(long requestId) {
+        PendingRequest pendingRequest = take(requestId);
+        if (pendingRequest != null) {
+            pendingRequest.cancelTimeout();
+        }
+    }
+
+    private PendingRequest take(long requestId) {
+        LongObjectHashMap<PendingRequest> stripe = stripe(requestId);
+        synchronized (stripe) {
+            return stripe.remove(requestId);
+        }
     }
 
     /**
      * 返回结果后调用次方法
+     * @param requestId 帧头中的请求号
      * @param rpcResponse
      */
-    public void complete(RpcResponse rpcResponse) {
-        CompletableFuture<RpcResponse> future = unprocessedResponseFutures.remove(rpcResponse.getRequestId());
-        if (null != future) {
+    public void complete(long requestId, RpcResponse rpcResponse) {
+        PendingRequest pendingRequest = take(requestId);
+        if (null != pendingRequest) {
+            pendingRequest.cancelTimeout();
             // 将response放入future
-            future.complete(rpcResponse);
+            pendingRequest.future.complete(rpcResponse);
+        } else {
+            // 连接是共享的，迟到或未知的响应不能影响连接上的其他请求
+            // 对冲请求中落败的一方被取消后，它的响应也会走到这里
+            LOGGER.debug("收到未知请求的响应: {}", requestId);
+        }
+    }
+
+    /**
+     * 收到了请求的响应帧但无法使用，如消息体解析失败，只让这一个请求失败
+     * @param requestId 帧头中的请求号
+     * @param cause 失败原因
+     */
+    public void fail(long requestId, Throwable cause) {
+        PendingRequest pendingRequest = take(requestId);
+        if (null != pendingRequest) {
+            pendingRequest.cancelTimeout();
+            pendingRequest.future.completeExceptionally(cause);
         } else {
-            throw new IllegalStateException();
+            LOGGER.debug("未知请求的响应无法解析: {}", requestId);
+        }
+    }
+
+    /**
+     * 连接断开时调用，让该连接上还在等待的请求立即失败，而不是一直等下去
+     * @param channel 断开的连接
+     */
+    public void failAll(Channel channel) {
+        List<PendingRequest> failed = new ArrayList<>();
+        for (LongObjectHashMap<PendingRequest> stripe : stripes) {
+            synchronized (stripe) {
+                List<Long> requestIds = new ArrayList<>();
+                for (LongObjectMap.PrimitiveEntry<PendingRequest> entry : stripe.entries()) {
+                    if (entry.value().channel == channel) {
+                        requestIds.add(entry.key());
+                    }
+                }
+                for (Long requestId : requestIds) {
+                    failed.add(stripe.remove(requestId));
+                }
+            }
+        }
+        // 在锁外完成future，回调中的逻辑不会占着分段锁
+        for (PendingRequest pendingRequest : failed) {
+            pendingRequest.cancelTimeout();
+            pendingRequest.future.completeExceptionally(
+                    new RpcException(RpcErrorMessageEnum.CONNECTION_CLOSED, String.valueOf(channel.remoteAddress())));
+        }
+    }
+
+    private LongObjectHashMap<PendingRequest> stripe(long requestId) {
+        return stripes[(int) requestId & STRIPE_MASK];
+    }
+
+    /**
+     * 等待中的请求，本身就是超时任务，避免每个请求再多分配一个对象
+     */
+    private final class PendingRequest implements TimerTask {
+        private final long requestId;
+        private final CompletableFuture<RpcResponse> future;
+        private final Channel channel;
+        private volatile Timeout timeout;
+
+        private PendingRequest(long requestId, CompletableFuture<RpcResponse> future, Channel channel) {
+            this.requestId = requestId;
+            this.future = future;
+            this.channel = channel;
+        }
+
+        private void cancelTimeout() {
+            Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
+        }
+
+        /**
+         * 超时：只有仍在表中时才失败，已经被响应或断连处理过的请求不受影响
+         */
+        @Override
+        public void run(Timeout t) {
+            if (take(requestId) == this) {
+                future.completeExceptionally(new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT,
+                        "requestId:" + requestId + ", remote:" + channel.remoteAddress()));
+            }
         }
     }
 }
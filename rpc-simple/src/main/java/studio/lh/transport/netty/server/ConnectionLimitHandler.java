@@ -0,0 +1,51 @@
+package studio.lh.transport.netty.server;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/22 15:20
+ * @description : 限制服务端同时保持的连接数
+ * 一个服务端的所有连接共用一个实例，连接数超过上限时新连接建立后立即关闭，不会进入编解码器和业务handler
+ */
+@ChannelHandler.Sharable
+class ConnectionLimitHandler extends ChannelInboundHandlerAdapter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionLimitHandler.class);
+
+    /**
+     * 最大连接数，可以通过 -Drpc.server.maxConnections 配置，0表示不限制
+     */
+    static final int DEFAULT_MAX_CONNECTIONS = Integer.getInteger("rpc.server.maxConnections", 10000);
+
+    private final int maxConnections;
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    ConnectionLimitHandler(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        int current = connections.incrementAndGet();
+        if (maxConnections > 0 && current > maxConnections) {
+            LOGGER.warn("连接数已达上限 {}, 关闭来自 {} 的连接", maxConnections, ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        connections.decrementAndGet();
+        super.channelInactive(ctx);
+    }
+}
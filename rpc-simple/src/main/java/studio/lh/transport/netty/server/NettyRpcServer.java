@@ -5,18 +5,17 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import studio.lh.dto.RpcRequest;
-import studio.lh.dto.RpcResponse;
 import studio.lh.enumeration.RpcErrorMessageEnum;
 import studio.lh.exception.RpcException;
 import studio.lh.hook.ShutdownHook;
+import studio.lh.provider.DispatchPolicy;
 import studio.lh.provider.ServiceProvider;
 import studio.lh.provider.ServiceProviderImpl;
 import studio.lh.registry.NacosServiceRegistry;
@@ -25,8 +24,10 @@ import studio.lh.serialize.Serializer;
 import studio.lh.transport.RpcServer;
 import studio.lh.transport.netty.NettyKryoDecoder;
 import studio.lh.transport.netty.NettyKryoEncoder;
+import studio.lh.transport.netty.NettyTransport;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author :MayRain
@@ -46,10 +47,19 @@ public class NettyRpcServer implements RpcServer {
 
     private final ServiceProvider serviceProvider;
 
+    /**
+     * 默认序列化器，处理请求时以帧头中的序列化器为准，不同序列化器的客户端可以共用一个端口
+     */
     private Serializer serializer;
 
     private static final int DEFAULT_SERIALIZER_CODE = 0;
 
+    /**
+     * 连接上这么久没有读到任何数据(包括心跳)时关闭连接，单位秒，可以通过 -Drpc.server.idleTimeoutSeconds 配置，0表示不检测
+     * 要大于客户端的心跳间隔，正常的客户端空闲时也会定期发送心跳
+     */
+    private static final int IDLE_TIMEOUT_SECONDS = Integer.getInteger("rpc.server.idleTimeoutSeconds", 90);
+
 
     /**
      * 默认使用Kryo序列化
@@ -62,9 +72,16 @@ public class NettyRpcServer implements RpcServer {
     }
 
     public NettyRpcServer(String host, int port, int code) {
+        this(host, port, code, new NacosServiceRegistry());
+    }
+
+    /**
+     * @param serviceRegistry 注册中心, 如 {@link studio.lh.registry.NoOpServiceRegistry} 配合客户端直连使用
+     */
+    public NettyRpcServer(String host, int port, int code, ServiceRegistry serviceRegistry) {
         this.host = host;
         this.port = port;
-        serviceRegistry = new NacosServiceRegistry();
+        this.serviceRegistry = serviceRegistry;
         serviceProvider = new ServiceProviderImpl();
         serializer = Serializer.getSerializer(code);
     }
@@ -78,40 +95,64 @@ public class NettyRpcServer implements RpcServer {
      */
     @Override
     public <T> void publishService(T service, Class<T> serviceClass) {
+        publishService(service, serviceClass, null);
+    }
+
+    /**
+     * 服务注册并指定服务端的执行策略
+     *
+     * @param service        服务的实例对象
+     * @param serviceClass   要注册的接口的class对象
+     * @param dispatchPolicy 执行策略, 如 {@link DispatchPolicy#bulkhead(String, int, int)}, 为null时按 @RpcDispatch 注解
+     * @param <T>            实例对象的类型
+     */
+    public <T> void publishService(T service, Class<T> serviceClass, DispatchPolicy dispatchPolicy) {
         // 向外提供服务前，要先设置序列化器
         if (serializer == null) {
             LOGGER.error("未设置序列化器");
             throw new RpcException(RpcErrorMessageEnum.SERIALIZER_NOT_FOUND);
         }
         // 将服务注册到本地的map，键是动态获取的规范类名
-        serviceProvider.addService(service, serviceClass);
+        serviceProvider.addService(service, serviceClass, dispatchPolicy);
         // 将服务注册到远程的注册中心
         serviceRegistry.register(serviceClass.getCanonicalName(), new InetSocketAddress(host, port));
     }
 
     public void start() {
-        EventLoopGroup bossGroup = new NioEventLoopGroup();
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+        // Linux上自动使用epoll, 线程数等见 NettyTransport
+        EventLoopGroup bossGroup = NettyTransport.newEventLoopGroup(NettyTransport.BOSS_THREADS, "rpc-server-boss", false);
+        EventLoopGroup workerGroup = NettyTransport.newEventLoopGroup(NettyTransport.WORKER_THREADS, "rpc-server-worker", false);
         try {
             ServerBootstrap serverBootstrap = new ServerBootstrap();
+            NettyTransport.configure(serverBootstrap, NettyTransport.USE_EPOLL);
             serverBootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
                     .handler(new LoggingHandler(LogLevel.INFO))
                     .childHandler(new ChannelInitializer<SocketChannel>() {
+                        /**
+                         * 所有连接共用, 统计当前连接数
+                         */
+                        private final ConnectionLimitHandler connectionLimitHandler =
+                                new ConnectionLimitHandler(ConnectionLimitHandler.DEFAULT_MAX_CONNECTIONS);
+
                         @Override
                         protected void initChannel(SocketChannel ch) {
-                            // RpcRequest的解码器
-                            ch.pipeline().addLast(new NettyKryoDecoder(serializer, RpcRequest.class));
-                            // RpcResponse的编码器
-                            ch.pipeline().addLast(new NettyKryoEncoder(serializer, RpcResponse.class));
+                            // 超过最大连接数的连接直接关闭
+                            ch.pipeline().addLast(connectionLimitHandler);
+                            // 长时间读不到数据的连接由NettyServerHandler关闭, 如客户端已经崩溃的半开连接
+                            if (IDLE_TIMEOUT_SECONDS > 0) {
+                                ch.pipeline().addLast(new IdleStateHandler(IDLE_TIMEOUT_SECONDS, 0, 0, TimeUnit.SECONDS));
+                            }
+                            // 合并IO线程上一次读循环内的多次flush, 如心跳响应和IO线程执行的请求
+                            ch.pipeline().addLast(new FlushConsolidationHandler());
+                            // 协议帧的解码器, 按帧头选择序列化器
+                            ch.pipeline().addLast(new NettyKryoDecoder());
+                            // 协议帧的编码器
+                            ch.pipeline().addLast(new NettyKryoEncoder());
                             // 业务的
                             ch.pipeline().addLast(new NettyServerHandler());
                         }
                     })
-                    // 设置tcp缓冲区
-                    .childOption(ChannelOption.TCP_NODELAY, true)
-                    .option(ChannelOption.SO_BACKLOG, 128)
-                    .option(ChannelOption.SO_KEEPALIVE, true);
+                    .option(ChannelOption.SO_BACKLOG, 128);
 
             // 服务端实例不只有一个了, 所以需要用host区分
             // 绑定ip和端口，同步等待绑定成功
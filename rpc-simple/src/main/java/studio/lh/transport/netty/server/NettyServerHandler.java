@@ -1,18 +1,25 @@
 package studio.lh.transport.netty.server;
 
-import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.ReferenceCountUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import studio.lh.dto.RpcMessage;
 import studio.lh.dto.RpcRequest;
 import studio.lh.dto.RpcResponse;
+import studio.lh.enumeration.RpcMessageTypeEnum;
+import studio.lh.enumeration.RpcResponseCode;
+import studio.lh.exception.RpcException;
+import studio.lh.exception.SerializeException;
+import studio.lh.provider.ServiceInvoker;
+import studio.lh.serialize.Serializer;
 import studio.lh.transport.RpcRequestHandler;
-import studio.lh.factory.ThreadPoolFactory;
 
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * @author :MayRain
@@ -24,37 +31,137 @@ public class NettyServerHandler extends ChannelInboundHandlerAdapter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(NettyServerHandler.class);
 
-    private static final String THREAD_NAME_PREFIX = "netty-server-handler";
-
     // 服务动态调用者
     private final RpcRequestHandler rpcRequestHandler;
 
-    // 执行方法的线程池
-    private final ExecutorService threadPool;
+    // 合并本连接上的响应写出, 每条连接一个handler实例
+    private ResponseWriteBatcher responseWriteBatcher;
 
     public NettyServerHandler() {
         rpcRequestHandler = new RpcRequestHandler();
-        threadPool = ThreadPoolFactory.createDefaultThreadPool(THREAD_NAME_PREFIX);
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        responseWriteBatcher = new ResponseWriteBatcher(ctx, ResponseWriteBatcher.DEFAULT_MAX_BATCH);
     }
 
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
-        // 交由自定义的线程池netty-server-handler 去执行业务
-        threadPool.execute(() -> {
-            try {
-                LOGGER.info("服务器接收到请求: {}", msg);
-                Object result = rpcRequestHandler.handle((RpcRequest) msg);
-                // 业务处理完，返回结果
-                if (ctx.channel().isActive() && ctx.channel().isWritable()) {
-                    ctx.writeAndFlush(RpcResponse.success(result, ((RpcRequest) msg).getRequestId()));
-                } else {
-                    LOGGER.error("通道不可写");
+        RpcMessage rpcMessage = (RpcMessage) msg;
+        // 心跳帧只看帧头，直接在IO线程上回复，不进入业务线程池
+        if (rpcMessage.getMessageType() == RpcMessageTypeEnum.HEARTBEAT_PING.getCode()) {
+            ctx.writeAndFlush(RpcMessage.builder()
+                    .messageType(RpcMessageTypeEnum.HEARTBEAT_PONG.getCode())
+                    .codec(rpcMessage.getCodec())
+                    .requestId(rpcMessage.getRequestId())
+                    .build());
+            return;
+        }
+        if (rpcMessage.getMessageType() != RpcMessageTypeEnum.REQUEST.getCode()) {
+            LOGGER.warn("服务端忽略类型为 {} 的消息", rpcMessage.getMessageType());
+            return;
+        }
+        if (rpcMessage.getDecodeError() != null) {
+            // 只有这个请求的消息体无法解析, 按帧头中的请求号回复失败, 连接上的其他请求不受影响
+            writeResponse(ctx, rpcMessage, null, RpcResponse.fail(RpcResponseCode.FAIL, rpcMessage.getRequestId()));
+            return;
+        }
+        RpcRequest rpcRequest = (RpcRequest) rpcMessage.getData();
+        LOGGER.debug("服务器接收到请求: {}", rpcRequest);
+        // 在IO线程上只查表, 按方法的执行策略决定在哪里执行业务
+        ServiceInvoker.MethodInvoker methodInvoker;
+        try {
+            methodInvoker = rpcRequestHandler.resolve(rpcRequest);
+        } catch (RpcException e) {
+            LOGGER.error("未找到服务: {}", rpcRequest.getInterfaceName());
+            writeResponse(ctx, rpcMessage, rpcRequest, RpcResponse.fail(RpcResponseCode.NOT_FOUND_CLASS, rpcRequest.getRequestId()));
+            return;
+        }
+        if (methodInvoker == null) {
+            writeResponse(ctx, rpcMessage, rpcRequest, RpcResponse.fail(RpcResponseCode.NOT_FOUND_METHOD, rpcRequest.getRequestId()));
+            return;
+        }
+        try {
+            // JSON等序列化方式的参数要按方法的参数类型转换
+            rpcRequestHandler.convertParameters(rpcRequest, methodInvoker, Serializer.getSerializer(rpcMessage.getCodec()));
+        } catch (SerializeException e) {
+            LOGGER.error("请求 {} 的参数与方法 {} 不匹配", rpcRequest.getRequestId(), methodInvoker.getMethod());
+            writeResponse(ctx, rpcMessage, rpcRequest, RpcResponse.fail(RpcResponseCode.FAIL, rpcRequest.getRequestId()));
+            return;
+        }
+        try {
+            methodInvoker.getDispatchPolicy().execute(() -> {
+                try {
+                    Object result;
+                    try {
+                        result = rpcRequestHandler.invoke(rpcRequest, methodInvoker);
+                    } catch (RpcException e) {
+                        // 业务方法抛出异常, 回复失败而不是把异常当作结果
+                        writeResponse(ctx, rpcMessage, rpcRequest, RpcResponse.fail(RpcResponseCode.FAIL, rpcRequest.getRequestId()));
+                        return;
+                    }
+                    // 异步方法: 不占用业务线程等待, 在future完成时再响应
+                    if (result instanceof CompletableFuture) {
+                        ((CompletableFuture<?>) result).whenComplete((value, throwable) -> {
+                            if (throwable != null) {
+                                LOGGER.error("异步方法执行失败, 请求: {}", rpcRequest, throwable);
+                                writeResponse(ctx, rpcMessage, rpcRequest, RpcResponse.fail(RpcResponseCode.FAIL, rpcRequest.getRequestId()));
+                            } else {
+                                writeResponse(ctx, rpcMessage, rpcRequest, RpcResponse.success(value, rpcRequest.getRequestId()));
+                            }
+                        });
+                    } else {
+                        writeResponse(ctx, rpcMessage, rpcRequest, RpcResponse.success(result, rpcRequest.getRequestId()));
+                    }
+                } finally {
+                    ReferenceCountUtil.release(msg);
                 }
-            } finally {
-                ReferenceCountUtil.release(msg);
-            }
-        });
+            });
+        } catch (RejectedExecutionException e) {
+            // 线程池已满: 明确告诉客户端过载, 而不是让请求悄悄丢失直到超时
+            LOGGER.warn("执行策略 {} 已满, 拒绝请求: {}", methodInvoker.getDispatchPolicy().getName(), rpcRequest.getRequestId());
+            writeResponse(ctx, rpcMessage, rpcRequest, RpcResponse.fail(RpcResponseCode.OVERLOAD, rpcRequest.getRequestId()));
+        }
+    }
+
+    /**
+     * 业务处理完，返回结果, 响应使用与请求相同的序列化器和请求号
+     * 未协商的完整请求在响应中带回方法编号
+     * @param rpcRequest 消息体无法解析时为null
+     */
+    private void writeResponse(ChannelHandlerContext ctx, RpcMessage rpcMessage, RpcRequest rpcRequest, RpcResponse<?> rpcResponse) {
+        if (rpcRequest != null && rpcRequest.getInterfaceName() != null) {
+            rpcResponse.setMethodId(rpcRequest.getMethodId());
+        }
+        // 请求的序列化器不可用时用默认的序列化器回复, 否则编码失败会关闭连接
+        byte codec = Serializer.getSerializer(rpcMessage.getCodec()) != null
+                ? rpcMessage.getCodec() : Serializer.KRYO_SERIALIZER.byteValue();
+        if (ctx.channel().isActive() && ctx.channel().isWritable()) {
+            // 不直接writeAndFlush, 同一批的响应只flush一次
+            responseWriteBatcher.write(RpcMessage.builder()
+                    .messageType(RpcMessageTypeEnum.RESPONSE.getCode())
+                    .codec(codec)
+                    .requestId(rpcMessage.getRequestId())
+                    .data(rpcResponse)
+                    .build());
+        } else {
+            LOGGER.error("通道不可写");
+        }
+    }
+
+    /**
+     * 连接在空闲超时时间内没有读到任何数据, 客户端已经崩溃或网络中断, 关闭连接释放资源
+     */
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.READER_IDLE) {
+            LOGGER.info("连接 {} 空闲超时, 关闭连接", ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+        super.userEventTriggered(ctx, evt);
     }
 
     @Override
@@ -0,0 +1,77 @@
+package studio.lh.transport.netty.server;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/17 15:36
+ * @description : 合并一条连接上的响应写出
+ * 业务线程只把响应放入队列，同一时刻最多只有一个写出任务提交到这条连接的EventLoop，
+ * 任务一次取出队列中已有的响应(最多 maxBatch 个)逐个write，最后只flush一次。
+ * 空闲连接上的单个响应会立即提交写出任务，不会因为等待凑批而增加延迟
+ */
+class ResponseWriteBatcher implements Runnable {
+
+    /**
+     * 一次写出任务最多写出的响应数，可以通过 -Drpc.server.writeBatch 配置
+     */
+    static final int DEFAULT_MAX_BATCH = Integer.getInteger("rpc.server.writeBatch", 64);
+
+    private final ChannelHandlerContext ctx;
+
+    private final int maxBatch;
+
+    /**
+     * 多个业务线程写入，EventLoop单线程读取
+     */
+    private final Queue<Object> queue = PlatformDependent.newMpscQueue();
+
+    /**
+     * 是否已经有写出任务在EventLoop中等待执行
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    ResponseWriteBatcher(ChannelHandlerContext ctx, int maxBatch) {
+        this.ctx = ctx;
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    /**
+     * 可以在任意线程调用
+     * @param msg 要写出的消息
+     */
+    void write(Object msg) {
+        queue.offer(msg);
+        if (scheduled.compareAndSet(false, true)) {
+            ctx.executor().execute(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        int written = 0;
+        Object msg;
+        while (written < maxBatch && (msg = queue.poll()) != null) {
+            ctx.write(msg, ctx.voidPromise());
+            written++;
+        }
+        if (written > 0) {
+            ctx.flush();
+        }
+        if (!queue.isEmpty()) {
+            // 还有剩余，让出EventLoop给其他连接后继续
+            ctx.executor().execute(this);
+            return;
+        }
+        scheduled.set(false);
+        // 清除标记和业务线程入队之间可能有新的响应
+        if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            ctx.executor().execute(this);
+        }
+    }
+}
@@ -8,9 +8,7 @@ import studio.lh.enumeration.RpcErrorMessageEnum;
 import studio.lh.enumeration.RpcResponseCode;
 import studio.lh.exception.RpcException;
 import studio.lh.registry.NacosServiceDiscovery;
-import studio.lh.registry.NacosServiceRegistry;
 import studio.lh.registry.ServiceDiscovery;
-import studio.lh.registry.ServiceRegistry;
 import studio.lh.transport.RpcClient;
 import studio.lh.util.RpcMessageChecker;
 
@@ -19,6 +17,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author :MayRain
@@ -28,13 +28,21 @@ import java.net.Socket;
  */
 public class SocketRpcClient implements RpcClient {
     public static final Logger LOGGER = LoggerFactory.getLogger(SocketRpcClient.class);
-    private final ServiceRegistry serviceRegistry;
     private final ServiceDiscovery serviceDiscovery;
+    /**
+     * 本客户端的请求号生成器
+     */
+    private final AtomicLong requestIdGenerator = new AtomicLong();
 
     public SocketRpcClient() {
-        serviceRegistry = new NacosServiceRegistry();
-        //
-        serviceDiscovery = new NacosServiceDiscovery(null);
+        this(new NacosServiceDiscovery(null));
+    }
+
+    /**
+     * @param serviceDiscovery 服务发现, 如 {@link studio.lh.registry.DirectServiceDiscovery} 可以不经过注册中心直连服务端
+     */
+    public SocketRpcClient(ServiceDiscovery serviceDiscovery) {
+        this.serviceDiscovery = serviceDiscovery;
     }
 
     /**
@@ -43,10 +51,24 @@ public class SocketRpcClient implements RpcClient {
      * @return 响应数据(不包含状态码等)
      */
     public Object sendRpcRequest(RpcRequest rpcRequest) {
+        return sendRpcRequest(rpcRequest, 0);
+    }
+
+    /**
+     * 发起RPC调用, 连接和读取响应都受超时时间限制
+     * @param rpcRequest 服务请求DTO
+     * @param timeoutMillis 超时时间, 不大于0时不限制
+     * @return 响应数据(不包含状态码等)
+     */
+    @Override
+    public Object sendRpcRequest(RpcRequest rpcRequest, long timeoutMillis) {
+        int timeout = timeoutMillis > 0 ? (int) Math.min(timeoutMillis, Integer.MAX_VALUE) : 0;
+        rpcRequest.setRequestId(requestIdGenerator.incrementAndGet());
         // 从注册中心获取服务地址
-        InetSocketAddress inetSocketAddress = serviceDiscovery.lookupService(rpcRequest.getInterfaceName());
+        InetSocketAddress inetSocketAddress = serviceDiscovery.lookupService(rpcRequest);
         try (Socket socket = new Socket()) {
-            socket.connect(inetSocketAddress);
+            socket.connect(inetSocketAddress, timeout);
+            socket.setSoTimeout(timeout);
             ObjectOutputStream objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
             // 向Socket中发送请求
             objectOutputStream.writeObject(rpcRequest);
@@ -67,6 +89,8 @@ public class SocketRpcClient implements RpcClient {
             //返回成功调用的数据
             return rpcResponse.getData();
 
+        } catch (SocketTimeoutException e) {
+            throw new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT, "interfaceName:" + rpcRequest.getInterfaceName());
         } catch (IOException | ClassNotFoundException e) {
             throw new RpcException("RPC调用失败:", e);
         }
@@ -4,13 +4,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import studio.lh.dto.RpcRequest;
 import studio.lh.dto.RpcResponse;
-
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.enumeration.RpcResponseCode;
+import studio.lh.exception.RpcException;
 import studio.lh.transport.RpcRequestHandler;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * @author :MayRain
@@ -38,11 +43,44 @@ public class SocketRpcRequestHandlerRunnable implements Runnable {
              ObjectOutputStream objectOutputStream = new ObjectOutputStream(socket.getOutputStream())) {
             RpcRequest rpcRequest = (RpcRequest) objectInputStream.readObject();
             // 由Handler对象执行调用
-            Object result = rpcRequestHandler.handle(rpcRequest);
-            objectOutputStream.writeObject(RpcResponse.success(result, rpcRequest.getRequestId()));
+            Object result;
+            RpcResponse<Object> rpcResponse;
+            try {
+                result = rpcRequestHandler.handle(rpcRequest);
+            } catch (RpcException e) {
+                objectOutputStream.writeObject(RpcResponse.fail(toResponseCode(e), rpcRequest.getRequestId()));
+                objectOutputStream.flush();
+                return;
+            }
+            // socket实现本身就是一个请求一个线程, 异步方法直接等待结果
+            if (result instanceof CompletableFuture) {
+                try {
+                    Object value = ((CompletableFuture<?>) result).join();
+                    rpcResponse = RpcResponse.success(value, rpcRequest.getRequestId());
+                } catch (CompletionException | CancellationException e) {
+                    LOGGER.error("异步方法执行失败:", e);
+                    rpcResponse = RpcResponse.fail(RpcResponseCode.FAIL, rpcRequest.getRequestId());
+                }
+            } else {
+                rpcResponse = RpcResponse.success(result, rpcRequest.getRequestId());
+            }
+            objectOutputStream.writeObject(rpcResponse);
             objectOutputStream.flush();
         } catch (IOException | ClassNotFoundException e) {
             LOGGER.error("occur exception:", e);
         }
     }
+
+    /**
+     * 调用失败的原因对应的响应码
+     */
+    private static RpcResponseCode toResponseCode(RpcException e) {
+        if (e.getErrorMessageEnum() == RpcErrorMessageEnum.SERVICE_CAN_NOT_FOUND) {
+            return RpcResponseCode.NOT_FOUND_CLASS;
+        }
+        if (e.getErrorMessageEnum() == RpcErrorMessageEnum.METHOD_CAN_NOT_FOUND) {
+            return RpcResponseCode.NOT_FOUND_METHOD;
+        }
+        return RpcResponseCode.FAIL;
+    }
 }
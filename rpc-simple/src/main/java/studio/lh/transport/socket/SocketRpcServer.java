@@ -41,9 +41,16 @@ public class SocketRpcServer implements RpcServer {
      * @param port
      */
     public SocketRpcServer(String host, int port) {
+        this(host, port, new NacosServiceRegistry());
+    }
+
+    /**
+     * @param serviceRegistry 注册中心, 如 {@link studio.lh.registry.NoOpServiceRegistry} 配合客户端直连使用
+     */
+    public SocketRpcServer(String host, int port, ServiceRegistry serviceRegistry) {
         this.host = host;
         this.port = port;
-        this.serviceRegistry = new NacosServiceRegistry();
+        this.serviceRegistry = serviceRegistry;
         this.serviceProvider = new ServiceProviderImpl();
         threadPool = ThreadPoolFactory.createDefaultThreadPool("socket-rpc-server");
     }
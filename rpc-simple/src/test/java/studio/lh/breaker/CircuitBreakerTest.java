@@ -0,0 +1,216 @@
+package studio.lh.breaker;
+
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 14:10
+ * @description : 熔断器的状态转换: 熔断、半开试探、退避加倍、所有实例都被熔断时的恐慌模式，以及实例下线后删除熔断器
+ * 每个用例使用独立的服务名，退避时间通过 rpc.breaker.<服务名>.baseEjectMillis 缩短
+ */
+class CircuitBreakerTest {
+
+    private static final long BASE_EJECT_MILLIS = 100;
+
+    private static final AtomicInteger SERVICE_ID = new AtomicInteger();
+
+    private final Instance a = instance(9001);
+
+    private final Instance b = instance(9002);
+
+    @Test
+    void consecutiveFailuresOpenBreaker() {
+        String service = newService();
+        CircuitBreaker breaker = CircuitBreaker.get(service, address(a));
+        for (int i = 0; i < 4; i++) {
+            fail(breaker);
+        }
+        assertEquals(CircuitStateEnum.CLOSED, breaker.getState());
+        // 成功会清零连续失败数
+        breaker.onComplete(1, true);
+        for (int i = 0; i < 4; i++) {
+            fail(breaker);
+        }
+        assertEquals(CircuitStateEnum.CLOSED, breaker.getState());
+        fail(breaker);
+        assertEquals(CircuitStateEnum.OPEN, breaker.getState());
+        // 还有其他实例可用时被摘除且不放行
+        assertEquals(Collections.singletonList(b), CircuitBreaker.filter(service, Arrays.asList(a, b)));
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void failureRateOpensBreaker() {
+        String service = newService();
+        System.setProperty("rpc.breaker." + service + ".minRequests", "10");
+        CircuitBreaker breaker = CircuitBreaker.get(service, address(a));
+        for (int i = 0; i < 5; i++) {
+            breaker.onComplete(1, true);
+            assertEquals(CircuitStateEnum.CLOSED, breaker.getState());
+            fail(breaker);
+        }
+        assertEquals(CircuitStateEnum.OPEN, breaker.getState());
+    }
+
+    @Test
+    void halfOpenProbeSuccessClosesBreaker() throws InterruptedException {
+        String service = newService();
+        CircuitBreaker breaker = open(service, a);
+        CircuitBreaker.filter(service, Arrays.asList(a, b));
+        assertFalse(breaker.tryAcquire());
+        Thread.sleep(BASE_EJECT_MILLIS + 20);
+        // 退避期过后实例重新参与负载均衡，只放行一个试探请求
+        assertEquals(Arrays.asList(a, b), CircuitBreaker.filter(service, Arrays.asList(a, b)));
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitStateEnum.HALF_OPEN, breaker.getState());
+        assertEquals(Collections.singletonList(b), CircuitBreaker.filter(service, Arrays.asList(a, b)));
+        assertFalse(breaker.tryAcquire());
+        breaker.onComplete(1, true);
+        assertEquals(CircuitStateEnum.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void halfOpenProbeFailureDoublesBackoff() throws InterruptedException {
+        String service = newService();
+        CircuitBreaker breaker = open(service, a);
+        CircuitBreaker.filter(service, Arrays.asList(a, b));
+        assertTrue(breaker.getRemainingEjectMillis() <= BASE_EJECT_MILLIS);
+        Thread.sleep(BASE_EJECT_MILLIS + 20);
+        assertTrue(breaker.tryAcquire());
+        breaker.onComplete(1, false);
+        assertEquals(CircuitStateEnum.OPEN, breaker.getState());
+        assertTrue(breaker.getRemainingEjectMillis() > BASE_EJECT_MILLIS, String.valueOf(breaker.getRemainingEjectMillis()));
+        Thread.sleep(2 * BASE_EJECT_MILLIS + 20);
+        assertTrue(breaker.tryAcquire());
+        breaker.onComplete(1, false);
+        assertTrue(breaker.getRemainingEjectMillis() > 2 * BASE_EJECT_MILLIS, String.valueOf(breaker.getRemainingEjectMillis()));
+    }
+
+    @Test
+    void halfOpenIgnoredProbeReleasesPermit() throws InterruptedException {
+        String service = newService();
+        CircuitBreaker breaker = open(service, a);
+        Thread.sleep(BASE_EJECT_MILLIS + 20);
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.onIgnored();
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void allInstancesEjectedEntersPanicMode() {
+        String service = newService();
+        List<Instance> instances = Collections.singletonList(a);
+        CircuitBreaker breaker = open(service, a);
+        // 唯一的实例被熔断时不摘除，也要放行请求
+        assertSame(instances, CircuitBreaker.filter(service, instances));
+        assertEquals(CircuitStateEnum.OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        // 恐慌模式下的成功让实例恢复
+        breaker.onComplete(1, true);
+        assertEquals(CircuitStateEnum.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void panicModeEndsWhenAnotherInstanceIsAvailable() {
+        String service = newService();
+        CircuitBreaker breakerA = open(service, a);
+        CircuitBreaker.filter(service, Collections.singletonList(a));
+        assertTrue(breakerA.tryAcquire());
+        // 实例列表中出现了未熔断的实例
+        assertEquals(Collections.singletonList(b), CircuitBreaker.filter(service, Arrays.asList(a, b)));
+        assertFalse(breakerA.tryAcquire());
+    }
+
+    @Test
+    void removedInstanceIsNoLongerEjected() {
+        String service = newService();
+        CircuitBreaker removed = open(service, a);
+        assertEquals(Collections.singletonList(b), CircuitBreaker.filter(service, Arrays.asList(a, b)));
+        CircuitBreaker.remove(service, address(a));
+        // 下线的实例不再计入不可用实例数，同一地址重新上线时从CLOSED开始
+        assertEquals(Arrays.asList(a, b), CircuitBreaker.filter(service, Arrays.asList(a, b)));
+        CircuitBreaker breaker = CircuitBreaker.get(service, address(a));
+        assertNotSame(removed, breaker);
+        assertEquals(CircuitStateEnum.CLOSED, breaker.getState());
+        assertFalse(CircuitBreaker.all().contains(removed));
+    }
+
+    @Test
+    void removedBreakerDoesNotAffectService() {
+        String service = newService();
+        CircuitBreaker removed = CircuitBreaker.get(service, address(a));
+        CircuitBreaker.remove(service, address(a));
+        // 下线前发出的请求结束后熔断了旧的熔断器，不影响服务的过滤
+        for (int i = 0; i < 5; i++) {
+            fail(removed);
+        }
+        assertEquals(CircuitStateEnum.OPEN, removed.getState());
+        assertEquals(Arrays.asList(a, b), CircuitBreaker.filter(service, Arrays.asList(a, b)));
+        // 重复删除和删除不存在的实例没有影响
+        CircuitBreaker.remove(service, address(a));
+        CircuitBreaker.remove(newService(), address(a));
+        CircuitBreaker breakerB = open(service, b);
+        assertEquals(Collections.singletonList(a), CircuitBreaker.filter(service, Arrays.asList(a, b)));
+        assertFalse(breakerB.tryAcquire());
+    }
+
+    @Test
+    void disabledBreakerNeverOpens() {
+        String service = newService();
+        System.setProperty("rpc.breaker." + service + ".enabled", "false");
+        CircuitBreaker breaker = CircuitBreaker.get(service, address(a));
+        for (int i = 0; i < 20; i++) {
+            fail(breaker);
+        }
+        assertEquals(CircuitStateEnum.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    private static String newService() {
+        String service = "CircuitBreakerTest" + SERVICE_ID.incrementAndGet();
+        System.setProperty("rpc.breaker." + service + ".baseEjectMillis", String.valueOf(BASE_EJECT_MILLIS));
+        return service;
+    }
+
+    private static CircuitBreaker open(String service, Instance instance) {
+        CircuitBreaker breaker = CircuitBreaker.get(service, address(instance));
+        for (int i = 0; i < 5; i++) {
+            fail(breaker);
+        }
+        assertEquals(CircuitStateEnum.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private static void fail(CircuitBreaker breaker) {
+        breaker.onComplete(TimeUnit.MILLISECONDS.toNanos(1), false);
+    }
+
+    private static Instance instance(int port) {
+        Instance instance = new Instance();
+        instance.setIp("127.0.0.1");
+        instance.setPort(port);
+        return instance;
+    }
+
+    private static InetSocketAddress address(Instance instance) {
+        return new InetSocketAddress(instance.getIp(), instance.getPort());
+    }
+}
@@ -0,0 +1,92 @@
+package studio.lh.compress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import studio.lh.exception.RpcException;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 10:10
+ * @description : 各压缩算法在不同数据大小下的压缩、解压往返，以及解压长度上限
+ */
+class CompressorTest {
+
+    private static final int[] SIZES = {0, 1, 4 * 1024, 32 * 1024 - 1, 32 * 1024, 32 * 1024 + 1, 64 * 1024, 1024 * 1024};
+
+    @Test
+    void gzipRoundTrip() {
+        for (int size : SIZES) {
+            assertRoundTrip(CompressTypeEnum.GZIP, compressible(size));
+            assertRoundTrip(CompressTypeEnum.GZIP, random(size));
+        }
+    }
+
+    @Test
+    void snappyRoundTrip() {
+        for (int size : SIZES) {
+            assertRoundTrip(CompressTypeEnum.SNAPPY, compressible(size));
+            assertRoundTrip(CompressTypeEnum.SNAPPY, random(size));
+        }
+    }
+
+    @Test
+    void gzipRejectsOverMaxLength() {
+        assertRejectsOverMaxLength(CompressTypeEnum.GZIP);
+    }
+
+    @Test
+    void snappyRejectsOverMaxLength() {
+        assertRejectsOverMaxLength(CompressTypeEnum.SNAPPY);
+    }
+
+    @Test
+    void snappyRejectsTruncatedData() {
+        Compressor compressor = Compressor.getCompressor(CompressTypeEnum.SNAPPY.getCode());
+        ByteBuf compressed = Unpooled.buffer();
+        compressor.compress(Unpooled.wrappedBuffer(compressible(64 * 1024)), compressed);
+        ByteBuf truncated = compressed.slice(0, compressed.readableBytes() - 10);
+        assertThrows(RuntimeException.class, () -> compressor.decompress(truncated, Unpooled.buffer(), Integer.MAX_VALUE));
+    }
+
+    private static void assertRoundTrip(CompressTypeEnum type, byte[] data) {
+        Compressor compressor = Compressor.getCompressor(type.getCode());
+        ByteBuf compressed = Unpooled.buffer();
+        compressor.compress(Unpooled.wrappedBuffer(data), compressed);
+        ByteBuf decompressed = Unpooled.buffer();
+        compressor.decompress(compressed, decompressed, data.length);
+        byte[] result = new byte[decompressed.readableBytes()];
+        decompressed.readBytes(result);
+        assertArrayEquals(data, result, type + " " + data.length);
+    }
+
+    private static void assertRejectsOverMaxLength(CompressTypeEnum type) {
+        Compressor compressor = Compressor.getCompressor(type.getCode());
+        ByteBuf compressed = Unpooled.buffer();
+        compressor.compress(Unpooled.wrappedBuffer(compressible(64 * 1024)), compressed);
+        assertThrows(RpcException.class, () -> compressor.decompress(compressed, Unpooled.buffer(), 64 * 1024 - 1));
+    }
+
+    /**
+     * 有重复内容的数据
+     */
+    static byte[] compressible(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + (i / 7) % 26);
+        }
+        return data;
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
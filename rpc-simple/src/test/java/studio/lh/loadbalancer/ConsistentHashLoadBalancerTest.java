@@ -0,0 +1,141 @@
+package studio.lh.loadbalancer;
+
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import org.junit.jupiter.api.Test;
+import studio.lh.dto.RpcRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 16:00
+ * @description : 一致性哈希的选择结果: 环重建后相同key落在相同实例，增减实例时只有约1/n的key换实例
+ */
+class ConsistentHashLoadBalancerTest {
+
+    private static final int KEYS = 10000;
+
+    @Test
+    void keyHashDependsOnValueOnly() {
+        assertEquals(ConsistentHashLoadBalancer.keyHash("SECONDS"), ConsistentHashLoadBalancer.keyHash(TimeUnit.SECONDS));
+        assertEquals(ConsistentHashLoadBalancer.keyHash("42"), ConsistentHashLoadBalancer.keyHash(42));
+        assertEquals(ConsistentHashLoadBalancer.keyHash("42"), ConsistentHashLoadBalancer.keyHash(42L));
+        assertEquals(ConsistentHashLoadBalancer.keyHash(new String("user-1")), ConsistentHashLoadBalancer.keyHash("user-1"));
+        assertNotEquals(ConsistentHashLoadBalancer.keyHash("user-1"), ConsistentHashLoadBalancer.keyHash("user-2"));
+        // 奇数长度和偶数长度都参与计算
+        assertNotEquals(ConsistentHashLoadBalancer.keyHash("ab"), ConsistentHashLoadBalancer.keyHash("abc"));
+        assertNotEquals(ConsistentHashLoadBalancer.keyHash(""), ConsistentHashLoadBalancer.keyHash("a"));
+    }
+
+    @Test
+    void sameKeySameInstanceAcrossRebuilds() {
+        Map<Object, String> first = assign(new ConsistentHashLoadBalancer(), instances(5), keys());
+        // 新的负载均衡器和新的实例列表对象，相当于另一个客户端进程或推送后重建的环
+        ConsistentHashLoadBalancer loadBalancer = new ConsistentHashLoadBalancer();
+        assertEquals(first, assign(loadBalancer, instances(5), keys()));
+        assertEquals(first, assign(loadBalancer, instances(5), keys()));
+    }
+
+    @Test
+    void enumKeyUsesName() {
+        ConsistentHashLoadBalancer loadBalancer = new ConsistentHashLoadBalancer();
+        List<Instance> instances = instances(5);
+        for (TimeUnit unit : TimeUnit.values()) {
+            assertSame(loadBalancer.select(instances, request(unit.name())), loadBalancer.select(instances, request(unit)));
+        }
+    }
+
+    @Test
+    void keysSpreadAcrossInstances() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String address : assign(new ConsistentHashLoadBalancer(), instances(5), keys()).values()) {
+            counts.merge(address, 1, Integer::sum);
+        }
+        assertEquals(5, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(count > KEYS / 5 * 0.7 && count < KEYS / 5 * 1.3, counts.toString());
+        }
+    }
+
+    @Test
+    void addingInstanceMovesAboutOneSixthOfKeys() {
+        ConsistentHashLoadBalancer loadBalancer = new ConsistentHashLoadBalancer();
+        Map<Object, String> before = assign(loadBalancer, instances(5), keys());
+        List<Instance> six = instances(6);
+        Map<Object, String> after = assign(loadBalancer, six, keys());
+        String added = address(six.get(5));
+        int moved = 0;
+        for (Map.Entry<Object, String> entry : before.entrySet()) {
+            String now = after.get(entry.getKey());
+            if (!now.equals(entry.getValue())) {
+                moved++;
+                // 换实例的key只会落到新实例上
+                assertEquals(added, now);
+            }
+        }
+        double ratio = (double) moved / KEYS;
+        assertTrue(ratio > 0.12 && ratio < 0.22, String.valueOf(ratio));
+    }
+
+    @Test
+    void removingInstanceMovesOnlyItsKeys() {
+        ConsistentHashLoadBalancer loadBalancer = new ConsistentHashLoadBalancer();
+        List<Instance> six = instances(6);
+        Map<Object, String> before = assign(loadBalancer, six, keys());
+        Map<Object, String> after = assign(loadBalancer, instances(5), keys());
+        String removed = address(six.get(5));
+        for (Map.Entry<Object, String> entry : before.entrySet()) {
+            if (!entry.getValue().equals(removed)) {
+                assertEquals(entry.getValue(), after.get(entry.getKey()));
+            }
+        }
+    }
+
+    private static Map<Object, String> assign(ConsistentHashLoadBalancer loadBalancer, List<Instance> instances, List<Object> keys) {
+        Map<Object, String> result = new HashMap<>();
+        for (Object key : keys) {
+            result.put(key, address(loadBalancer.select(instances, request(key))));
+        }
+        return result;
+    }
+
+    private static List<Object> keys() {
+        List<Object> keys = new ArrayList<>(KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            keys.add("user-" + i);
+        }
+        return keys;
+    }
+
+    private static RpcRequest request(Object hashKey) {
+        RpcRequest rpcRequest = RpcRequest.builder().interfaceName("studio.lh.HelloService").methodName("hello").build();
+        rpcRequest.setHashKey(hashKey);
+        return rpcRequest;
+    }
+
+    private static List<Instance> instances(int count) {
+        List<Instance> instances = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Instance instance = new Instance();
+            instance.setIp("10.0.0." + (i + 1));
+            instance.setPort(9000);
+            instances.add(instance);
+        }
+        return Collections.unmodifiableList(instances);
+    }
+
+    private static String address(Instance instance) {
+        return instance.getIp() + ":" + instance.getPort();
+    }
+}
@@ -0,0 +1,100 @@
+package studio.lh.loadbalancer;
+
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 21:10
+ * @description : 最小负载选择在途请求少、延迟低的实例，实例下线后统计被删除，下线前请求的回调不会重新创建统计
+ */
+class LeastLoadedLoadBalancerTest {
+
+    private final LeastLoadedLoadBalancer loadBalancer = new LeastLoadedLoadBalancer();
+
+    private final Instance a = instance(9001);
+
+    private final Instance b = instance(9002);
+
+    private final List<Instance> instances = Arrays.asList(a, b);
+
+    @Test
+    void prefersFewerInflightRequests() {
+        for (int i = 0; i < 10; i++) {
+            loadBalancer.onStart(address(a));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertSame(b, loadBalancer.select(instances));
+        }
+    }
+
+    @Test
+    void prefersLowerLatency() {
+        loadBalancer.onStart(address(a));
+        loadBalancer.onComplete(address(a), TimeUnit.MILLISECONDS.toNanos(50), true);
+        loadBalancer.onStart(address(b));
+        loadBalancer.onComplete(address(b), TimeUnit.MILLISECONDS.toNanos(1), true);
+        for (int i = 0; i < 100; i++) {
+            assertSame(b, loadBalancer.select(instances));
+        }
+    }
+
+    @Test
+    void removedInstanceStartsOver() {
+        for (int i = 0; i < 10; i++) {
+            loadBalancer.onStart(address(a));
+        }
+        loadBalancer.onInstanceRemoved(address(a));
+        // 下线前发出的请求陆续结束，不再为它记录失败和延迟
+        for (int i = 0; i < 10; i++) {
+            loadBalancer.onComplete(address(a), TimeUnit.SECONDS.toNanos(1), false);
+        }
+        // 重新上线后和没有统计的实例一样，两个实例都会被选中
+        assertEquals(new HashSet<>(instances), selected(200));
+    }
+
+    @Test
+    void inflightNeverCountsBelowZero() {
+        loadBalancer.onStart(address(a));
+        loadBalancer.onInstanceRemoved(address(a));
+        // 重新上线后的新请求先结束，下线前请求的回调让在途数变成负数
+        long latency = TimeUnit.MILLISECONDS.toNanos(50);
+        loadBalancer.onStart(address(a));
+        loadBalancer.onComplete(address(a), latency, true);
+        loadBalancer.onComplete(address(a), latency, true);
+        // 慢实例不能因为在途数为负而显得比空闲实例更空闲
+        for (int i = 0; i < 100; i++) {
+            assertSame(b, loadBalancer.select(instances));
+        }
+    }
+
+    private Set<Instance> selected(int times) {
+        Set<Instance> selected = new HashSet<>();
+        for (int i = 0; i < times; i++) {
+            selected.add(loadBalancer.select(instances));
+        }
+        return selected;
+    }
+
+    private static Instance instance(int port) {
+        Instance instance = new Instance();
+        instance.setIp("127.0.0.1");
+        instance.setPort(port);
+        return instance;
+    }
+
+    private static InetSocketAddress address(Instance instance) {
+        return new InetSocketAddress(instance.getIp(), instance.getPort());
+    }
+}
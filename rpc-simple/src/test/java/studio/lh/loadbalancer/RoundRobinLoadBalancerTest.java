@@ -0,0 +1,133 @@
+package studio.lh.loadbalancer;
+
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 15:20
+ * @description : 平滑加权轮询的选择顺序和流量分布，包括权重相差悬殊、不健康和下线实例的情况
+ */
+class RoundRobinLoadBalancerTest {
+
+    private final RoundRobinLoadBalancer loadBalancer = new RoundRobinLoadBalancer();
+
+    @Test
+    void smoothSequence() {
+        Instance a = instance(1, 5);
+        Instance b = instance(2, 1);
+        Instance c = instance(3, 1);
+        List<Instance> instances = Collections.unmodifiableList(Arrays.asList(a, b, c));
+        List<Instance> selected = new ArrayList<>();
+        for (int i = 0; i < 14; i++) {
+            selected.add(loadBalancer.select(instances));
+        }
+        List<Instance> cycle = Arrays.asList(a, a, b, a, c, a, a);
+        assertEquals(cycle, selected.subList(0, 7));
+        assertEquals(cycle, selected.subList(7, 14));
+    }
+
+    @Test
+    void distributionFollowsWeights() {
+        List<Instance> instances = Arrays.asList(instance(1, 1), instance(2, 2), instance(3, 3.5));
+        Map<Instance, Integer> counts = count(instances, 13 * 100);
+        assertEquals(200, (int) counts.get(instances.get(0)));
+        assertEquals(400, (int) counts.get(instances.get(1)));
+        assertEquals(700, (int) counts.get(instances.get(2)));
+    }
+
+    @Test
+    void extremeWeightRatios() {
+        // 换算后的权重乘以一轮最大长度会超出int范围
+        Instance heavy = instance(1, 10000);
+        Instance light = instance(2, 0.01);
+        List<Instance> instances = Arrays.asList(heavy, light);
+        int calls = 4096 * 4;
+        Map<Instance, Integer> counts = count(instances, calls);
+        // 缩放后轻实例至少保留一份权重
+        int lightCount = counts.getOrDefault(light, 0);
+        assertTrue(lightCount >= 1 && lightCount <= 8, String.valueOf(lightCount));
+        assertEquals(calls - lightCount, (int) counts.get(heavy));
+    }
+
+    @Test
+    void extremeWeightRatiosAcrossManyInstances() {
+        List<Instance> instances = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            instances.add(instance(i, 1));
+        }
+        Instance heavy = instance(100, 1000000);
+        instances.add(heavy);
+        int calls = 100000;
+        Map<Instance, Integer> counts = count(instances, calls);
+        assertEquals(instances.size(), counts.size());
+        assertTrue(counts.get(heavy) > calls * 0.99, String.valueOf(counts.get(heavy)));
+    }
+
+    @Test
+    void skipsUnhealthyDisabledAndZeroWeightInstances() {
+        Instance healthy = instance(1, 1);
+        Instance unhealthy = instance(2, 1);
+        unhealthy.setHealthy(false);
+        Instance disabled = instance(3, 1);
+        disabled.setEnabled(false);
+        Instance zeroWeight = instance(4, 0);
+        Instance other = instance(5, 3);
+        List<Instance> instances = Arrays.asList(healthy, unhealthy, disabled, zeroWeight, other);
+        Map<Instance, Integer> counts = count(instances, 400);
+        assertEquals(2, counts.size());
+        assertEquals(100, (int) counts.get(healthy));
+        assertEquals(300, (int) counts.get(other));
+    }
+
+    @Test
+    void fallsBackToAllInstancesWhenNoneAvailable() {
+        Instance a = instance(1, 1);
+        a.setHealthy(false);
+        Instance b = instance(2, 1);
+        b.setEnabled(false);
+        Map<Instance, Integer> counts = count(Arrays.asList(a, b), 100);
+        assertEquals(50, (int) counts.get(a));
+        assertEquals(50, (int) counts.get(b));
+    }
+
+    @Test
+    void rebuildsWhenInstanceListChanges() {
+        Instance a = instance(1, 1);
+        Instance b = instance(2, 1);
+        count(Arrays.asList(a, b), 10);
+        b.setHealthy(false);
+        // 推送的新列表
+        Map<Instance, Integer> counts = count(Arrays.asList(a, b), 10);
+        assertEquals(10, (int) counts.get(a));
+        assertFalse(counts.containsKey(b));
+    }
+
+    private Map<Instance, Integer> count(List<Instance> instances, int calls) {
+        Map<Instance, Integer> counts = new HashMap<>();
+        for (int i = 0; i < calls; i++) {
+            counts.merge(loadBalancer.select(instances), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private static Instance instance(int id, double weight) {
+        Instance instance = new Instance();
+        instance.setIp("10.0.0." + id);
+        instance.setPort(9000);
+        instance.setWeight(weight);
+        return instance;
+    }
+}
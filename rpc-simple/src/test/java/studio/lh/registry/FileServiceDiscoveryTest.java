@@ -0,0 +1,121 @@
+package studio.lh.registry;
+
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import studio.lh.exception.RpcException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 20:50
+ * @description : 地址文件的解析(包括IPv6地址)、修改后重新加载，以及关闭后释放监听线程
+ */
+class FileServiceDiscoveryTest {
+
+    private static final String SERVICE = "studio.lh.HelloService";
+
+    private static final String WATCHER_THREAD = "rpc-registry-file-watcher";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void parseAddresses() {
+        Instance ipv4 = DirectServiceDiscovery.parseInstance(SERVICE, " 127.0.0.1:5657 ");
+        assertEquals("127.0.0.1", ipv4.getIp());
+        assertEquals(5657, ipv4.getPort());
+        Instance weighted = DirectServiceDiscovery.parseInstance(SERVICE, "localhost:5658:2.5");
+        assertEquals(2.5, weighted.getWeight());
+        Instance ipv6 = DirectServiceDiscovery.parseInstance(SERVICE, "[::1]:5659");
+        assertEquals("::1", ipv6.getIp());
+        assertEquals(5659, ipv6.getPort());
+        Instance ipv6Weighted = DirectServiceDiscovery.parseInstance(SERVICE, "[fe80::1:2]:5660:3");
+        assertEquals("fe80::1:2", ipv6Weighted.getIp());
+        assertEquals(5660, ipv6Weighted.getPort());
+        assertEquals(3.0, ipv6Weighted.getWeight());
+    }
+
+    @Test
+    void rejectIllegalAddresses() {
+        for (String address : Arrays.asList("127.0.0.1", "::1:5657", "fe80::1:2:5660", "[::1]", "[::1]5657", "[::1:5657",
+                "[]:5657", "host:port", "[::1]:5657:1:2")) {
+            assertThrows(RpcException.class, () -> DirectServiceDiscovery.parseInstance(SERVICE, address), address);
+        }
+    }
+
+    @Test
+    void directDiscoveryAcceptsIpv6() {
+        DirectServiceDiscovery discovery = new DirectServiceDiscovery("[::1]:5657,127.0.0.1:5658");
+        assertEquals(Arrays.asList(new InetSocketAddress("::1", 5657), new InetSocketAddress("127.0.0.1", 5658)),
+                discovery.lookupAll(SERVICE));
+    }
+
+    @Test
+    void reloadsWhenFileChanges() throws Exception {
+        Path file = write("127.0.0.1:5657");
+        try (FileServiceDiscovery discovery = new FileServiceDiscovery(file.toString())) {
+            assertEquals(Collections.singletonList(new InetSocketAddress("127.0.0.1", 5657)), discovery.lookupAll(SERVICE));
+            CompletableFuture<List<InetSocketAddress>> changed = new CompletableFuture<>();
+            discovery.addChangeListener(SERVICE, changed::complete);
+            write("127.0.0.1:5657,[::1]:5658:2");
+            List<InetSocketAddress> expected = Arrays.asList(new InetSocketAddress("127.0.0.1", 5657), new InetSocketAddress("::1", 5658));
+            // 不同平台上WatchService的通知延迟不同
+            assertEquals(expected, changed.get(30, TimeUnit.SECONDS));
+            assertEquals(expected, discovery.lookupAll(SERVICE));
+        }
+    }
+
+    @Test
+    void closeStopsWatcherThread() throws Exception {
+        int before = watcherThreads();
+        FileServiceDiscovery discovery = new FileServiceDiscovery(write("127.0.0.1:5657").toString());
+        assertEquals(before + 1, watcherThreads());
+        discovery.close();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (watcherThreads() > before && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(before, watcherThreads());
+        // 重复关闭没有影响, 已加载的地址仍然可用
+        discovery.close();
+        assertFalse(discovery.lookupAll(SERVICE).isEmpty());
+        assertEquals(5657, discovery.lookupService(SERVICE).getPort());
+    }
+
+    /**
+     * 先写临时文件再改名替换, 监听线程不会读到写了一半的文件
+     */
+    private Path write(String addresses) throws IOException {
+        Path file = dir.resolve("services.properties");
+        Path tmp = Files.createTempFile(dir, "services", ".tmp");
+        Files.write(tmp, (SERVICE + "=" + addresses + "\n").getBytes(StandardCharsets.UTF_8));
+        return Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int watcherThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (WATCHER_THREAD.equals(thread.getName()) && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,129 @@
+package studio.lh.serialize.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 16:40
+ * @description : Kryo对象池的借出归还，以及多线程竞争下同一个实例不会同时借给两个线程
+ */
+class KryoPoolTest {
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    private KryoPool newPool(int capacity) {
+        return new KryoPool(() -> {
+            created.incrementAndGet();
+            return new Kryo();
+        }, capacity);
+    }
+
+    @Test
+    void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(1, newPool(1).getCapacity());
+        assertEquals(4, newPool(3).getCapacity());
+        assertEquals(8, newPool(8).getCapacity());
+        assertThrows(IllegalArgumentException.class, () -> newPool(0));
+    }
+
+    @Test
+    void releasedHolderIsReused() {
+        KryoPool pool = newPool(2);
+        KryoPool.KryoHolder first = pool.borrow();
+        assertEquals(1, pool.getMissCount());
+        pool.release(first);
+        assertEquals(1, pool.getIdleCount());
+        assertSame(first, pool.borrow());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    void emptyPoolCreatesAndFullPoolDiscards() {
+        KryoPool pool = newPool(2);
+        KryoPool.KryoHolder a = pool.borrow();
+        KryoPool.KryoHolder b = pool.borrow();
+        KryoPool.KryoHolder c = pool.borrow();
+        assertNotSame(a, b);
+        assertEquals(3, pool.getMissCount());
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(1, pool.getDiscardedCount());
+    }
+
+    @Test
+    void largeOutputBufferIsShrunkOnRelease() {
+        KryoPool pool = newPool(1);
+        KryoPool.KryoHolder holder = pool.borrow();
+        Output output = holder.output();
+        output.writeBytes(new byte[256 * 1024]);
+        pool.release(holder);
+        assertSame(holder, pool.borrow());
+        assertTrue(holder.output().getBuffer().length <= 64 * 1024);
+        assertEquals(0, holder.output().position());
+    }
+
+    @Test
+    void borrowReleaseUnderContention() throws Exception {
+        int threads = 16;
+        int iterations = 5000;
+        KryoPool pool = newPool(4);
+        Set<KryoPool.KryoHolder> inUse = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        Future<?>[] futures = new Future<?>[threads];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            futures[t] = executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < iterations; i++) {
+                    KryoPool.KryoHolder holder = pool.borrow();
+                    // 同一个实例同时只能被一个线程持有
+                    assertTrue(inUse.add(holder), "holder borrowed twice");
+                    String value = "t" + id + "-" + i;
+                    Output output = holder.output();
+                    holder.getKryo().writeObject(output, value);
+                    String read = holder.getKryo().readObject(holder.input(output.getBuffer(), 0, output.position()), String.class);
+                    assertEquals(value, read);
+                    assertTrue(inUse.remove(holder));
+                    pool.release(holder);
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        long total = (long) threads * iterations;
+        assertEquals(total, pool.getHitCount() + pool.getMissCount());
+        assertEquals(created.get(), pool.getMissCount());
+        // 所有实例都已归还: 新建的实例要么在池中，要么因池满被丢弃
+        assertEquals(pool.getMissCount(), pool.getIdleCount() + pool.getDiscardedCount());
+        assertTrue(pool.getIdleCount() <= pool.getCapacity());
+        assertTrue(pool.getHitCount() > 0);
+    }
+}
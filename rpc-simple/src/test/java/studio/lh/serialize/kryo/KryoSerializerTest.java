@@ -0,0 +1,81 @@
+package studio.lh.serialize.kryo;
+
+import com.esotericsoftware.kryo.KryoException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import studio.lh.dto.RpcResponse;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 17:10
+ * @description : 直接写入ByteBuf的序列化：空间不够时扩容重写，可写区域不止一块NIO缓冲时退回byte数组
+ */
+class KryoSerializerTest {
+
+    private final KryoSerializer serializer = new KryoSerializer();
+
+    private static String payload(int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+    @Test
+    void largeObjectGrowsBufferUntilItFits() {
+        // 初始只预留256字节，需要成倍扩容多次
+        RpcResponse<String> response = RpcResponse.success(payload(100_000), 1L);
+        ByteBuf byteBuf = Unpooled.buffer(16);
+        byteBuf.writeInt(0xCAFEBABE);
+        serializer.serialize(response, byteBuf);
+
+        assertEquals(0xCAFEBABE, byteBuf.readInt());
+        RpcResponse<?> decoded = (RpcResponse<?>) serializer.deserialize(byteBuf, RpcResponse.class);
+        assertEquals(response.getData(), decoded.getData());
+        assertEquals(1L, decoded.getRequestId());
+        assertFalse(byteBuf.isReadable());
+        byteBuf.release();
+    }
+
+    @Test
+    void compositeBufferDoesNotLoseWrites() {
+        CompositeByteBuf byteBuf = Unpooled.compositeBuffer();
+        byteBuf.addComponent(true, Unpooled.buffer(8).writeInt(7));
+        byteBuf.addComponent(false, Unpooled.buffer(4));
+        byteBuf.addComponent(false, Unpooled.buffer(4));
+        RpcResponse<String> response = RpcResponse.success(payload(1000), 2L);
+        serializer.serialize(response, byteBuf);
+
+        assertEquals(7, byteBuf.readInt());
+        RpcResponse<?> decoded = (RpcResponse<?>) serializer.deserialize(byteBuf, RpcResponse.class);
+        assertEquals(response.getData(), decoded.getData());
+        assertEquals(2L, decoded.getRequestId());
+        byteBuf.release();
+    }
+
+    @Test
+    void overflowIsRecordedUntilNextBuffer() {
+        KryoPool.KryoHolder holder = KryoSerializer.getKryoPool().borrow();
+        try {
+            KryoPool.BoundedByteBufferOutput output = holder.byteBufferOutput(ByteBuffer.allocate(4), 4);
+            output.writeInt(1);
+            assertFalse(output.isOverflowed());
+            // 缓冲区已满，抛出异常之前记录溢出
+            assertThrows(KryoException.class, () -> output.writeInt(2));
+            assertTrue(output.isOverflowed());
+            assertFalse(holder.byteBufferOutput(ByteBuffer.allocate(4), 4).isOverflowed());
+        } finally {
+            KryoSerializer.getKryoPool().release(holder);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package studio.lh.transport;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import studio.lh.dto.RpcRequest;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.exception.RpcException;
+import studio.lh.exception.SerializeException;
+import studio.lh.provider.ServiceInvoker;
+import studio.lh.provider.ServiceProviderImpl;
+import studio.lh.serialize.Json.JSONSerializer;
+import studio.lh.serialize.Serializer;
+import studio.lh.serialize.kryo.KryoSerializer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 20:10
+ * @description : 服务端查找方法后按参数类型转换参数: JSON反序列化出的Map、Integer等转换成方法声明的类型，
+ * 协商过方法编号的请求从找到的方法中补上参数类型；方法抛出的异常不会被当作调用结果
+ */
+class RpcRequestHandlerTest {
+
+    private static final String SERVICE_NAME = GreetService.class.getCanonicalName();
+
+    private final RpcRequestHandler rpcRequestHandler = new RpcRequestHandler();
+
+    private final Serializer jsonSerializer = new JSONSerializer();
+
+    public interface GreetService {
+        String greet(Person person, long times, List<String> tags);
+
+        String reject(String reason);
+    }
+
+    public static class Person {
+        private String name;
+        private int age;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getAge() {
+            return age;
+        }
+
+        public void setAge(int age) {
+            this.age = age;
+        }
+    }
+
+    static class GreetServiceImpl implements GreetService {
+        @Override
+        public String greet(Person person, long times, List<String> tags) {
+            return person.getName() + "(" + person.getAge() + ") x" + times + " " + tags;
+        }
+
+        @Override
+        public String reject(String reason) {
+            throw new IllegalArgumentException(reason);
+        }
+    }
+
+    @BeforeAll
+    static void register() {
+        new ServiceProviderImpl().addService(new GreetServiceImpl(), GreetService.class);
+    }
+
+    @Test
+    void fullJsonRequestIsConverted() {
+        RpcRequest decoded = jsonRoundTrip(RpcRequest.builder()
+                .interfaceName(SERVICE_NAME)
+                .methodName("greet")
+                .paramTypes(new Class<?>[]{Person.class, long.class, List.class})
+                .parameters(new Object[]{person("tom", 18), 3L, Arrays.asList("a", "b")})
+                .build());
+        assertEquals("tom(18) x3 [a, b]", handle(decoded));
+    }
+
+    @Test
+    void negotiatedJsonRequestGetsParamTypesFromMethod() {
+        int methodId = methodId();
+        RpcRequest decoded = jsonRoundTrip(RpcRequest.builder()
+                .methodId(methodId)
+                .parameters(new Object[]{person("jerry", 7), 2L, Arrays.asList("x")})
+                .build());
+        assertNull(decoded.getParamTypes());
+        assertEquals("jerry(7) x2 [x]", handle(decoded));
+        assertArrayEquals(new Class<?>[]{Person.class, long.class, List.class}, decoded.getParamTypes());
+    }
+
+    @Test
+    void nullParametersAreKept() {
+        RpcRequest decoded = jsonRoundTrip(RpcRequest.builder()
+                .methodId(methodId())
+                .parameters(new Object[]{person("anna", 30), 1L, null})
+                .build());
+        assertEquals("anna(30) x1 null", handle(decoded));
+    }
+
+    @Test
+    void mismatchedParameterFailsConversion() {
+        RpcRequest decoded = jsonRoundTrip(RpcRequest.builder()
+                .methodId(methodId())
+                .parameters(new Object[]{person("bob", 1), "not a number", Arrays.asList("x")})
+                .build());
+        ServiceInvoker.MethodInvoker methodInvoker = rpcRequestHandler.resolve(decoded);
+        assertThrows(SerializeException.class, () -> rpcRequestHandler.convertParameters(decoded, methodInvoker, jsonSerializer));
+    }
+
+    @Test
+    void typedSerializerNeedsNoConversion() {
+        Serializer kryoSerializer = new KryoSerializer();
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .methodId(methodId())
+                .parameters(new Object[]{person("kate", 5), 4L, new ArrayList<>(Arrays.asList("k"))})
+                .build();
+        RpcRequest decoded = (RpcRequest) kryoSerializer.deserialize(kryoSerializer.serialize(rpcRequest), RpcRequest.class);
+        ServiceInvoker.MethodInvoker methodInvoker = rpcRequestHandler.resolve(decoded);
+        rpcRequestHandler.convertParameters(decoded, methodInvoker, kryoSerializer);
+        assertEquals("kate(5) x4 [k]", rpcRequestHandler.invoke(decoded, methodInvoker));
+    }
+
+    @Test
+    void thrownExceptionIsNotReturnedAsResult() {
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .interfaceName(SERVICE_NAME)
+                .methodName("reject")
+                .paramTypes(new Class<?>[]{String.class})
+                .parameters(new Object[]{"no"})
+                .build();
+        ServiceInvoker.MethodInvoker methodInvoker = rpcRequestHandler.resolve(rpcRequest);
+        RpcException e = assertThrows(RpcException.class, () -> rpcRequestHandler.invoke(rpcRequest, methodInvoker));
+        assertEquals(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, e.getErrorMessageEnum());
+        e = assertThrows(RpcException.class, () -> rpcRequestHandler.handle(rpcRequest));
+        assertEquals(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, e.getErrorMessageEnum());
+        RpcRequest missing = RpcRequest.builder()
+                .interfaceName(SERVICE_NAME)
+                .methodName("missing")
+                .paramTypes(new Class<?>[]{String.class})
+                .parameters(new Object[]{"no"})
+                .build();
+        e = assertThrows(RpcException.class, () -> rpcRequestHandler.handle(missing));
+        assertEquals(RpcErrorMessageEnum.METHOD_CAN_NOT_FOUND, e.getErrorMessageEnum());
+    }
+
+    private Object handle(RpcRequest rpcRequest) {
+        ServiceInvoker.MethodInvoker methodInvoker = rpcRequestHandler.resolve(rpcRequest);
+        assertNotNull(methodInvoker);
+        rpcRequestHandler.convertParameters(rpcRequest, methodInvoker, jsonSerializer);
+        return rpcRequestHandler.invoke(rpcRequest, methodInvoker);
+    }
+
+    private int methodId() {
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .interfaceName(SERVICE_NAME)
+                .methodName("greet")
+                .paramTypes(new Class<?>[]{Person.class, long.class, List.class})
+                .build();
+        return rpcRequestHandler.resolve(rpcRequest).getMethodId();
+    }
+
+    private RpcRequest jsonRoundTrip(RpcRequest rpcRequest) {
+        return (RpcRequest) jsonSerializer.deserialize(jsonSerializer.serialize(rpcRequest), RpcRequest.class);
+    }
+
+    private static Person person(String name, int age) {
+        Person person = new Person();
+        person.setName(name);
+        person.setAge(age);
+        return person;
+    }
+}
@@ -0,0 +1,199 @@
+package studio.lh.transport.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import org.junit.jupiter.api.Test;
+import studio.lh.compress.CompressTypeEnum;
+import studio.lh.dto.RpcMessage;
+import studio.lh.dto.RpcRequest;
+import studio.lh.dto.RpcResponse;
+import studio.lh.enumeration.RpcMessageTypeEnum;
+import studio.lh.serialize.Serializer;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 10:30
+ * @description : 协议帧经过编码器、解码器的往返，覆盖每种序列化器、每种压缩算法和跨越压缩块的消息体大小，
+ * 以及消息体无法解析时只丢弃这一帧
+ */
+class NettyCodecTest {
+
+    private static final int[] SIZES = {16, 4 * 1024, 32 * 1024, 64 * 1024, 108 * 1024, 1024 * 1024};
+
+    private static final int[] CODECS = {Serializer.KRYO_SERIALIZER, Serializer.JSON_SERIALIZER};
+
+    @Test
+    void responseRoundTrip() {
+        for (int codec : CODECS) {
+            for (CompressTypeEnum compress : CompressTypeEnum.values()) {
+                for (int size : SIZES) {
+                    String data = text(size);
+                    RpcMessage decoded = roundTrip(compress, RpcMessage.builder()
+                            .messageType(RpcMessageTypeEnum.RESPONSE.getCode())
+                            .codec((byte) codec)
+                            .requestId(size)
+                            .data(RpcResponse.success(data, size))
+                            .build());
+                    String message = "codec " + codec + ", " + compress + ", " + size;
+                    assertEquals(RpcMessageTypeEnum.RESPONSE.getCode(), decoded.getMessageType(), message);
+                    assertEquals(size, decoded.getRequestId(), message);
+                    assertEquals(data, ((RpcResponse<?>) decoded.getData()).getData(), message);
+                    // 消息体小于阈值时不压缩
+                    assertEquals(size >= 1024 ? compress.getCode() : 0, decoded.getCompress(), message);
+                }
+            }
+        }
+    }
+
+    @Test
+    void requestRoundTrip() {
+        for (int codec : CODECS) {
+            for (CompressTypeEnum compress : CompressTypeEnum.values()) {
+                RpcRequest rpcRequest = RpcRequest.builder()
+                        .requestId(7L)
+                        .interfaceName("studio.lh.HelloService")
+                        .methodName("hello")
+                        .parameters(new Object[]{text(64 * 1024)})
+                        .paramTypes(new Class<?>[]{String.class})
+                        .build();
+                RpcMessage decoded = roundTrip(compress, RpcMessage.builder()
+                        .messageType(RpcMessageTypeEnum.REQUEST.getCode())
+                        .codec((byte) codec)
+                        .requestId(7L)
+                        .data(rpcRequest)
+                        .build());
+                RpcRequest result = (RpcRequest) decoded.getData();
+                assertEquals(rpcRequest.getInterfaceName(), result.getInterfaceName());
+                assertEquals(rpcRequest.getMethodName(), result.getMethodName());
+                assertArrayEquals(rpcRequest.getParamTypes(), result.getParamTypes());
+                assertArrayEquals(rpcRequest.getParameters(), result.getParameters());
+            }
+        }
+    }
+
+    @Test
+    void heartbeatHasNoBody() {
+        RpcMessage decoded = roundTrip(CompressTypeEnum.SNAPPY, RpcMessage.builder()
+                .messageType(RpcMessageTypeEnum.HEARTBEAT_PING.getCode())
+                .requestId(3L)
+                .build());
+        assertEquals(RpcMessageTypeEnum.HEARTBEAT_PING.getCode(), decoded.getMessageType());
+        assertEquals(3L, decoded.getRequestId());
+        assertNull(decoded.getData());
+    }
+
+    /**
+     * 编码后一个字节一个字节地写入解码器，同时检查半包的处理
+     */
+    @Test
+    void decodesFrameSplitAcrossReads() {
+        EmbeddedChannel encoder = new EmbeddedChannel(new NettyKryoEncoder(CompressTypeEnum.NONE.getCode(), 1024));
+        encoder.writeOutbound(RpcMessage.builder()
+                .messageType(RpcMessageTypeEnum.RESPONSE.getCode())
+                .codec(Serializer.KRYO_SERIALIZER.byteValue())
+                .requestId(9L)
+                .data(RpcResponse.success("split", 9L))
+                .build());
+        ByteBuf encoded = encoder.readOutbound();
+        EmbeddedChannel decoder = new EmbeddedChannel(new NettyKryoDecoder());
+        while (encoded.isReadable()) {
+            decoder.writeInbound(encoded.readRetainedSlice(1));
+        }
+        encoded.release();
+        RpcMessage decoded = decoder.readInbound();
+        assertEquals("split", ((RpcResponse<?>) decoded.getData()).getData());
+    }
+
+    /**
+     * 消息体解析失败只影响这一帧: 解码器带出原因并继续解码后面的帧，连接保持打开
+     */
+    @Test
+    void badBodyFailsOnlyItsFrame() {
+        EmbeddedChannel encoder = new EmbeddedChannel(new NettyKryoEncoder(CompressTypeEnum.NONE.getCode(), 1024));
+        encoder.writeOutbound(RpcMessage.builder()
+                .messageType(RpcMessageTypeEnum.RESPONSE.getCode())
+                .codec(Serializer.KRYO_SERIALIZER.byteValue())
+                .requestId(4L)
+                .data(RpcResponse.success("after", 4L))
+                .build());
+        ByteBuf good = encoder.readOutbound();
+        ByteBuf frames = Unpooled.buffer();
+        // 未知的序列化器、未知的压缩算法、无法反序列化的消息体
+        writeFrame(frames, (byte) 9, (byte) 0, 1L, new byte[]{1, 2, 3});
+        writeFrame(frames, Serializer.KRYO_SERIALIZER.byteValue(), (byte) 9, 2L, new byte[]{1, 2, 3});
+        writeFrame(frames, Serializer.KRYO_SERIALIZER.byteValue(), (byte) 0, 3L, new byte[]{-1, -1, -1, -1});
+        frames.writeBytes(good);
+        good.release();
+        EmbeddedChannel decoder = new EmbeddedChannel(new NettyKryoDecoder());
+        decoder.writeInbound(frames);
+        for (long requestId = 1; requestId <= 3; requestId++) {
+            RpcMessage failed = decoder.readInbound();
+            assertEquals(requestId, failed.getRequestId());
+            assertNotNull(failed.getDecodeError(), String.valueOf(requestId));
+            assertNull(failed.getData());
+        }
+        RpcMessage decoded = decoder.readInbound();
+        assertNull(decoded.getDecodeError());
+        assertEquals("after", ((RpcResponse<?>) decoded.getData()).getData());
+        assertTrue(decoder.isActive());
+        encoder.finishAndReleaseAll();
+        decoder.finishAndReleaseAll();
+    }
+
+    /**
+     * 帧头出错后找不到下一帧的边界，仍然由异常处理关闭连接
+     */
+    @Test
+    void badHeaderIsConnectionError() {
+        EmbeddedChannel decoder = new EmbeddedChannel(new NettyKryoDecoder());
+        ByteBuf frame = Unpooled.buffer();
+        writeFrame(frame, Serializer.KRYO_SERIALIZER.byteValue(), (byte) 0, 1L, new byte[]{1});
+        frame.setInt(0, 0xCAFEBABE);
+        assertThrows(DecoderException.class, () -> decoder.writeInbound(frame));
+        decoder.finishAndReleaseAll();
+    }
+
+    private static void writeFrame(ByteBuf byteBuf, byte codec, byte compress, long requestId, byte[] body) {
+        byteBuf.writeInt(RpcProtocolConstants.MAGIC_NUMBER);
+        byteBuf.writeByte(RpcProtocolConstants.VERSION);
+        byteBuf.writeByte(RpcMessageTypeEnum.RESPONSE.getCode());
+        byteBuf.writeByte(codec);
+        byteBuf.writeByte(compress);
+        byteBuf.writeLong(requestId);
+        byteBuf.writeInt(body.length);
+        byteBuf.writeBytes(body);
+    }
+
+    private static RpcMessage roundTrip(CompressTypeEnum compress, RpcMessage rpcMessage) {
+        EmbeddedChannel encoder = new EmbeddedChannel(new NettyKryoEncoder(compress.getCode(), 1024));
+        encoder.writeOutbound(rpcMessage);
+        ByteBuf encoded = encoder.readOutbound();
+        EmbeddedChannel decoder = new EmbeddedChannel(new NettyKryoDecoder());
+        decoder.writeInbound(encoded);
+        RpcMessage decoded = decoder.readInbound();
+        encoder.finishAndReleaseAll();
+        decoder.finishAndReleaseAll();
+        return decoded;
+    }
+
+    private static String text(int size) {
+        char[] chars = new char[size];
+        for (int i = 0; i < size; i++) {
+            chars[i] = (char) ('a' + (i / 5) % 26);
+        }
+        Arrays.fill(chars, 0, Math.min(size, 8), '#');
+        return new String(chars);
+    }
+}
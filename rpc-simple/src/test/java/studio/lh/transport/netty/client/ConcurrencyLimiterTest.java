@@ -0,0 +1,141 @@
+package studio.lh.transport.netty.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 17:40
+ * @description : 自适应并发上限的加法增大、乘法减小，名额的申请与归还，以及服务端下线后删除
+ * 上限按服务端地址全局共享，每个用例使用不同的端口
+ */
+class ConcurrencyLimiterTest {
+
+    private static final int INITIAL_LIMIT = 200;
+
+    private static final long FAST_RTT = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private static final AtomicInteger PORT = new AtomicInteger(20000);
+
+    private static ConcurrencyLimiter newLimiter() {
+        return ConcurrencyLimiter.get(new InetSocketAddress("127.0.0.1", PORT.incrementAndGet()));
+    }
+
+    private static void acquire(ConcurrencyLimiter limiter, int permits) {
+        for (int i = 0; i < permits; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+    }
+
+    @Test
+    void rejectsAboveLimit() {
+        ConcurrencyLimiter limiter = newLimiter();
+        assertEquals(INITIAL_LIMIT, limiter.getLimit());
+        acquire(limiter, INITIAL_LIMIT);
+        assertFalse(limiter.tryAcquire());
+        assertEquals(INITIAL_LIMIT, limiter.getInflight());
+        limiter.onIgnored();
+        assertEquals(INITIAL_LIMIT - 1, limiter.getInflight());
+        assertEquals(INITIAL_LIMIT, limiter.getLimit());
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    void additiveIncreaseWhenSaturated() {
+        ConcurrencyLimiter limiter = newLimiter();
+        acquire(limiter, INITIAL_LIMIT);
+        // 保持并发打满，每个请求都以稳定的延迟返回
+        for (int i = 0; i < 2000; i++) {
+            limiter.onSuccess(FAST_RTT);
+            assertTrue(limiter.tryAcquire());
+        }
+        // 每次成功增加 1/limit，约每一轮上限个请求加1
+        int limit = limiter.getLimit();
+        assertTrue(limit >= INITIAL_LIMIT + 9 && limit <= INITIAL_LIMIT + 10, String.valueOf(limit));
+    }
+
+    @Test
+    void noIncreaseWhenUnderused() {
+        ConcurrencyLimiter limiter = newLimiter();
+        for (int i = 0; i < 2000; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess(FAST_RTT);
+        }
+        assertEquals(INITIAL_LIMIT, limiter.getLimit());
+        assertEquals(0, limiter.getInflight());
+    }
+
+    @Test
+    void dropHalvesLimitOncePerRtt() {
+        ConcurrencyLimiter limiter = newLimiter();
+        acquire(limiter, 3);
+        long rtt = TimeUnit.SECONDS.toNanos(10);
+        limiter.onDropped(rtt);
+        assertEquals(INITIAL_LIMIT / 2, limiter.getLimit());
+        // 同一个延迟周期内的其他失败不再减小
+        limiter.onDropped(rtt);
+        limiter.onDropped(rtt);
+        assertEquals(INITIAL_LIMIT / 2, limiter.getLimit());
+        assertEquals(0, limiter.getInflight());
+    }
+
+    @Test
+    void repeatedDropsStopAtMinimum() {
+        ConcurrencyLimiter limiter = newLimiter();
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.tryAcquire());
+            // 还没有延迟样本, 耗时为0时不限制减小的间隔
+            limiter.onDropped(0);
+        }
+        assertEquals(1, limiter.getLimit());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+    }
+
+    @Test
+    void latencyIncreaseShrinksLimit() {
+        ConcurrencyLimiter limiter = newLimiter();
+        acquire(limiter, INITIAL_LIMIT);
+        limiter.onSuccess(FAST_RTT);
+        // 延迟超过最小延迟的2倍，认为服务端开始排队
+        limiter.onSuccess(FAST_RTT * 5);
+        assertEquals((int) (INITIAL_LIMIT * 0.9), limiter.getLimit());
+    }
+
+    @Test
+    void removedLimiterStartsOverWhenAddressReturns() {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", PORT.incrementAndGet());
+        ConcurrencyLimiter removed = ConcurrencyLimiter.get(address);
+        acquire(removed, 3);
+        removed.onDropped(0);
+        assertEquals(INITIAL_LIMIT / 2, removed.getLimit());
+        ConcurrencyLimiter.remove(address);
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.get(address);
+        assertNotSame(removed, limiter);
+        assertEquals(INITIAL_LIMIT, limiter.getLimit());
+        assertEquals(0, limiter.getInflight());
+        // 下线前的在途请求归还到旧的对象上
+        removed.onIgnored();
+        assertEquals(1, removed.getInflight());
+        assertEquals(0, limiter.getInflight());
+    }
+
+    @Test
+    void latencyBelowFloorIsIgnored() {
+        ConcurrencyLimiter limiter = newLimiter();
+        acquire(limiter, INITIAL_LIMIT);
+        limiter.onSuccess(TimeUnit.MICROSECONDS.toNanos(50));
+        // 本机调用的抖动: 延迟翻了好几倍但仍低于1ms
+        limiter.onSuccess(TimeUnit.MICROSECONDS.toNanos(500));
+        assertEquals(INITIAL_LIMIT, limiter.getLimit());
+    }
+}
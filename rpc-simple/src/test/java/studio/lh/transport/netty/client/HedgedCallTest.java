@@ -0,0 +1,269 @@
+package studio.lh.transport.netty.client;
+
+import org.junit.jupiter.api.Test;
+import studio.lh.annotation.Idempotent;
+import studio.lh.dto.RpcRequest;
+import studio.lh.dto.RpcResponse;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.enumeration.RpcResponseCode;
+import studio.lh.exception.RpcException;
+import studio.lh.registry.DirectServiceDiscovery;
+
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 19:00
+ * @description : 幂等调用的对冲与重试: 先返回的请求胜出、其他请求被取消，失败时重试，重试预算用完后不再重试
+ * 用记录请求的客户端代替网络发送，每个请求的结果由用例决定
+ */
+class HedgedCallTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private static final AtomicInteger SERVICE_ID = new AtomicInteger();
+
+    interface Methods {
+        @Idempotent(hedgeDelayMillis = 50)
+        void hedged();
+
+        @Idempotent(hedgeDelayMillis = 0, maxAttempts = 3)
+        void retryOnly();
+    }
+
+    @Test
+    void fastResponseWinsWithoutHedge() throws Exception {
+        RecordingClient client = new RecordingClient(2);
+        CompletableFuture<RpcResponse> result = start(client, "hedged");
+        Sent first = client.next();
+        first.future.complete(RpcResponse.success("first", first.request.getRequestId()));
+        RpcResponse response = result.get(1, TimeUnit.SECONDS);
+        assertEquals("first", response.getData());
+        Thread.sleep(150);
+        assertNull(client.sent.poll());
+    }
+
+    @Test
+    void hedgeWinsAndFirstRequestIsCancelled() throws Exception {
+        RecordingClient client = new RecordingClient(2);
+        RpcRequest rpcRequest = request("hedged");
+        CompletableFuture<RpcResponse> result = new HedgedCall(client, Runnable::run, rpcRequest, TIMEOUT_MILLIS).start();
+        Sent first = client.next();
+        assertFalse(first.requireNew);
+        // 首个请求没有响应，等待时间过后发往另一个实例
+        Sent hedge = client.next();
+        assertTrue(hedge.requireNew);
+        assertTrue(hedge.request.getRequestId() != first.request.getRequestId());
+        hedge.future.complete(RpcResponse.success("hedge", hedge.request.getRequestId()));
+        RpcResponse response = result.get(1, TimeUnit.SECONDS);
+        assertEquals("hedge", response.getData());
+        // 调用结果使用调用的请求号
+        assertEquals(rpcRequest.getRequestId(), response.getRequestId());
+        assertTrue(first.future.isCancelled());
+        // 落败请求迟到的响应不影响结果
+        first.future.complete(RpcResponse.success("late", first.request.getRequestId()));
+        assertSame(response, result.get());
+    }
+
+    @Test
+    void noHedgeWithoutAnotherInstance() throws Exception {
+        RecordingClient client = new RecordingClient(1);
+        CompletableFuture<RpcResponse> result = start(client, "hedged");
+        Sent first = client.next();
+        Thread.sleep(150);
+        assertNull(client.sent.poll());
+        first.future.complete(RpcResponse.success("first", first.request.getRequestId()));
+        assertEquals("first", result.get(1, TimeUnit.SECONDS).getData());
+    }
+
+    @Test
+    void retryableFailureIsRetried() throws Exception {
+        RecordingClient client = new RecordingClient(2);
+        String service = newService();
+        long available = RetryBudget.get(service).getAvailable();
+        CompletableFuture<RpcResponse> result = start(client, service, "retryOnly");
+        client.next().future.completeExceptionally(new RpcException(RpcErrorMessageEnum.CONNECTION_CLOSED, "test"));
+        Sent retry = client.next();
+        retry.future.complete(RpcResponse.success("retry", retry.request.getRequestId()));
+        assertEquals("retry", result.get(1, TimeUnit.SECONDS).getData());
+        assertEquals(available - 1, RetryBudget.get(service).getAvailable());
+    }
+
+    @Test
+    void overloadResponseIsRetried() throws Exception {
+        RecordingClient client = new RecordingClient(2);
+        CompletableFuture<RpcResponse> result = start(client, "retryOnly");
+        Sent first = client.next();
+        first.future.complete(RpcResponse.fail(RpcResponseCode.OVERLOAD, first.request.getRequestId()));
+        Sent retry = client.next();
+        retry.future.complete(RpcResponse.success("retry", retry.request.getRequestId()));
+        assertEquals("retry", result.get(1, TimeUnit.SECONDS).getData());
+    }
+
+    @Test
+    void nonRetryableFailureIsNotRetried() throws Exception {
+        RecordingClient client = new RecordingClient(2);
+        CompletableFuture<RpcResponse> result = start(client, "retryOnly");
+        client.next().future.completeExceptionally(new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_FOUND, "test"));
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(1, TimeUnit.SECONDS));
+        assertEquals(RpcErrorMessageEnum.SERVICE_CAN_NOT_FOUND, ((RpcException) e.getCause()).getErrorMessageEnum());
+        assertNull(client.sent.poll());
+    }
+
+    @Test
+    void stopsAfterMaxAttempts() {
+        RecordingClient client = new RecordingClient(3);
+        CompletableFuture<RpcResponse> result = start(client, "retryOnly");
+        for (int i = 0; i < 3; i++) {
+            client.next().future.completeExceptionally(new RpcException(RpcErrorMessageEnum.SERVICE_OVERLOAD, "attempt " + i));
+        }
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(1, TimeUnit.SECONDS));
+        assertTrue(e.getCause().getMessage().endsWith("attempt 2"), e.getCause().getMessage());
+        assertNull(client.sent.poll());
+    }
+
+    @Test
+    void exhaustedBudgetStopsRetryAndHedge() throws Exception {
+        String service = newService();
+        RetryBudget budget = RetryBudget.get(service);
+        while (budget.tryWithdraw()) {
+            // 用完预算
+        }
+        RecordingClient client = new RecordingClient(2);
+        CompletableFuture<RpcResponse> retryResult = start(client, service, "retryOnly");
+        client.next().future.completeExceptionally(new RpcException(RpcErrorMessageEnum.CONNECTION_CLOSED, "test"));
+        ExecutionException e = assertThrows(ExecutionException.class, () -> retryResult.get(1, TimeUnit.SECONDS));
+        assertEquals(RpcErrorMessageEnum.CONNECTION_CLOSED, ((RpcException) e.getCause()).getErrorMessageEnum());
+        assertNull(client.sent.poll());
+
+        CompletableFuture<RpcResponse> hedgeResult = start(client, service, "hedged");
+        Sent first = client.next();
+        Thread.sleep(150);
+        assertNull(client.sent.poll());
+        first.future.complete(RpcResponse.success("first", first.request.getRequestId()));
+        assertEquals("first", hedgeResult.get(1, TimeUnit.SECONDS).getData());
+    }
+
+    @Test
+    void budgetRefilledByCalls() {
+        String service = newService();
+        RetryBudget budget = RetryBudget.get(service);
+        while (budget.tryWithdraw()) {
+            // 用完预算
+        }
+        // 每个调用存入0.1个令牌
+        for (int i = 0; i < 9; i++) {
+            budget.deposit();
+        }
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+
+    private static CompletableFuture<RpcResponse> start(RecordingClient client, String methodName) {
+        return start(client, newService(), methodName);
+    }
+
+    private static CompletableFuture<RpcResponse> start(RecordingClient client, String service, String methodName) {
+        RpcRequest rpcRequest = request(methodName);
+        rpcRequest.setInterfaceName(service);
+        return new HedgedCall(client, Runnable::run, rpcRequest, TIMEOUT_MILLIS).start();
+    }
+
+    private static RpcRequest request(String methodName) {
+        Idempotent idempotent;
+        try {
+            idempotent = Methods.class.getMethod(methodName).getAnnotation(Idempotent.class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .interfaceName(newService())
+                .methodName(methodName)
+                .parameters(new Object[0])
+                .paramTypes(new Class<?>[0])
+                .idempotent(idempotent)
+                .build();
+        rpcRequest.setRequestId(-SERVICE_ID.incrementAndGet());
+        return rpcRequest;
+    }
+
+    private static String newService() {
+        return "HedgedCallTest" + SERVICE_ID.incrementAndGet();
+    }
+
+    private static final class Sent {
+        private final RpcRequest request;
+        private final boolean requireNew;
+        private final CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+
+        private Sent(RpcRequest request, boolean requireNew) {
+            this.request = request;
+            this.requireNew = requireNew;
+        }
+    }
+
+    /**
+     * 不发送请求，只记录下来; 实例按顺序分配，对冲请求没有新实例时与真实客户端一样返回null
+     */
+    private static final class RecordingClient extends NettyRpcClient {
+        private static final AtomicInteger REQUEST_ID = new AtomicInteger();
+        private final int instances;
+        private final BlockingQueue<Sent> sent = new LinkedBlockingQueue<>();
+
+        RecordingClient(int instances) {
+            super(0, new DirectServiceDiscovery("127.0.0.1:9000"));
+            this.instances = instances;
+        }
+
+        @Override
+        CompletableFuture<RpcResponse> send(RpcRequest rpcRequest, long timeoutMillis, Set<InetSocketAddress> tried, boolean requireNew) {
+            rpcRequest.setRequestId(REQUEST_ID.incrementAndGet());
+            InetSocketAddress selected = null;
+            for (int i = 0; i < instances; i++) {
+                InetSocketAddress address = new InetSocketAddress("127.0.0.1", 9000 + i);
+                if (!tried.contains(address)) {
+                    selected = address;
+                    break;
+                }
+            }
+            if (selected == null) {
+                if (requireNew) {
+                    return null;
+                }
+                selected = new InetSocketAddress("127.0.0.1", 9000);
+            }
+            tried.add(selected);
+            Sent s = new Sent(rpcRequest, requireNew);
+            sent.add(s);
+            return s.future;
+        }
+
+        Sent next() {
+            try {
+                Sent s = sent.poll(2, TimeUnit.SECONDS);
+                assertNotNull(s, "no request sent");
+                return s;
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package studio.lh.transport.netty.client;
+
+import org.junit.jupiter.api.Test;
+import studio.lh.breaker.CircuitBreaker;
+import studio.lh.dto.RpcRequest;
+import studio.lh.dto.RpcResponse;
+import studio.lh.exception.RpcException;
+import studio.lh.loadbalancer.RoundRobinLoadBalancer;
+import studio.lh.registry.DirectServiceDiscovery;
+import studio.lh.registry.InMemoryServiceRegistry;
+import studio.lh.registry.ServiceDiscovery;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 21:30
+ * @description : 客户端监听调用过的服务的实例列表，实例下线后删除它的熔断器，
+ * 地址不再属于任何调用过的服务时再删除并发上限和负载均衡统计
+ * 实例地址上没有服务端，请求因连接失败结束，只用来让客户端开始监听；第一次连接时发送请求不等待连接建立；
+ * 选中的实例被熔断器拒绝后重新选择时仍然避开已经发送过的实例
+ */
+class NettyRpcClientTest {
+
+    private final InetSocketAddress a = new InetSocketAddress("127.0.0.1", 21001);
+
+    private final InetSocketAddress shared = new InetSocketAddress("127.0.0.1", 21002);
+
+    @Test
+    void evictsStateOfRemovedInstances() {
+        RecordingLoadBalancer loadBalancer = new RecordingLoadBalancer();
+        InMemoryServiceRegistry registry = new InMemoryServiceRegistry(loadBalancer);
+        String service = "NettyRpcClientTest.evicts";
+        String other = "NettyRpcClientTest.other";
+        registry.register(service, a);
+        registry.register(service, shared);
+        registry.register(other, shared);
+        NettyRpcClient client = new NettyRpcClient(0, registry);
+        call(client, service);
+        call(client, other);
+
+        CircuitBreaker breakerA = CircuitBreaker.get(service, a);
+        ConcurrencyLimiter limiterA = ConcurrencyLimiter.get(a);
+        registry.deregister(service, a);
+        assertNotSame(breakerA, CircuitBreaker.get(service, a));
+        assertNotSame(limiterA, ConcurrencyLimiter.get(a));
+        assertEquals(Collections.singletonList(a), loadBalancer.removed);
+
+        // 另一个服务仍在使用的地址只删除这个服务下的熔断器
+        CircuitBreaker sharedBreaker = CircuitBreaker.get(service, shared);
+        CircuitBreaker otherBreaker = CircuitBreaker.get(other, shared);
+        ConcurrencyLimiter sharedLimiter = ConcurrencyLimiter.get(shared);
+        registry.deregister(service, shared);
+        assertNotSame(sharedBreaker, CircuitBreaker.get(service, shared));
+        assertSame(otherBreaker, CircuitBreaker.get(other, shared));
+        assertSame(sharedLimiter, ConcurrencyLimiter.get(shared));
+        assertEquals(Collections.singletonList(a), loadBalancer.removed);
+
+        registry.deregister(other, shared);
+        assertNotSame(otherBreaker, CircuitBreaker.get(other, shared));
+        assertNotSame(sharedLimiter, ConcurrencyLimiter.get(shared));
+        assertEquals(Arrays.asList(a, shared), loadBalancer.removed);
+    }
+
+    @Test
+    void servicesNeverCalledAreNotWatched() {
+        InMemoryServiceRegistry registry = new InMemoryServiceRegistry();
+        String service = "NettyRpcClientTest.idle";
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 21003);
+        registry.register(service, address);
+        new NettyRpcClient(0, registry);
+        CircuitBreaker breaker = CircuitBreaker.get(service, address);
+        registry.deregister(service, address);
+        assertSame(breaker, CircuitBreaker.get(service, address));
+    }
+
+    @Test
+    void firstCallDoesNotWaitForConnect() {
+        // 不可路由的地址, 连接要等到连接超时才失败
+        NettyRpcClient client = new NettyRpcClient(0, new DirectServiceDiscovery("10.255.255.1:21010"));
+        RpcRequest rpcRequest = request("NettyRpcClientTest.unreachable");
+        long start = System.nanoTime();
+        CompletableFuture<RpcResponse> future = client.sendRpcRequest(rpcRequest, 1000);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500), "sendRpcRequest blocked on connect");
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RpcException, String.valueOf(e.getCause()));
+    }
+
+    @Test
+    void hedgeAfterBreakerRejectionStillAvoidsTriedInstance() {
+        String service = "NettyRpcClientTest.hedge";
+        InetSocketAddress b = new InetSocketAddress("127.0.0.1", 21005);
+        openBreaker(service, b);
+        // 先选中已熔断的b, 重新选择时只剩第一次请求所在的a
+        NettyRpcClient client = new NettyRpcClient(0, new ScriptedDiscovery(a, b));
+        Set<InetSocketAddress> tried = new HashSet<>(Collections.singletonList(a));
+        assertNull(client.send(request(service), 1000, tried, true));
+        assertEquals(Collections.singleton(a), tried);
+    }
+
+    @Test
+    void retryAfterBreakerRejectionPrefersUntriedInstance() {
+        String service = "NettyRpcClientTest.retry";
+        InetSocketAddress b = new InetSocketAddress("127.0.0.1", 21006);
+        InetSocketAddress c = new InetSocketAddress("127.0.0.1", 21007);
+        openBreaker(service, b);
+        NettyRpcClient client = new NettyRpcClient(0, new ScriptedDiscovery(a, b, a, c));
+        Set<InetSocketAddress> tried = new HashSet<>(Collections.singletonList(a));
+        CompletableFuture<RpcResponse> future = client.send(request(service), 1000, tried, false);
+        assertNotNull(future);
+        assertEquals(new HashSet<>(Arrays.asList(a, c)), tried);
+        assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+    }
+
+    private static void openBreaker(String service, InetSocketAddress address) {
+        CircuitBreaker breaker = CircuitBreaker.get(service, address);
+        for (int i = 0; i < 5; i++) {
+            breaker.onComplete(1, false);
+        }
+        assertFalse(breaker.tryAcquire());
+    }
+
+    private static RpcRequest request(String service) {
+        return RpcRequest.builder()
+                .interfaceName(service)
+                .methodName("hello")
+                .parameters(new Object[0])
+                .paramTypes(new Class<?>[0])
+                .build();
+    }
+
+    private static void call(NettyRpcClient client, String service) {
+        RpcRequest rpcRequest = request(service);
+        assertThrows(ExecutionException.class, () -> client.sendRpcRequest(rpcRequest, 1000).get(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 按给定的顺序返回实例, 用完后一直返回第一个
+     */
+    private static final class ScriptedDiscovery implements ServiceDiscovery {
+        private final InetSocketAddress fallback;
+        private final Queue<InetSocketAddress> script;
+
+        ScriptedDiscovery(InetSocketAddress fallback, InetSocketAddress... script) {
+            this.fallback = fallback;
+            this.script = new ConcurrentLinkedQueue<>(Arrays.asList(script));
+        }
+
+        @Override
+        public InetSocketAddress lookupService(String serviceName) {
+            InetSocketAddress next = script.poll();
+            return next == null ? fallback : next;
+        }
+    }
+
+    private static final class RecordingLoadBalancer extends RoundRobinLoadBalancer {
+        private final List<InetSocketAddress> removed = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onInstanceRemoved(InetSocketAddress address) {
+            removed.add(address);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package studio.lh.transport.netty.client;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import studio.lh.dto.RpcResponse;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.exception.RpcException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 17:10
+ * @description : 待响应请求表: 响应完成、单个请求失败、超时、主动移除和连接断开时的批量失败
+ */
+class UnprocessedRequestsTest {
+
+    private static final long LONG_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    private final UnprocessedRequests unprocessedRequests = new UnprocessedRequests();
+
+    private final EmbeddedChannel channel = new EmbeddedChannel();
+
+    private final EmbeddedChannel otherChannel = new EmbeddedChannel();
+
+    @AfterEach
+    void tearDown() {
+        channel.finishAndReleaseAll();
+        otherChannel.finishAndReleaseAll();
+    }
+
+    @Test
+    void requestIdsIncrease() {
+        long first = unprocessedRequests.nextRequestId();
+        assertEquals(first + 1, unprocessedRequests.nextRequestId());
+        assertEquals(first + 2, unprocessedRequests.nextRequestId());
+    }
+
+    @Test
+    void completeDeliversResponseOnce() throws Exception {
+        CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+        long requestId = unprocessedRequests.nextRequestId();
+        unprocessedRequests.put(requestId, future, channel, LONG_TIMEOUT);
+        RpcResponse response = RpcResponse.success("hello", requestId);
+        unprocessedRequests.complete(requestId, response);
+        assertSame(response, future.get());
+        // 重复或未知的响应被忽略
+        unprocessedRequests.complete(requestId, RpcResponse.success("again", requestId));
+        unprocessedRequests.complete(requestId + 1000, RpcResponse.success("unknown", requestId + 1000));
+        assertSame(response, future.get());
+    }
+
+    @Test
+    void failCompletesOnlyThatRequest() {
+        CompletableFuture<RpcResponse> failed = new CompletableFuture<>();
+        CompletableFuture<RpcResponse> other = new CompletableFuture<>();
+        long requestId = unprocessedRequests.nextRequestId();
+        long otherId = unprocessedRequests.nextRequestId();
+        unprocessedRequests.put(requestId, failed, channel, LONG_TIMEOUT);
+        unprocessedRequests.put(otherId, other, channel, LONG_TIMEOUT);
+        RpcException cause = new RpcException(RpcErrorMessageEnum.SERIALIZER_NOT_FOUND, "codec:9");
+        unprocessedRequests.fail(requestId, cause);
+        ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+        assertSame(cause, e.getCause());
+        assertFalse(other.isDone());
+        // 未知请求号被忽略
+        unprocessedRequests.fail(requestId, cause);
+        unprocessedRequests.remove(otherId);
+    }
+
+    @Test
+    void requestsInDifferentStripesAreIndependent() throws Exception {
+        List<CompletableFuture<RpcResponse>> futures = new ArrayList<>();
+        long first = unprocessedRequests.nextRequestId();
+        for (int i = 0; i < 100; i++) {
+            CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+            unprocessedRequests.put(first + i, future, channel, LONG_TIMEOUT);
+            futures.add(future);
+        }
+        for (int i = 99; i >= 0; i--) {
+            unprocessedRequests.complete(first + i, RpcResponse.success(i, first + i));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, futures.get(i).get().getData());
+        }
+    }
+
+    @Test
+    void timeoutFailsRequestAndIgnoresLateResponse() {
+        CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+        long requestId = unprocessedRequests.nextRequestId();
+        unprocessedRequests.put(requestId, future, channel, 50);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertEquals(RpcErrorMessageEnum.REQUEST_TIMEOUT, ((RpcException) e.getCause()).getErrorMessageEnum());
+        unprocessedRequests.complete(requestId, RpcResponse.success("late", requestId));
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test
+    void completedRequestDoesNotTimeOut() throws Exception {
+        CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+        long requestId = unprocessedRequests.nextRequestId();
+        unprocessedRequests.put(requestId, future, channel, 50);
+        unprocessedRequests.complete(requestId, RpcResponse.success("hello", requestId));
+        Thread.sleep(200);
+        assertFalse(future.isCompletedExceptionally());
+    }
+
+    @Test
+    void removedRequestIsNeitherTimedOutNorCompleted() throws Exception {
+        CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+        long requestId = unprocessedRequests.nextRequestId();
+        unprocessedRequests.put(requestId, future, channel, 50);
+        unprocessedRequests.remove(requestId);
+        Thread.sleep(200);
+        unprocessedRequests.complete(requestId, RpcResponse.success("hello", requestId));
+        assertFalse(future.isDone());
+    }
+
+    @Test
+    void failAllOnlyFailsRequestsOfClosedChannel() {
+        List<CompletableFuture<RpcResponse>> closed = new ArrayList<>();
+        List<CompletableFuture<RpcResponse>> open = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+            long requestId = unprocessedRequests.nextRequestId();
+            boolean onClosed = i % 2 == 0;
+            unprocessedRequests.put(requestId, future, onClosed ? channel : otherChannel, LONG_TIMEOUT);
+            (onClosed ? closed : open).add(future);
+        }
+        unprocessedRequests.failAll(channel);
+        for (CompletableFuture<RpcResponse> future : closed) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+            assertEquals(RpcErrorMessageEnum.CONNECTION_CLOSED, ((RpcException) e.getCause()).getErrorMessageEnum());
+        }
+        // 另一个连接上的请求不受影响
+        for (CompletableFuture<RpcResponse> future : open) {
+            assertFalse(future.isDone());
+        }
+        unprocessedRequests.failAll(otherChannel);
+        for (CompletableFuture<RpcResponse> future : open) {
+            assertTrue(future.isCompletedExceptionally());
+        }
+    }
+}
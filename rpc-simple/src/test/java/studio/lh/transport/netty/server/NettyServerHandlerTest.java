@@ -0,0 +1,124 @@
+package studio.lh.transport.netty.server;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import studio.lh.annotation.RpcDispatch;
+import studio.lh.dto.RpcMessage;
+import studio.lh.dto.RpcRequest;
+import studio.lh.dto.RpcResponse;
+import studio.lh.enumeration.DispatchModeEnum;
+import studio.lh.enumeration.RpcErrorMessageEnum;
+import studio.lh.enumeration.RpcMessageTypeEnum;
+import studio.lh.enumeration.RpcResponseCode;
+import studio.lh.exception.RpcException;
+import studio.lh.provider.ServiceProviderImpl;
+import studio.lh.serialize.Serializer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 21:50
+ * @description : 服务端按调用结果回复: 正常返回时回复成功，业务方法抛出异常、找不到方法、消息体无法解析时回复对应的失败码
+ * 方法在IO线程上执行，EmbeddedChannel上同步得到响应
+ */
+class NettyServerHandlerTest {
+
+    private final EmbeddedChannel channel = new EmbeddedChannel(new NettyServerHandler());
+
+    @RpcDispatch(DispatchModeEnum.IO_THREAD)
+    public interface EchoService {
+        String echo(String message);
+
+        String fail(String message);
+    }
+
+    static class EchoServiceImpl implements EchoService {
+        @Override
+        public String echo(String message) {
+            return message;
+        }
+
+        @Override
+        public String fail(String message) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    @BeforeAll
+    static void register() {
+        new ServiceProviderImpl().addService(new EchoServiceImpl(), EchoService.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void normalResultIsSuccess() {
+        RpcResponse<?> rpcResponse = call("echo", 1);
+        assertEquals(RpcResponseCode.SUCCESS.getCode(), rpcResponse.getCode());
+        assertEquals("hi", rpcResponse.getData());
+        assertEquals(1, rpcResponse.getRequestId());
+    }
+
+    @Test
+    void thrownExceptionIsFailure() {
+        RpcResponse<?> rpcResponse = call("fail", 2);
+        assertEquals(RpcResponseCode.FAIL.getCode(), rpcResponse.getCode());
+        // 失败响应不带结果，客户端不会把它当作返回值
+        assertNull(rpcResponse.getData());
+        assertEquals(2, rpcResponse.getRequestId());
+    }
+
+    @Test
+    void unknownMethodIsNotFound() {
+        RpcResponse<?> rpcResponse = call("missing", 3);
+        assertEquals(RpcResponseCode.NOT_FOUND_METHOD.getCode(), rpcResponse.getCode());
+        assertEquals(3, rpcResponse.getRequestId());
+    }
+
+    @Test
+    void undecodableRequestIsFailure() {
+        channel.writeInbound(RpcMessage.builder()
+                .messageType(RpcMessageTypeEnum.REQUEST.getCode())
+                .codec((byte) 9)
+                .requestId(4)
+                .decodeError(new RpcException(RpcErrorMessageEnum.SERIALIZER_NOT_FOUND, "codec:9"))
+                .build());
+        channel.runPendingTasks();
+        RpcMessage rpcMessage = channel.readOutbound();
+        // 请求的序列化器不可用，用默认的序列化器回复
+        assertEquals(Serializer.KRYO_SERIALIZER.byteValue(), rpcMessage.getCodec());
+        assertEquals(4, rpcMessage.getRequestId());
+        assertEquals(RpcResponseCode.FAIL.getCode(), ((RpcResponse<?>) rpcMessage.getData()).getCode());
+        assertTrue(channel.isActive());
+        // 连接上的后续请求照常处理
+        assertEquals("hi", call("echo", 5).getData());
+    }
+
+    private RpcResponse<?> call(String methodName, long requestId) {
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .requestId(requestId)
+                .interfaceName(EchoService.class.getCanonicalName())
+                .methodName(methodName)
+                .paramTypes(new Class<?>[]{String.class})
+                .parameters(new Object[]{"hi"})
+                .build();
+        channel.writeInbound(RpcMessage.builder()
+                .messageType(RpcMessageTypeEnum.REQUEST.getCode())
+                .requestId(requestId)
+                .data(rpcRequest)
+                .build());
+        channel.runPendingTasks();
+        RpcMessage rpcMessage = channel.readOutbound();
+        assertEquals(RpcMessageTypeEnum.RESPONSE.getCode(), rpcMessage.getMessageType());
+        return (RpcResponse<?>) rpcMessage.getData();
+    }
+}
@@ -0,0 +1,159 @@
+package studio.lh.transport.netty.server;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author :MayRain
+ * @version :1.0
+ * @date :2022/12/23 18:10
+ * @description : 响应合并写出: 一次写出任务写出队列中的全部响应(不超过批量上限)，只flush一次
+ */
+class ResponseWriteBatcherTest {
+
+    private final Recorder recorder = new Recorder();
+
+    private final EmbeddedChannel channel = new EmbeddedChannel(recorder);
+
+    private EventExecutorGroup executorGroup;
+
+    @AfterEach
+    void tearDown() {
+        channel.finishAndReleaseAll();
+        if (executorGroup != null) {
+            executorGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    private ResponseWriteBatcher newBatcher(int maxBatch) {
+        ChannelInboundHandlerAdapter handler = new ChannelInboundHandlerAdapter();
+        channel.pipeline().addLast(handler);
+        return new ResponseWriteBatcher(channel.pipeline().context(handler), maxBatch);
+    }
+
+    @Test
+    void singleResponseIsWrittenAndFlushedImmediately() {
+        ResponseWriteBatcher batcher = newBatcher(64);
+        batcher.write(1);
+        channel.runPendingTasks();
+        assertEquals(1, recorder.written.size());
+        assertEquals(1, recorder.flushes);
+    }
+
+    @Test
+    void queuedResponsesShareOneFlush() {
+        ResponseWriteBatcher batcher = newBatcher(64);
+        for (int i = 0; i < 10; i++) {
+            batcher.write(i);
+        }
+        // 写出任务还没运行，此时不会有写出
+        assertEquals(0, recorder.written.size());
+        channel.runPendingTasks();
+        assertEquals(sequence(10), recorder.written);
+        assertEquals(1, recorder.flushes);
+    }
+
+    @Test
+    void drainsInBatchesOfMaxBatch() {
+        ResponseWriteBatcher batcher = newBatcher(64);
+        for (int i = 0; i < 150; i++) {
+            batcher.write(i);
+        }
+        // 64 + 64 + 22, 每批之后让出EventLoop并重新提交
+        channel.runPendingTasks();
+        assertEquals(sequence(150), recorder.written);
+        assertEquals(3, recorder.flushes);
+    }
+
+    @Test
+    void writeAfterDrainSchedulesAgain() {
+        ResponseWriteBatcher batcher = newBatcher(64);
+        batcher.write(0);
+        channel.runPendingTasks();
+        batcher.write(1);
+        batcher.write(2);
+        channel.runPendingTasks();
+        assertEquals(sequence(3), recorder.written);
+        assertEquals(2, recorder.flushes);
+    }
+
+    @Test
+    void concurrentWritersLoseNothing() throws InterruptedException {
+        // 处理器运行在独立的线程上，业务线程并发写入
+        executorGroup = new DefaultEventExecutorGroup(1);
+        ChannelInboundHandlerAdapter handler = new ChannelInboundHandlerAdapter();
+        channel.pipeline().addLast(executorGroup, handler);
+        ResponseWriteBatcher batcher = new ResponseWriteBatcher(channel.pipeline().context(handler), 16);
+        int threads = 8;
+        int perThread = 2000;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int base = t * perThread;
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    batcher.write(base + i);
+                }
+                done.countDown();
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // 记录只在处理器线程上读写
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        List<Object> written;
+        while ((written = executorGroup.next().submit(() -> new ArrayList<>(recorder.written)).syncUninterruptibly().getNow()).size()
+                < threads * perThread && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(threads * perThread, written.size());
+        // 每个线程的响应按写入顺序写出
+        int[] next = new int[threads];
+        for (Object msg : written) {
+            int value = (Integer) msg;
+            int thread = value / perThread;
+            assertEquals(thread * perThread + next[thread]++, value);
+        }
+        int flushes = executorGroup.next().submit(() -> recorder.flushes).syncUninterruptibly().getNow();
+        assertTrue(flushes >= threads * perThread / 16 && flushes <= threads * perThread, String.valueOf(flushes));
+    }
+
+    private static List<Object> sequence(int count) {
+        List<Object> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    /**
+     * 记录写出的消息和flush次数，不真正写到channel
+     */
+    private static final class Recorder extends ChannelOutboundHandlerAdapter {
+        private final List<Object> written = new ArrayList<>();
+        private int flushes;
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            written.add(msg);
+        }
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) {
+            flushes++;
+        }
+    }
+}
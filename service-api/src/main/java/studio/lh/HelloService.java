@@ -1,5 +1,7 @@
 package studio.lh;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author :MayRain
  * @version :1.0
@@ -8,4 +10,9 @@ package studio.lh;
  */
 public interface HelloService {
     String hello(Hello hello);
+
+    /**
+     * 异步版本, 客户端拿到future后不会阻塞等待
+     */
+    CompletableFuture<String> helloAsync(Hello hello);
 }